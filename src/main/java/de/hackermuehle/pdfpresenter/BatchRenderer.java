@@ -0,0 +1,279 @@
+package de.hackermuehle.pdfpresenter;
+
+import java.awt.Dimension;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import de.hackermuehle.pdfpresenter.model.document.DiskRasterCache;
+import de.hackermuehle.pdfpresenter.model.document.Document;
+import de.hackermuehle.pdfpresenter.model.document.ImageDocument;
+import de.hackermuehle.pdfpresenter.model.document.PdfDocument;
+import de.hackermuehle.pdfpresenter.model.document.TextDocument;
+import de.intarsys.pdf.parser.COSLoadException;
+
+/**
+ * Renders the pages of a document into a directory of PNG files, without
+ * a display. Pages are rendered by a pool of workers and written as soon as
+ * they are done, so only a few pages are held in memory at a time.
+ *
+ * With -warm, rendered pages are also stored in the {@link
+ * DiskRasterCache}, so a presentation started later at the same size finds
+ * them there.
+ *
+ * Run with: java -cp PdfPresentator.jar:presenter_lib/*
+ * de.hackermuehle.pdfpresenter.BatchRenderer [options] file outputDirectory
+ */
+public class BatchRenderer {
+	private static final int DEFAULT_DPI = 150;
+	private static final double POINTS_PER_INCH = 72;
+	private static final int PAGES_PER_WORKER = 2; // rendered or written at a time
+
+	private final Document _document;
+	private final File _directory;
+	private final String _baseName;
+	private final int _workers;
+	private final boolean _warm;
+	private int _dpi = DEFAULT_DPI;
+	private int _width = 0; // 0 if given by the DPI
+	private int _height = 0;
+
+	/**
+	 * @param document
+	 * @param directory Directory to write the pages to
+	 * @param baseName Prefix of the names of the files
+	 * @param workers Number of pages rendered at the same time
+	 * @param warm True to store rendered pages in the disk cache
+	 */
+	public BatchRenderer(Document document, File directory, String baseName, int workers, boolean warm) {
+		if (workers <= 0) throw new IllegalArgumentException("workers <= 0");
+		_document = document;
+		_directory = directory;
+		_baseName = baseName;
+		_workers = workers;
+		_warm = warm;
+	}
+
+	/**
+	 * Renders pages at the given resolution, one pixel per point at 72 DPI.
+	 */
+	public void setDpi(int dpi) {
+		if (dpi <= 0) throw new IllegalArgumentException("dpi <= 0");
+		_dpi = dpi;
+		_width = 0;
+		_height = 0;
+	}
+
+	/**
+	 * Renders pages as large as fits into the given size, keeping their
+	 * aspect ratio.
+	 *
+	 * @param width Maximum width in pixels, 0 if unlimited
+	 * @param height Maximum height in pixels, 0 if unlimited
+	 */
+	public void setSize(int width, int height) {
+		if (width < 0 || height < 0 || width + height == 0) throw new IllegalArgumentException("Illegal size: " + width + "x" + height);
+		_width = width;
+		_height = height;
+	}
+
+	/**
+	 * @return The size in pixels the page is rendered at, the size a view of
+	 *         the maximum size caches it at
+	 */
+	Dimension getPixelSize(int pageNr) {
+		Rectangle2D bounds = _document.getBounds(pageNr);
+		double scale;
+		if (_width == 0 && _height == 0) {
+			scale = _dpi / POINTS_PER_INCH;
+		} else if (_height == 0) {
+			scale = _width / bounds.getWidth();
+		} else if (_width == 0) {
+			scale = _height / bounds.getHeight();
+		} else {
+			scale = Math.min(_width / bounds.getWidth(), _height / bounds.getHeight());
+		}
+		int width = (_width > 0) ? _width : (int) Math.ceil(bounds.getWidth() * scale);
+		int height = (_height > 0) ? _height : (int) Math.ceil(bounds.getHeight() * scale);
+		return _document.getPixelSize(pageNr, Math.max(1, width), Math.max(1, height));
+	}
+
+	/**
+	 * @return The file the page is written to
+	 */
+	File getFile(int pageNr) {
+		int digits = Integer.toString(_document.getNumberOfPages()).length();
+		return new File(_directory, String.format("%s-%0" + digits + "d.png", _baseName, pageNr + 1));
+	}
+
+	/**
+	 * Renders and writes all pages.
+	 *
+	 * @return The number of pages that could not be rendered or written
+	 * @throws InterruptedException
+	 */
+	public int run() throws InterruptedException {
+		final AtomicInteger failures = new AtomicInteger();
+		final Semaphore inFlight = new Semaphore(_workers * PAGES_PER_WORKER);
+		ExecutorService executor = Executors.newFixedThreadPool(_workers);
+		try {
+			for (int pageNr = 0; pageNr < _document.getNumberOfPages(); pageNr++) {
+				final int page = pageNr;
+				inFlight.acquire();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							Dimension size = getPixelSize(page);
+							BufferedImage image = _document.renderPage(page, size.width, size.height, _warm);
+							ImageIO.write(image, "png", getFile(page));
+						} catch (IOException e) {
+							failures.incrementAndGet();
+							System.err.println("BatchRenderer.java: Could not write page " + (page + 1) + ": " + e.getMessage());
+						} catch (RuntimeException e) {
+							failures.incrementAndGet();
+							System.err.println("BatchRenderer.java: Could not render page " + (page + 1) + ": " + e);
+						} catch (InternalError e) {
+
+							// E.g. the mapped file changed:
+							failures.incrementAndGet();
+							System.err.println("BatchRenderer.java: Could not render page " + (page + 1) + ": " + e);
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		if (_warm) DiskRasterCache.getInstance().flush();
+		return failures.get();
+	}
+
+	/**
+	 * @param fileName
+	 * @return The document of the given file, by its file name
+	 * @throws IOException The file format is unknown (no pdf, images, text)
+	 * @throws COSLoadException The file is a PDF document that is not readable
+	 */
+	public static Document open(String fileName) throws IOException, COSLoadException {
+		if (ImageDocument.isAcceptedFileName(fileName)) {
+			return new ImageDocument(fileName);
+		} else if (PdfDocument.isAcceptedFileName(fileName)) {
+			return new PdfDocument(fileName);
+		} else if (TextDocument.isAcceptedFileName(fileName)) {
+			return new TextDocument(fileName);
+		}
+		throw new IOException("Unsupported file format");
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+		}
+	}
+
+	/**
+	 * @return The sum of the peak usages of the heap pools, an upper bound of
+	 *         the peak heap usage
+	 */
+	private static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: BatchRenderer [options] file outputDirectory");
+		System.err.println("  -dpi n       resolution, default " + DEFAULT_DPI);
+		System.err.println("  -width n     maximum width in pixels, instead of -dpi");
+		System.err.println("  -height n    maximum height in pixels, instead of -dpi");
+		System.err.println("  -workers n   pages rendered in parallel, default number of processors");
+		System.err.println("  -warm        also store the pages in the disk cache of the presenter");
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		// Never needs a display:
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		int dpi = 0;
+		int width = 0;
+		int height = 0;
+		int workers = Runtime.getRuntime().availableProcessors();
+		boolean warm = false;
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				if (args[i].equals("-dpi")) {
+					dpi = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-width")) {
+					width = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-height")) {
+					height = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-workers")) {
+					workers = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-warm")) {
+					warm = true;
+				} else {
+					throw new IllegalArgumentException(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			printUsage();
+			System.exit(2);
+		}
+		if (args.length - i != 2) {
+			printUsage();
+			System.exit(2);
+		}
+
+		String fileName = args[i];
+		File directory = new File(args[i + 1]);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("BatchRenderer.java: Could not create " + directory);
+			System.exit(1);
+		}
+		String baseName = new File(fileName).getName().replaceFirst("\\.[^.]*$", "");
+
+		resetPeakHeap();
+		long start = System.nanoTime();
+		Document document = open(fileName);
+		int failures;
+		try {
+			BatchRenderer renderer = new BatchRenderer(document, directory, baseName, workers, warm);
+			if (width > 0 || height > 0) {
+				renderer.setSize(width, height);
+			} else if (dpi > 0) {
+				renderer.setDpi(dpi);
+			}
+			failures = renderer.run();
+		} finally {
+			document.dispose();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		int pages = document.getNumberOfPages();
+		System.out.println(String.format(Locale.ENGLISH, "%d pages in %.2f s with %d workers: %.1f pages/s, peak heap %d MB",
+				pages, seconds, workers, pages / seconds, getPeakHeap() / (1024 * 1024)));
+		System.exit(failures > 0 ? 1 : 0);
+	}
+}
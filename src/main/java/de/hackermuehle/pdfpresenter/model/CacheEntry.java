@@ -3,5 +3,11 @@ package de.hackermuehle.pdfpresenter.model;
 public interface CacheEntry {
 	public void dispose();
 	public boolean isCached();
+	
+	/**
+	 * @return true if the cached content is available at least as a low
+	 * resolution preview, i.e. painting doesn't have to wait for rendering
+	 */
+	public boolean isPreviewAvailable();
 	public ImmutableClipping getClipping();
 }
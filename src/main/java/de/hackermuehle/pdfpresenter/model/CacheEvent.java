@@ -0,0 +1,76 @@
+package de.hackermuehle.pdfpresenter.model;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Notification about cached content of a {@link CacheEntry} that became
+ * available (or failed to).
+ *
+ * Immutable.
+ */
+public class CacheEvent {
+	public enum Kind {
+		/** Cached in exactly the requested dimensions */
+		READY,
+		/** Cached in larger dimensions, painted scaled down */
+		READY_SHRINKED,
+		/** Cached as a low resolution preview, the sharp version follows */
+		PREVIEW,
+		/** Caching failed, e.g. out of memory */
+		ERROR
+	}
+
+	private final CacheEntry _entry;
+	private final Kind _kind;
+	private final Rectangle2D _area;
+
+	/**
+	 * @param entry
+	 * @param kind
+	 * @param area The affected area in source coordinates of the entry's
+	 * clipping
+	 */
+	public CacheEvent(CacheEntry entry, Kind kind, Rectangle2D area) {
+		if (entry == null) throw new IllegalArgumentException("entry == null");
+		if (kind == null) throw new IllegalArgumentException("kind == null");
+		if (area == null) throw new IllegalArgumentException("area == null");
+		_entry = entry;
+		_kind = kind;
+		_area = (Rectangle2D) area.clone();
+	}
+
+	public CacheEntry getEntry() {
+		return _entry;
+	}
+
+	public Kind getKind() {
+		return _kind;
+	}
+
+	/**
+	 * @return The affected area in source coordinates of the entry's clipping
+	 */
+	public Rectangle2D getArea() {
+		return (Rectangle2D) _area.clone();
+	}
+
+	/**
+	 * Combines this event with a later one into a single event covering the
+	 * areas of both. Entry and kind are taken from the later event, as it
+	 * describes the current state, except that an error is never dropped.
+	 *
+	 * @param later
+	 * @return The combined event
+	 */
+	public CacheEvent coalesce(CacheEvent later) {
+		Rectangle2D area = (Rectangle2D) _area.clone();
+		area.add(later._area);
+		Kind kind = (_kind == Kind.ERROR) ? Kind.ERROR : later._kind;
+		return new CacheEvent(later._entry, kind, area);
+	}
+
+	@Override
+	public String toString() {
+		return _kind + " " + _area;
+	}
+}
@@ -1,5 +1,9 @@
 package de.hackermuehle.pdfpresenter.model;
 
+/**
+ * Observes a {@link CacheEntry}. Notifications are raised by the caching
+ * threads, not by the event dispatch thread.
+ */
 public interface CacheObserver {
-	public void notify(CacheEntry cacheEntry, String msg);
-}
\ No newline at end of file
+	public void notify(CacheEvent event);
+}
@@ -0,0 +1,210 @@
+package de.hackermuehle.pdfpresenter.model;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import de.hackermuehle.pdfpresenter.model.document.PdfDocument;
+import de.intarsys.pdf.parser.COSLoadException;
+
+/**
+ * Reloads PDF documents whose files changed, e.g. because the slides were
+ * compiled again. The file is read again in the background once it wasn't
+ * modified for a moment, then the reload is handed to the listener on the
+ * event dispatch thread.
+ */
+public class DocumentWatcher {
+	private static final long SETTLE_MILLIS = 500; // since the last modification
+
+	/**
+	 * Applies reloaded documents.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called on the event dispatch thread. The reload is discarded
+		 * afterwards, unless applied.
+		 *
+		 * @param document The document whose file changed
+		 * @param reload The file read again
+		 */
+		public void changed(PdfDocument document, PdfDocument.Reload reload);
+	}
+
+	private final Listener _listener;
+	private WatchService _watchService;
+	private final Map<Path, WatchKey> _directories = new HashMap<Path, WatchKey>();
+	private final Map<Path, List<PdfDocument>> _documents = new HashMap<Path, List<PdfDocument>>();
+	private final Map<Path, ScheduledFuture<?>> _scheduled = new HashMap<Path, ScheduledFuture<?>>();
+	private final ScheduledExecutorService _loader;
+
+	public DocumentWatcher(Listener listener) {
+		_listener = listener;
+		_loader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "DocumentWatcher loader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Reloads the document whenever its file changes.
+	 *
+	 * @param document
+	 * @throws IOException The directory of the file can't be watched
+	 */
+	public synchronized void watch(PdfDocument document) throws IOException {
+		Path file = document.getFile().getAbsoluteFile().toPath();
+		Path directory = file.getParent();
+		if (_watchService == null) {
+			_watchService = FileSystems.getDefault().newWatchService();
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					processEvents();
+				}
+			}, "DocumentWatcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		if (!_directories.containsKey(directory)) {
+			_directories.put(directory, directory.register(_watchService,
+					StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+		}
+
+		List<PdfDocument> documents = _documents.get(file);
+		if (documents == null) {
+			documents = new LinkedList<PdfDocument>();
+			_documents.put(file, documents);
+		}
+		documents.add(document);
+	}
+
+	/**
+	 * Stops reloading the document, e.g. once it is disposed.
+	 *
+	 * @param document
+	 */
+	public synchronized void unwatch(PdfDocument document) {
+		Path file = document.getFile().getAbsoluteFile().toPath();
+		List<PdfDocument> documents = _documents.get(file);
+		if (documents == null || !documents.remove(document) || !documents.isEmpty()) return;
+		_documents.remove(file);
+
+		// Stop watching the directory once no other file in it is watched:
+		Path directory = file.getParent();
+		for (Path watched : _documents.keySet()) {
+			if (watched.getParent().equals(directory)) return;
+		}
+		WatchKey key = _directories.remove(directory);
+		if (key != null) key.cancel();
+	}
+
+	private void processEvents() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = _watchService.take();
+			} catch (InterruptedException e) {
+				return;
+			} catch (ClosedWatchServiceException e) {
+				return;
+			}
+
+			Path directory = (Path) key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					scheduleAll(directory);
+				} else {
+					schedule(directory.resolve((Path) event.context()));
+				}
+			}
+			key.reset();
+		}
+	}
+
+	private synchronized void scheduleAll(Path directory) {
+		for (Path file : new ArrayList<Path>(_documents.keySet())) {
+			if (file.getParent().equals(directory)) schedule(file);
+		}
+	}
+
+	/**
+	 * Reloads the file once it wasn't modified for {@link #SETTLE_MILLIS},
+	 * so a file being written is read once complete.
+	 */
+	private synchronized void schedule(final Path file) {
+		if (!_documents.containsKey(file)) return;
+
+		ScheduledFuture<?> scheduled = _scheduled.get(file);
+		if (scheduled != null) scheduled.cancel(false);
+		_scheduled.put(file, _loader.schedule(new Runnable() {
+			@Override
+			public void run() {
+				reload(file);
+			}
+		}, SETTLE_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+	private void reload(Path file) {
+		List<PdfDocument> documents;
+		synchronized (this) {
+			_scheduled.remove(file);
+			if (!_documents.containsKey(file)) return;
+			documents = new ArrayList<PdfDocument>(_documents.get(file));
+		}
+
+		for (final PdfDocument document : documents) {
+			final PdfDocument.Reload reload;
+			try {
+				reload = document.prepareReload();
+			} catch (IOException e) {
+				System.err.println("DocumentWatcher.java: Could not reload " + file + ": " + e.getMessage());
+				continue;
+			} catch (COSLoadException e) {
+
+				// Possibly still being written, read on the next modification:
+				System.err.println("DocumentWatcher.java: Could not reload " + file + ": " + e.getMessage());
+				continue;
+			}
+
+			try {
+				if (reload.isUnchanged()) continue;
+				SwingUtilities.invokeAndWait(new Runnable() {
+					@Override
+					public void run() {
+						_listener.changed(document, reload);
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (InvocationTargetException e) {
+				System.err.println("DocumentWatcher.java: Could not reload " + file + ": " + e.getCause());
+			} finally {
+				reload.discard();
+			}
+		}
+	}
+}
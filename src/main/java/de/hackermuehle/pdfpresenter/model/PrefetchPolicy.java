@@ -0,0 +1,105 @@
+package de.hackermuehle.pdfpresenter.model;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.hackermuehle.pdfpresenter.model.document.Document;
+import de.hackermuehle.pdfpresenter.model.document.RasterCache;
+import de.hackermuehle.pdfpresenter.model.document.RenderMetrics;
+import de.hackermuehle.pdfpresenter.model.slide.Slide;
+
+/**
+ * Decides which slides around the active slide of a presentation are kept
+ * cached, so navigating to them doesn't land on a cold page.
+ *
+ * The window grows with the measured render cost of pages (slow pages need
+ * to be rendered further ahead) and is limited by a share of the cache
+ * budget. It leans towards the recent direction of navigation, but always
+ * covers the previous and the next slide.
+ */
+public class PrefetchPolicy {
+	private static final int MIN_WINDOW = 2;
+	private static final int MAX_WINDOW = 8;
+	private static final double MILLIS_PER_SLIDE = 100; // render cost adding a slide to the window
+	private static final int BUDGET_SHARE = 4; // the window uses at most 1/4 of the cache budget
+	private static final double DIRECTION_WEIGHT = 0.3;
+	private static final double MIN_SIDE_WEIGHT = 0.2;
+
+	private Slide _activeSlide = null;
+	private int _activeIndex = -1;
+	private double _direction = 0.5; // -1 backwards, 1 forwards
+
+	/**
+	 * @param slides The slides of the presentation
+	 * @param activeSlide The displayed slide
+	 * @param pageBytes Size of a cached slide at display resolution
+	 * @return The slides to keep cached and their priority, most urgent first
+	 */
+	public Map<Slide, Integer> getWindow(List<Slide> slides, Slide activeSlide, long pageBytes) {
+		return getWindow(slides, activeSlide, pageBytes, RasterCache.getInstance().getBudget(),
+				RenderMetrics.getGlobal().getMeanRenderMillis());
+	}
+
+	/**
+	 * @see #getWindow(List, Slide, long)
+	 * @param budget Cache budget in bytes
+	 * @param renderMillis Mean time to render a page
+	 */
+	Map<Slide, Integer> getWindow(List<Slide> slides, Slide activeSlide, long pageBytes, long budget, double renderMillis) {
+		int index = slides.indexOf(activeSlide);
+		navigated(activeSlide, index);
+
+		Map<Slide, Integer> window = new LinkedHashMap<Slide, Integer>();
+		if (index < 0) return window;
+
+		// Size of the window:
+		int size = MIN_WINDOW + (int) (renderMillis / MILLIS_PER_SLIDE);
+		if (pageBytes > 0) {
+			size = (int) Math.min(size, budget / BUDGET_SHARE / pageBytes);
+		}
+		size = Math.max(0, Math.min(size, MAX_WINDOW));
+
+		// Split into slides ahead and behind:
+		double aheadWeight = Math.max(MIN_SIDE_WEIGHT, 1 + _direction);
+		double behindWeight = Math.max(MIN_SIDE_WEIGHT, 1 - _direction);
+		int ahead = (int) Math.round(size * aheadWeight / (aheadWeight + behindWeight));
+		if (size >= 2) ahead = Math.max(1, Math.min(ahead, size - 1));
+		int behind = size - ahead;
+
+		// Most likely next slides first:
+		int nextAhead = 1;
+		int nextBehind = 1;
+		int priority = Document.PRIO_PRECACHE;
+		while (nextAhead <= ahead || nextBehind <= behind) {
+			boolean forward = nextBehind > behind ||
+				(nextAhead <= ahead && nextAhead / aheadWeight <= nextBehind / behindWeight);
+			int slideIndex = forward ? index + nextAhead++ : index - nextBehind++;
+			if (slideIndex >= 0 && slideIndex < slides.size()) {
+				window.put(slides.get(slideIndex), priority--);
+			}
+		}
+		return window;
+	}
+
+	/**
+	 * Updates the direction of navigation.
+	 */
+	private void navigated(Slide activeSlide, int index) {
+		if (activeSlide == _activeSlide) return;
+		if (_activeSlide != null && index >= 0 && _activeIndex >= 0 && index != _activeIndex) {
+			double step = (index > _activeIndex) ? 1 : -1;
+			_direction += DIRECTION_WEIGHT * (step - _direction);
+		}
+		_activeSlide = activeSlide;
+		_activeIndex = index;
+	}
+
+	/**
+	 * @return The recent direction of navigation, from -1 (backwards) to 1
+	 * (forwards)
+	 */
+	public double getDirection() {
+		return _direction;
+	}
+}
@@ -188,6 +188,30 @@ public class Presentation {
 		_propertyChangeSupport.firePropertyChange("source", null, _source);
 	}
 	
+	/**
+	 * Adds several slides at once after the active slide and activates the
+	 * first of them. Unlike {@link #addSlide(Slide)}, informs listeners only
+	 * once.
+	 * 
+	 * @param slides
+	 */
+	public void addSlides(List<Slide> slides) {
+		if (slides.isEmpty()) return;
+		
+		if (_activeSlide == null) _slides.addAll(slides);
+		else _slides.addAll(_slides.indexOf(_activeSlide) + 1, slides);
+		
+		Slide oldValue = _activeSlide;
+		_activeSlide = slides.get(0);
+		
+		// Reset source to entire slide:
+		_source = _activeSlide.getSize();
+		
+		_propertyChangeSupport.firePropertyChange("slides", null, _slides); 
+		_propertyChangeSupport.firePropertyChange("activeSlide", oldValue, _activeSlide);
+		_propertyChangeSupport.firePropertyChange("source", null, _source);
+	}
+	
 	/**
 	 * @return The slide next to the active slide or null, if none exists
 	 */
@@ -238,6 +262,32 @@ public class Presentation {
 		return true;
 	}
 	
+	/**
+	 * Replaces all slides, e.g. after a document was reloaded. The active
+	 * slide stays active if still contained, otherwise the slide at its
+	 * position becomes active.
+	 * 
+	 * @param slides
+	 */
+	public void replaceSlides(List<Slide> slides) {
+		int index = _slides.indexOf(_activeSlide);
+		_slides = new LinkedList<Slide>(slides);
+		
+		Slide oldValue = _activeSlide;
+		if (_slides.isEmpty()) {
+			_activeSlide = null;
+		} else if (!_slides.contains(_activeSlide)) {
+			_activeSlide = _slides.get(Math.max(0, Math.min(index, _slides.size() - 1)));
+		}
+		
+		// The size of the active slide may have changed:
+		if (_activeSlide != null) _source = _activeSlide.getSize();
+		
+		_propertyChangeSupport.firePropertyChange("slides", null, _slides); 
+		_propertyChangeSupport.firePropertyChange("activeSlide", oldValue, _activeSlide);
+		_propertyChangeSupport.firePropertyChange("source", null, _source);
+	}
+	
 	public void addPropertyChangeListener(PropertyChangeListener listener) {
 		_propertyChangeSupport.addPropertyChangeListener(listener);
 	}
@@ -6,13 +6,26 @@ import java.beans.PropertyChangeSupport;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import de.hackermuehle.pdfpresenter.model.document.CacheStatistics;
+import de.hackermuehle.pdfpresenter.model.document.CompressedRasterCache;
 import de.hackermuehle.pdfpresenter.model.document.Document;
 import de.hackermuehle.pdfpresenter.model.document.ImageDocument;
+import de.hackermuehle.pdfpresenter.model.document.ParsedPageCache;
+import de.hackermuehle.pdfpresenter.model.document.DecodedImageCache;
+import de.hackermuehle.pdfpresenter.model.document.DisplayListCache;
 import de.hackermuehle.pdfpresenter.model.document.PdfDocument;
+import de.hackermuehle.pdfpresenter.model.document.DiskRasterCache;
+import de.hackermuehle.pdfpresenter.model.document.RasterCache;
+import de.hackermuehle.pdfpresenter.model.document.RenderScheduler;
 import de.hackermuehle.pdfpresenter.model.document.TextDocument;
 import de.hackermuehle.pdfpresenter.model.slide.DocumentSlide;
 import de.hackermuehle.pdfpresenter.model.slide.Grid;
@@ -60,11 +73,28 @@ public class State {
 	
     private LinkedList<String> _recentFilenames = new LinkedList<String>();
     private String _presentationPath;
+    
+    private DocumentWatcher _documentWatcher; // null if not reloading
+    private final Map<Presentation, PdfDocument> _watchedDocuments = new HashMap<Presentation, PdfDocument>();
 	
     // XXX Preferences:
     private static final String PREFERENCE_LIST_RECENT_FILES = "quickaccess.listrecentfiles";
     private static final String PREFERENCE_OPTIMIZE_FOR_PEN = "optimizeForPen";
     private static final String PREFERENCE_SHOW_GRID_ON_EXTERNAL_MONITOR = "showgridonexternalmonitor";
+    private static final String PREFERENCE_CACHE_BUDGET = "cache.budget";
+    private static final String PREFERENCE_RENDER_WORKERS = "render.workers";
+    private static final String PREFERENCE_DISK_CACHE_BUDGET = "cache.disk.budget";
+    private static final String PREFERENCE_COMPRESSED_CACHE_BUDGET = "cache.compressed.budget";
+    private static final String PREFERENCE_PARSED_CACHE_BUDGET = "cache.parsed.budget";
+    private static final String PREFERENCE_IMAGE_CACHE_BUDGET = "cache.images.budget";
+    private static final String PREFERENCE_DISPLAY_LIST_CACHE_BUDGET = "cache.displaylists.budget";
+    private static final String PREFERENCE_DISPLAY_LISTS = "render.displaylists";
+    private static final String PREFERENCE_DELTA_RENDERING = "render.delta";
+    private static final String PREFERENCE_LIVE_RELOAD = "pdf.reload";
+    private static final String PREFERENCE_DEDUPLICATION = "cache.dedup";
+    private static final String PREFERENCE_CACHE_STATISTICS = "cache.statistics";
+    private static final String PREFERENCE_CACHE_OFF_HEAP = "cache.offheap";
+    private static final String PREFERENCE_STRICT_PAINTING = "paint.strict";
     private static final int NUMBER_RECENTS = 3;
     private static final String PREFERENCE_PATH = "filechooser.path";
     private static final String PREREFRENCE_RECENT_FILE_PREFIX = "filechooser.recent";
@@ -128,6 +158,111 @@ public class State {
             _preferences.setPreference(PREFERENCE_OPTIMIZE_FOR_PEN, String.valueOf(true));
             _optimizeForPen = true;
         }
+
+        // Load the page raster budget of all documents in MB. Default half the heap
+        long cacheBudget = readMegabytes(PREFERENCE_CACHE_BUDGET, 1);
+        if (cacheBudget >= 0) RasterCache.getInstance().setBudget(cacheBudget);
+        
+        long renderWorkers = readNumber(PREFERENCE_RENDER_WORKERS, 1);
+        if (renderWorkers >= 0) RenderScheduler.getInstance().setWorkerCount((int) Math.min(renderWorkers, Integer.MAX_VALUE));
+        
+        RasterCache.getInstance().setOffHeap(readFlag(PREFERENCE_CACHE_OFF_HEAP, false));
+        
+        // Never render pages on the event dispatch thread:
+        Document.setStrictPainting(readFlag(PREFERENCE_STRICT_PAINTING, false));
+        
+        long diskCacheBudget = readMegabytes(PREFERENCE_DISK_CACHE_BUDGET, 0);
+        if (diskCacheBudget >= 0) DiskRasterCache.getInstance().setBudget(diskCacheBudget);
+        
+        long compressedCacheBudget = readMegabytes(PREFERENCE_COMPRESSED_CACHE_BUDGET, 0);
+        if (compressedCacheBudget >= 0) CompressedRasterCache.getInstance().setBudget(compressedCacheBudget);
+        
+        long parsedCacheBudget = readMegabytes(PREFERENCE_PARSED_CACHE_BUDGET, 0);
+        if (parsedCacheBudget >= 0) ParsedPageCache.setBudget(parsedCacheBudget);
+        
+        long imageCacheBudget = readMegabytes(PREFERENCE_IMAGE_CACHE_BUDGET, 0);
+        if (imageCacheBudget >= 0) DecodedImageCache.setBudget(imageCacheBudget);
+        
+        // Replay recorded pages when zooming, instead of rendering them again:
+        PdfDocument.setDisplayListsEnabled(readFlag(PREFERENCE_DISPLAY_LISTS, false));
+        
+        long displayListCacheBudget = readMegabytes(PREFERENCE_DISPLAY_LIST_CACHE_BUDGET, 0);
+        if (displayListCacheBudget >= 0) DisplayListCache.setBudget(displayListCacheBudget);
+        
+        // Render overlay steps on top of their neighbours. Off by default
+        // like display lists, PDF pages are only compared by those:
+        Document.setDeltaRendering(readFlag(PREFERENCE_DELTA_RENDERING, false));
+        
+        // Render identical pages once, if enabled. Off by default, since
+        // every page rendered is then fingerprinted by hashing its content:
+        PdfDocument.setDeduplicationEnabled(readFlag(PREFERENCE_DEDUPLICATION, false));
+        
+        // Reload PDF files when changed, if enabled. Files are then not
+        // memory-mapped, since mapped files can't be replaced on some
+        // platforms:
+        if (readFlag(PREFERENCE_LIVE_RELOAD, false)) {
+            PdfDocument.setLiveReloadEnabled(true);
+            _documentWatcher = new DocumentWatcher(new DocumentWatcher.Listener() {
+                @Override
+                public void changed(PdfDocument document, PdfDocument.Reload reload) {
+                    reloadPresentation(document, reload);
+                }
+            });
+        }
+        
+        // Report the cache hit rates on exit, for tuning the budgets above:
+        if (readFlag(PREFERENCE_CACHE_STATISTICS, false)) {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    System.out.print(CacheStatistics.getInstance().getReport());
+                }
+            });
+        }
+    }
+	
+    /**
+     * @param key
+     * @param minimum The smallest valid value
+     * @return The number the preference is set to or -1, if not set or
+     *         invalid
+     */
+    private long readNumber(String key, long minimum) {
+        String value = _preferences.getPreference(key);
+        if (value == null) return -1;
+        try {
+            long number = Long.parseLong(value.trim());
+            if (number >= minimum) return number;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        System.err.println("State.java: Ignoring invalid " + key + " preference: " + value);
+        return -1;
+    }
+	
+    /**
+     * @param key
+     * @param minimum The smallest valid value in MB
+     * @return The size in bytes the preference is set to in MB or -1, if
+     *         not set or invalid
+     */
+    private long readMegabytes(String key, long minimum) {
+        long megabytes = readNumber(key, minimum);
+        return (megabytes >= 0) ? megabytes * 1024 * 1024 : -1;
+    }
+	
+    /**
+     * @param key
+     * @param defaultValue
+     * @return true if the preference is set to "true", false if set to
+     *         "false", the default otherwise
+     */
+    private boolean readFlag(String key, boolean defaultValue) {
+        String value = _preferences.getPreference(key);
+        if (value == null) return defaultValue;
+        if (value.trim().equalsIgnoreCase("true")) return true;
+        if (value.trim().equalsIgnoreCase("false")) return false;
+        return defaultValue;
     }
 	
     /**
@@ -160,7 +295,6 @@ public class State {
         addPresentation(presentation);
 		
         addRecent(fileName);
-        // TODO: A document should be disposed immediately, before GC.
     }
 	
     /**
@@ -185,7 +319,6 @@ public class State {
         addPresentation(presentation);
 		
         addRecent(fileName);
-        // TODO: A document should be disposed immediately, before GC.
     }
 	
     /**
@@ -203,15 +336,96 @@ public class State {
         if (presentation.getTitle().length() > 13) 
             presentation.setTitle(presentation.getTitle().substring(0, 10) + "...");
 		
+        // Pages are parsed when displayed, not here:
+        List<Slide> slides = new ArrayList<Slide>(pdfDocument.getNumberOfPages());
         for (int i = 0; i < pdfDocument.getNumberOfPages(); ++i) {
-            Slide slide = new DocumentSlide(pdfDocument, i);
-            presentation.addSlide(slide);
+            slides.add(new DocumentSlide(pdfDocument, i));
         }
-        presentation.setActiveSlide(presentation.getSlides().get(0));
+        presentation.addSlides(slides);
         addPresentation(presentation);
+        
+        if (_documentWatcher != null) {
+            try {
+                _documentWatcher.watch(pdfDocument);
+                _watchedDocuments.put(presentation, pdfDocument);
+            } catch (IOException e) {
+                System.err.println("State.java: Could not watch " + fileName + ", not reloading it: " + e.getMessage());
+            }
+        }
 		
         addRecent(fileName);
-        // TODO: A document should be disposed immediately, before GC.
+    }
+    
+    /**
+     * Applies a reloaded PDF document to the presentation showing it. Slides
+     * of unchanged pages are kept with their annotations, even if the pages
+     * moved. Slides of changed pages keep their position and annotations,
+     * slides of removed pages are removed and new pages are appended after
+     * the last slide of the document.
+     * 
+     * @param document
+     * @param reload
+     */
+    private void reloadPresentation(PdfDocument document, PdfDocument.Reload reload) {
+        Presentation presentation = null;
+        for (Map.Entry<Presentation, PdfDocument> entry : _watchedDocuments.entrySet()) {
+            if (entry.getValue() == document) presentation = entry.getKey();
+        }
+        if (presentation == null) return;
+        reload.apply();
+        
+        // The slides showing pages of the document, by page:
+        Map<Integer, DocumentSlide> previousSlides = new HashMap<Integer, DocumentSlide>();
+        int documentSlides = 0;
+        for (Slide slide : presentation.getSlides()) {
+            if (slide instanceof DocumentSlide && ((DocumentSlide) slide).getDocument() == document) {
+                DocumentSlide documentSlide = (DocumentSlide) slide;
+                if (!previousSlides.containsKey(documentSlide.getPageNr())) {
+                    previousSlides.put(documentSlide.getPageNr(), documentSlide);
+                }
+                documentSlides++;
+            }
+        }
+        
+        // Unchanged pages first, so changed pages don't take their slides:
+        DocumentSlide[] pageSlides = new DocumentSlide[reload.getNumberOfPages()];
+        Set<DocumentSlide> used = new HashSet<DocumentSlide>();
+        for (int i = 0; i < pageSlides.length; ++i) {
+            DocumentSlide slide = previousSlides.get(reload.getPreviousPage(i));
+            if (reload.getPreviousPage(i) >= 0 && slide != null && used.add(slide)) pageSlides[i] = slide;
+        }
+        for (int i = 0; i < pageSlides.length; ++i) {
+            if (pageSlides[i] != null) continue;
+            DocumentSlide slide = previousSlides.get(i);
+            if (slide != null && used.add(slide)) {
+                pageSlides[i] = slide;
+            } else {
+                pageSlides[i] = new DocumentSlide(document, i);
+            }
+        }
+        for (int i = 0; i < pageSlides.length; ++i) {
+            pageSlides[i].setPageNr(i);
+        }
+        
+        // Other slides, e.g. whiteboards, stay in place:
+        List<Slide> slides = new ArrayList<Slide>();
+        int index = 0;
+        for (Slide slide : presentation.getSlides()) {
+            if (slide instanceof DocumentSlide && ((DocumentSlide) slide).getDocument() == document) {
+                if (index < pageSlides.length) slides.add(pageSlides[index]);
+                if (++index == documentSlides) {
+                    for (; index < pageSlides.length; ++index) {
+                        slides.add(pageSlides[index]);
+                    }
+                }
+            } else {
+                slides.add(slide);
+            }
+        }
+        for (; index < pageSlides.length; ++index) {
+            slides.add(pageSlides[index]);
+        }
+        presentation.replaceSlides(slides);
     }
 	
     /**
@@ -279,10 +493,30 @@ public class State {
 		
         _presentations.remove(presentation);
         _propertyChangeSupport.firePropertyChange("presentations", null, _presentations);
-		
+        
+        PdfDocument watched = _watchedDocuments.remove(presentation);
+        if (watched != null) _documentWatcher.unwatch(watched);
+        
+        // Documents shown by no other presentation are released now, not
+        // when garbage collected:
+        Set<Document> documents = getDocuments(presentation);
         presentation.dispose();
+        for (Presentation other : _presentations) {
+            documents.removeAll(getDocuments(other));
+        }
+        for (Document document : documents) {
+            document.dispose();
+        }
         return true;
     }
+    
+    private static Set<Document> getDocuments(Presentation presentation) {
+        Set<Document> documents = new HashSet<Document>();
+        for (Slide slide : presentation.getSlides()) {
+            if (slide instanceof DocumentSlide) documents.add(((DocumentSlide) slide).getDocument());
+        }
+        return documents;
+    }
 	
     /**
      * @return The presentation in the list of opened presentations that is active.
@@ -0,0 +1,100 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hit rates and sizes of the cache tiers page rasters are looked up in, in
+ * this order:
+ *  -MEMORY: rendered pages in the {@link RasterCache}
+ *  -COMPRESSED: evicted pages in the {@link CompressedRasterCache}
+ *  -DISK: pages of previous sessions in the {@link DiskRasterCache}
+ * A miss of the last tier means the page is rendered.
+ *
+ * The report also covers the image XObjects drawn from the
+ * {@link DecodedImageCache} instead of being decoded again.
+ */
+public class CacheStatistics {
+	public enum Tier { MEMORY, COMPRESSED, DISK }
+
+	private static final CacheStatistics _instance = new CacheStatistics();
+
+	private final AtomicLongArray _hits = new AtomicLongArray(Tier.values().length);
+	private final AtomicLongArray _misses = new AtomicLongArray(Tier.values().length);
+
+	private CacheStatistics() {
+	}
+
+	public static CacheStatistics getInstance() {
+		return _instance;
+	}
+
+	void hit(Tier tier) {
+		_hits.incrementAndGet(tier.ordinal());
+	}
+
+	void miss(Tier tier) {
+		_misses.incrementAndGet(tier.ordinal());
+	}
+
+	public long getHits(Tier tier) {
+		return _hits.get(tier.ordinal());
+	}
+
+	public long getMisses(Tier tier) {
+		return _misses.get(tier.ordinal());
+	}
+
+	/**
+	 * @return Hits per lookup of the tier, 0 if never looked up
+	 */
+	public double getHitRate(Tier tier) {
+		long hits = getHits(tier);
+		long lookups = hits + getMisses(tier);
+		return (lookups > 0) ? (double) hits / lookups : 0;
+	}
+
+	/**
+	 * @return The number of bytes occupied by the tier, -1 if unknown
+	 */
+	public long getSize(Tier tier) {
+		switch (tier) {
+		case MEMORY:
+			return RasterCache.getInstance().getSize();
+		case COMPRESSED:
+			return CompressedRasterCache.getInstance().getSize();
+		default:
+			return DiskRasterCache.getInstance().getSize();
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < _hits.length(); i++) {
+			_hits.set(i, 0);
+			_misses.set(i, 0);
+		}
+	}
+
+	/**
+	 * @return One line per tier: hits, misses, hit rate and size, and one
+	 *         line for decoded images
+	 */
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		for (Tier tier : Tier.values()) {
+			long size = getSize(tier);
+			report.append(String.format("%-10s hits %8d  misses %8d  hit rate %5.1f%%  size %s",
+					tier, getHits(tier), getMisses(tier), 100 * getHitRate(tier),
+					(size < 0) ? "unknown" : (size / 1024) + " KB"));
+			if (tier == Tier.COMPRESSED) {
+				report.append(" (" + CompressedRasterCache.getInstance().getRawSize() / 1024 + " KB raw)");
+			}
+			report.append('\n');
+		}
+		RenderMetrics metrics = RenderMetrics.getGlobal();
+		report.append(String.format("%-10s hits %8d  decodes %7d  saved %8.0f ms  size %s",
+				"IMAGES", metrics.getDecodedImageHits(), metrics.getImageDecodes(),
+				metrics.getImageDecodeMillisSaved(), (DecodedImageCache.getSize() / 1024) + " KB"));
+		report.append('\n');
+		return report.toString();
+	}
+}
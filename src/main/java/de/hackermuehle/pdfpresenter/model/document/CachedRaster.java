@@ -0,0 +1,307 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A rendered page of a document, as held by the {@link RasterIndex}.
+ *
+ * Page number, dimensions and image are immutable. Priority and last access
+ * time are bookkeeping for the {@link RasterCache}.
+ *
+ * The pixels are either held by an image on the heap or, if the raster
+ * cache is off-heap, by a block of the {@link OffHeapArena}. Off-heap pixels
+ * are copied into a buffer of the calling thread to be painted, only as far
+ * as visible. The buffer grows to the largest area painted, at most a page,
+ * and is then reused.
+ */
+class CachedRaster {
+	private static final DirectColorModel RGB = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+	private static final int INTERPOLATION_MARGIN = 2; // pixels
+	private static final ThreadLocal<int[][]> _scratch = new ThreadLocal<int[][]>() {
+		@Override
+		protected int[][] initialValue() {
+			return new int[1][];
+		}
+	};
+
+	private final int _pageNr;
+	private final int _width;
+	private final int _height;
+	private final BufferedImage _image;
+	private final OffHeapArena.Block _pixels;
+	private final long _bytes;
+	private boolean _released;
+	private volatile int _priority;
+	private volatile long _lastAccess;
+
+	public CachedRaster(int pageNr, BufferedImage image, int priority) {
+		this(pageNr, image, priority, false);
+	}
+
+	/**
+	 * @param pageNr
+	 * @param image
+	 * @param priority
+	 * @param offHeap true to copy the pixels into the {@link OffHeapArena}.
+	 *        The image is kept if the arena is out of memory.
+	 */
+	public CachedRaster(int pageNr, BufferedImage image, int priority, boolean offHeap) {
+		_pageNr = pageNr;
+		_width = image.getWidth();
+		_height = image.getHeight();
+		_pixels = offHeap ? copyOffHeap(image) : null;
+		_image = (_pixels == null) ? image : null;
+		_bytes = (_pixels == null) ? sizeOf(image) : 4L * _width * _height;
+		_priority = priority;
+		_lastAccess = System.nanoTime();
+	}
+
+	CachedRaster(int pageNr, int width, int height, BufferedImage image, int priority) {
+		_pageNr = pageNr;
+		_width = width;
+		_height = height;
+		_image = image;
+		_pixels = null;
+		_bytes = (image != null) ? sizeOf(image) : 4L * width * height;
+		_priority = priority;
+		_lastAccess = System.nanoTime();
+	}
+
+	public int getPageNr() {
+		return _pageNr;
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getHeight() {
+		return _height;
+	}
+
+	/**
+	 * An off-heap raster returns an image sharing the buffer of the calling
+	 * thread. It is valid until the thread gets the image of another
+	 * off-heap raster.
+	 *
+	 * @return The image or null, if released
+	 */
+	public BufferedImage getImage() {
+		if (_pixels == null) return _image;
+
+		int[] buffer = getScratch(_width * _height);
+		synchronized (this) {
+			if (_released) return null;
+			_pixels.get(0, buffer, 0, _width * _height);
+		}
+		return createImage(buffer, _width, _height);
+	}
+
+	/**
+	 * Draws the source rectangle of the raster into the destination
+	 * rectangle, like {@link Graphics2D#drawImage(java.awt.Image, int, int,
+	 * int, int, int, int, int, int, java.awt.image.ImageObserver)}. An
+	 * off-heap raster only copies the pixels visible through the clip of the
+	 * graphics, e.g. the few pixels repainted below a pen stroke.
+	 *
+	 * @return false if released
+	 */
+	public boolean draw(Graphics2D g2d, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2) {
+		if (_pixels == null) {
+			BufferedImage image = getImage();
+			if (image == null) return false;
+			g2d.drawImage(image, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+			return true;
+		}
+
+		// The source pixels visible, with a margin for interpolation:
+		Rectangle area = new Rectangle(sx1, sy1, sx2 - sx1, sy2 - sy1);
+		Rectangle clip = g2d.getClipBounds();
+		if (clip != null && dx2 > dx1 && dy2 > dy1) {
+			double scaleX = (double) (sx2 - sx1) / (dx2 - dx1);
+			double scaleY = (double) (sy2 - sy1) / (dy2 - dy1);
+			int x1 = sx1 + (int) Math.floor((clip.x - dx1) * scaleX) - INTERPOLATION_MARGIN;
+			int y1 = sy1 + (int) Math.floor((clip.y - dy1) * scaleY) - INTERPOLATION_MARGIN;
+			int x2 = sx1 + (int) Math.ceil((clip.x + clip.width - dx1) * scaleX) + INTERPOLATION_MARGIN;
+			int y2 = sy1 + (int) Math.ceil((clip.y + clip.height - dy1) * scaleY) + INTERPOLATION_MARGIN;
+			area = area.intersection(new Rectangle(x1, y1, x2 - x1, y2 - y1));
+		}
+		area = area.intersection(new Rectangle(0, 0, _width, _height));
+		if (area.isEmpty()) return true;
+
+		int[] buffer = getScratch(area.width * area.height);
+		synchronized (this) {
+			if (_released) return false;
+			for (int y = 0; y < area.height; y++) {
+				_pixels.get((area.y + y) * _width + area.x, buffer, y * area.width, area.width);
+			}
+		}
+		g2d.drawImage(createImage(buffer, area.width, area.height), dx1, dy1, dx2, dy2,
+				sx1 - area.x, sy1 - area.y, sx2 - area.x, sy2 - area.y, null);
+		return true;
+	}
+
+	/**
+	 * @return A copy of the image that stays valid, or null if released
+	 */
+	public BufferedImage copyImage() {
+		if (_pixels == null) return _image;
+
+		int[] buffer = new int[_width * _height];
+		synchronized (this) {
+			if (_released) return null;
+			_pixels.get(0, buffer, 0, buffer.length);
+		}
+		return createImage(buffer, _width, _height);
+	}
+
+	/**
+	 * @return true if the pixels are held off-heap
+	 */
+	public boolean isOffHeap() {
+		return _pixels != null;
+	}
+
+	/**
+	 * Frees the pixels. Called once the raster is removed from the cache.
+	 */
+	public void release() {
+		if (_pixels == null) {
+			if (_image != null) _image.flush();
+			return;
+		}
+
+		synchronized (this) {
+			if (_released) return;
+			_released = true;
+		}
+		OffHeapArena.getInstance().free(_pixels);
+	}
+
+	/**
+	 * @return The size of the pixel data in bytes
+	 */
+	public long getBytes() {
+		return _bytes;
+	}
+
+	/**
+	 * @return The priority of the request that caused this raster to be
+	 *         rendered, see {@link Document#PRIO_MAIN} etc.
+	 */
+	public int getPriority() {
+		return _priority;
+	}
+
+	public void setPriority(int priority) {
+		_priority = priority;
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} of the last access
+	 */
+	public long getLastAccess() {
+		return _lastAccess;
+	}
+
+	/**
+	 * Marks this raster as recently used.
+	 */
+	public void touch() {
+		_lastAccess = System.nanoTime();
+	}
+
+	/**
+	 * Orders rasters of the same page by width, then by height.
+	 *
+	 * @return <0, 0 or >0 if this raster is smaller, equal or larger than
+	 *         the given dimensions
+	 */
+	int compareSize(int width, int height) {
+		if (_width != width) return (_width < width) ? -1 : 1;
+		if (_height != height) return (_height < height) ? -1 : 1;
+		return 0;
+	}
+
+	public String toString() {
+		return "p" + _pageNr + "d" + _width + "h" + _height;
+	}
+
+	/**
+	 * @return A block holding the pixels of the image, or null if the arena
+	 *         is out of memory
+	 */
+	private static OffHeapArena.Block copyOffHeap(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		OffHeapArena.Block block = OffHeapArena.getInstance().allocate(width * height);
+		if (block == null) return null;
+
+		int[] pixels = getPixels(image);
+		if (pixels != null) {
+			block.put(0, pixels, 0, width * height);
+			return block;
+		}
+
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+			block.put(y * width, row, 0, width);
+		}
+		return block;
+	}
+
+	/**
+	 * @return The pixels of an image of packed RGB ints without padding, or
+	 *         null if the image is stored otherwise
+	 */
+	private static int[] getPixels(BufferedImage image) {
+		if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_INT_ARGB) return null;
+		WritableRaster raster = image.getRaster();
+		if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) return null;
+		if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) return null;
+		if (((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() != image.getWidth()) return null;
+
+		DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+		if (buffer.getNumBanks() != 1 || buffer.getOffset() != 0) return null;
+		return buffer.getData();
+	}
+
+	/**
+	 * @return A buffer of the calling thread, at least of the given size
+	 */
+	private static int[] getScratch(int size) {
+		int[][] holder = _scratch.get();
+		if (holder[0] == null || holder[0].length < size) {
+			holder[0] = new int[size];
+		}
+		return holder[0];
+	}
+
+	/**
+	 * @return An opaque image of the given size on the first pixels of the
+	 *         buffer
+	 */
+	private static BufferedImage createImage(int[] buffer, int width, int height) {
+		DataBufferInt dataBuffer = new DataBufferInt(buffer, width * height);
+		WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width, RGB.getMasks(), null);
+		return new BufferedImage(RGB, raster, false, null);
+	}
+
+	/**
+	 * @param image
+	 * @return The number of bytes occupied by the pixel data of the image
+	 */
+	static long sizeOf(BufferedImage image) {
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+}
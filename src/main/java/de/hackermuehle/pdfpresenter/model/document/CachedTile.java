@@ -0,0 +1,46 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A tile of a page rendered in a zoomed size, as held by the
+ * {@link TileIndex}.
+ *
+ * The zoomed size is the size of the whole page in pixels. Tile (0, 0) is
+ * the upper left tile of the page; tiles at the right and bottom border may
+ * be smaller than {@link Document#TILE_SIZE}.
+ */
+class CachedTile extends CachedRaster {
+	private final int _zoomWidth;
+	private final int _zoomHeight;
+	private final int _tileX;
+	private final int _tileY;
+
+	public CachedTile(int pageNr, int zoomWidth, int zoomHeight, int tileX, int tileY, BufferedImage image, int priority, boolean offHeap) {
+		super(pageNr, image, priority, offHeap);
+		_zoomWidth = zoomWidth;
+		_zoomHeight = zoomHeight;
+		_tileX = tileX;
+		_tileY = tileY;
+	}
+
+	public int getZoomWidth() {
+		return _zoomWidth;
+	}
+
+	public int getZoomHeight() {
+		return _zoomHeight;
+	}
+
+	public int getTileX() {
+		return _tileX;
+	}
+
+	public int getTileY() {
+		return _tileY;
+	}
+
+	public String toString() {
+		return "p" + getPageNr() + "z" + _zoomWidth + "x" + _zoomHeight + "t" + _tileX + "," + _tileY;
+	}
+}
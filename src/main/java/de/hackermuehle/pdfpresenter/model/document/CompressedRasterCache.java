@@ -0,0 +1,223 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Second tier of the in-memory cache: page rasters evicted from the
+ * {@link RasterCache} are kept here losslessly compressed (see
+ * {@link RasterCodec}), at a fraction of their raw size. Decompressing a
+ * page is much cheaper than rendering it again.
+ *
+ * The compressed copy stays cached when the page is promoted back, so
+ * evicting it again is free. If the budget is exceeded, the least recently
+ * used pages are dropped.
+ */
+public class CompressedRasterCache {
+	private static final CompressedRasterCache _instance = new CompressedRasterCache();
+
+	// Access ordered, least recently used first:
+	private final LinkedHashMap<Key, Entry> _entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private long _budget;
+	private long _size;
+	private long _rawSize;
+
+	private CompressedRasterCache() {
+		_budget = Runtime.getRuntime().maxMemory() / 8;
+	}
+
+	public static CompressedRasterCache getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * @return The maximum number of compressed bytes, 0 if disabled
+	 */
+	public synchronized long getBudget() {
+		return _budget;
+	}
+
+	/**
+	 * Sets the maximum number of compressed bytes. Drops pages immediately
+	 * if the cache exceeds the new budget.
+	 *
+	 * @param budget Budget in bytes, 0 disables the cache
+	 */
+	public synchronized void setBudget(long budget) {
+		if (budget < 0) throw new IllegalArgumentException("budget < 0");
+		_budget = budget;
+		trim();
+	}
+
+	/**
+	 * @return The number of compressed bytes of all cached pages
+	 */
+	public synchronized long getSize() {
+		return _size;
+	}
+
+	/**
+	 * @return The number of bytes the cached pages would occupy
+	 *         uncompressed
+	 */
+	public synchronized long getRawSize() {
+		return _rawSize;
+	}
+
+	/**
+	 * Compresses and adds an evicted page, unless already contained. Tiles
+	 * are not kept.
+	 *
+	 * @param document
+	 * @param raster
+	 */
+	void put(Document document, CachedRaster raster) {
+		if (raster instanceof CachedTile) return;
+		Key key = new Key(document, raster.getPageNr(), raster.getWidth(), raster.getHeight());
+		synchronized (this) {
+			if (_budget <= 0) return;
+			if (_entries.containsKey(key)) return;
+		}
+
+		BufferedImage image = raster.getImage();
+		if (image == null) return;
+
+		byte[] data;
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.min(raster.getBytes() / 8, Integer.MAX_VALUE));
+			RasterCodec.encode(image, output);
+			data = output.toByteArray();
+		} catch (IOException e) {
+			// Never happens writing to memory
+			e.printStackTrace();
+			return;
+		} catch (OutOfMemoryError e) {
+			return;
+		}
+
+		synchronized (this) {
+			Entry replaced = _entries.put(key, new Entry(data, raster.getBytes()));
+			if (replaced != null) {
+				_size -= replaced._data.length;
+				_rawSize -= replaced._rawBytes;
+			}
+			_size += data.length;
+			_rawSize += raster.getBytes();
+			trim();
+		}
+	}
+
+	/**
+	 * @param document
+	 * @param pageNr
+	 * @param width
+	 * @param height
+	 * @return The decompressed page or null, if not cached
+	 */
+	BufferedImage get(Document document, int pageNr, int width, int height) {
+		Entry entry;
+		synchronized (this) {
+			entry = _entries.get(new Key(document, pageNr, width, height));
+		}
+		if (entry == null) return null;
+
+		try {
+			return RasterCodec.decode(ByteBuffer.wrap(entry._data), width, height);
+		} catch (IOException e) {
+			// Never happens given the data was encoded by put()
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Drops all pages of the given document.
+	 *
+	 * @param document
+	 */
+	synchronized void removeAll(Document document) {
+		Iterator<Map.Entry<Key, Entry>> iterator = _entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, Entry> entry = iterator.next();
+			if (entry.getKey()._document == document) {
+				_size -= entry.getValue()._data.length;
+				_rawSize -= entry.getValue()._rawBytes;
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops the given pages of the given document.
+	 *
+	 * @param document
+	 * @param pages
+	 */
+	synchronized void removePages(Document document, Set<Integer> pages) {
+		Iterator<Map.Entry<Key, Entry>> iterator = _entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, Entry> entry = iterator.next();
+			if (entry.getKey()._document == document && pages.contains(entry.getKey()._pageNr)) {
+				_size -= entry.getValue()._data.length;
+				_rawSize -= entry.getValue()._rawBytes;
+				iterator.remove();
+			}
+		}
+	}
+
+	private void trim() {
+		Iterator<Entry> iterator = _entries.values().iterator();
+		while (_size > _budget && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			_size -= entry._data.length;
+			_rawSize -= entry._rawBytes;
+			iterator.remove();
+		}
+	}
+
+	private static class Entry {
+		private final byte[] _data;
+		private final long _rawBytes;
+
+		public Entry(byte[] data, long rawBytes) {
+			_data = data;
+			_rawBytes = rawBytes;
+		}
+	}
+
+	private static class Key {
+		private final Document _document;
+		private final int _pageNr;
+		private final int _width;
+		private final int _height;
+
+		public Key(Document document, int pageNr, int width, int height) {
+			_document = document;
+			_pageNr = pageNr;
+			_width = width;
+			_height = height;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key key = (Key) obj;
+			return _document == key._document && _pageNr == key._pageNr && _width == key._width && _height == key._height;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = System.identityHashCode(_document);
+			result = 31 * result + _pageNr;
+			result = 31 * result + _width;
+			result = 31 * result + _height;
+			return result;
+		}
+	}
+}
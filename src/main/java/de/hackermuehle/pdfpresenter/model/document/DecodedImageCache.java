@@ -0,0 +1,132 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoded image XObjects of a PDF document, shared by all pages and zoom
+ * levels. Templates place the same logo or background on every page, which
+ * is otherwise decoded again for each rendering.
+ *
+ * Images are keyed by their object reference. If all caches together
+ * exceed the budget, the least recently used images are dropped.
+ */
+public class DecodedImageCache {
+	private static volatile long _budget = Runtime.getRuntime().maxMemory() / 16;
+	private static final AtomicLong _size = new AtomicLong();
+
+	// Access ordered, least recently used first:
+	private final LinkedHashMap<String, DecodedImage> _images = new LinkedHashMap<String, DecodedImage>(16, 0.75f, true);
+
+	/**
+	 * @return The maximum number of bytes of all caches
+	 */
+	public static long getBudget() {
+		return _budget;
+	}
+
+	/**
+	 * Sets the maximum number of bytes of all caches. Applied when images are
+	 * added.
+	 *
+	 * @param budget Budget in bytes, 0 disables the caches
+	 */
+	public static void setBudget(long budget) {
+		if (budget < 0) throw new IllegalArgumentException("budget < 0");
+		_budget = budget;
+	}
+
+	/**
+	 * @return The number of bytes of all caches
+	 */
+	public static long getSize() {
+		return _size.get();
+	}
+
+	/**
+	 * @param objectNumber
+	 * @param generationNumber
+	 * @return The key of the image with the given object reference
+	 */
+	static String key(int objectNumber, int generationNumber) {
+		return objectNumber + " " + generationNumber;
+	}
+
+	/**
+	 * @param key See {@link #key(int, int)}
+	 * @return The decoded image or null
+	 */
+	synchronized DecodedImage get(String key) {
+		return _images.get(key);
+	}
+
+	/**
+	 * Adds a decoded image and drops least recently used images while over
+	 * budget. Images larger than the budget are not added.
+	 *
+	 * @param key See {@link #key(int, int)}
+	 * @param image
+	 */
+	synchronized void put(String key, DecodedImage image) {
+		if (image._bytes > _budget) return;
+
+		DecodedImage replaced = _images.put(key, image);
+		if (replaced != null) _size.addAndGet(-replaced._bytes);
+		_size.addAndGet(image._bytes);
+
+		Iterator<DecodedImage> iterator = _images.values().iterator();
+		while (_size.get() > _budget && iterator.hasNext()) {
+			DecodedImage next = iterator.next();
+			if (next == image) continue;
+			_size.addAndGet(-next._bytes);
+			iterator.remove();
+		}
+	}
+
+	synchronized void clear() {
+		for (DecodedImage image : _images.values()) {
+			_size.addAndGet(-image._bytes);
+		}
+		_images.clear();
+	}
+
+	/**
+	 * An image as decoded by the renderer, with the transformation it was
+	 * drawn with relative to the current transformation of the page content.
+	 */
+	static class DecodedImage {
+		private final BufferedImage _image;
+		private final AffineTransform _transform;
+		private final long _decodeNanos;
+		private final long _bytes;
+
+		public DecodedImage(BufferedImage image, AffineTransform transform, long decodeNanos) {
+			_image = image;
+			_transform = transform;
+			_decodeNanos = decodeNanos;
+			_bytes = DisplayList.bytes(image);
+		}
+
+		public BufferedImage getImage() {
+			return _image;
+		}
+
+		public AffineTransform getTransform() {
+			return new AffineTransform(_transform);
+		}
+
+		/**
+		 * @return The time it took to decode and draw the image
+		 */
+		public long getDecodeNanos() {
+			return _decodeNanos;
+		}
+
+		public long getBytes() {
+			return _bytes;
+		}
+	}
+}
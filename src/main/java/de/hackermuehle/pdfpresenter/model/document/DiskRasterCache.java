@@ -0,0 +1,519 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Second level cache of page rasters on disk, shared by all sessions and
+ * instances of the application.
+ *
+ * A raster is identified by a fingerprint of the document file, the page
+ * number and the pixel size. Rasters are stored compressed (see
+ * {@link RasterCodec}) in the user's cache directory and read via memory
+ * mapping.
+ *
+ * Rasters are written by a background thread into a temporary file that is
+ * then renamed, so other instances never see partially written rasters.
+ * Until written, they count towards the budget of the {@link RasterCache}. If
+ * the cache exceeds its budget, the least recently used rasters are deleted
+ * by one instance at a time, coordinated by a lock file.
+ */
+public class DiskRasterCache {
+	private static final DiskRasterCache _instance = new DiskRasterCache();
+	private static final String SUFFIX = ".raster";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String LOCK_FILE = ".lock";
+	private static final long STALE_TEMP_FILE_AGE = 10 * 60 * 1000;
+	private static final int MAX_PENDING_WRITES = 32;
+	private static final int FINGERPRINT_BLOCK = 64 * 1024;
+	private static final long MODIFICATION_TIME_GRANULARITY = 2000; // ms, e.g. FAT
+	private static final int MAX_KNOWN_FINGERPRINTS = 64;
+
+	// Content fingerprints by path, size and modification time of the file:
+	private static final Map<String, String> _knownFingerprints = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_KNOWN_FINGERPRINTS;
+		}
+	};
+
+	private final File _directory;
+	private final ThreadPoolExecutor _writer;
+	private volatile long _budget = 512L * 1024 * 1024;
+	private volatile long _size = -1; // Only written by the writer thread, -1 = unknown
+	private final AtomicLong _pendingBytes = new AtomicLong();
+
+	private DiskRasterCache() {
+		_directory = getDefaultDirectory();
+
+		// If writing falls behind, rasters are dropped instead of queued:
+		_writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_PENDING_WRITES),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "DiskRasterCache");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				},
+				new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+						if (runnable instanceof Write) ((Write) runnable).discard();
+					}
+				});
+	}
+
+	public static DiskRasterCache getInstance() {
+		return _instance;
+	}
+
+	public File getDirectory() {
+		return _directory;
+	}
+
+	/**
+	 * @return The maximum number of bytes on disk, 0 if disabled
+	 */
+	public long getBudget() {
+		return _budget;
+	}
+
+	/**
+	 * @return The number of bytes on disk as of the last store or trim, -1 if
+	 *         not yet known
+	 */
+	public long getSize() {
+		return _size;
+	}
+
+	/**
+	 * @return The number of bytes of the rasters waiting to be written
+	 */
+	public long getPendingBytes() {
+		return _pendingBytes.get();
+	}
+
+	/**
+	 * Sets the maximum number of bytes on disk. Deletes rasters in the
+	 * background if the cache exceeds the new budget.
+	 *
+	 * @param budget Budget in bytes, 0 disables the cache (without deleting
+	 *        it)
+	 */
+	public void setBudget(long budget) {
+		if (budget < 0) throw new IllegalArgumentException("budget < 0");
+		_budget = budget;
+		_writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				trim();
+			}
+		});
+	}
+
+	/**
+	 * @param fingerprint See {@link #fingerprint(File)}
+	 * @param pageNr
+	 * @param width
+	 * @param height
+	 * @return The stored raster or null, if not stored
+	 */
+	BufferedImage load(String fingerprint, int pageNr, int width, int height) {
+		if (_budget <= 0) return null;
+
+		File file = getFile(fingerprint, pageNr, width, height);
+		if (!file.isFile()) return null;
+
+		RandomAccessFile input = null;
+		try {
+			input = new RandomAccessFile(file, "r");
+			FileChannel channel = input.getChannel();
+			BufferedImage image = RasterCodec.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), width, height);
+			if (image != null) {
+
+				// Least recently used rasters are deleted first:
+				file.setLastModified(System.currentTimeMillis());
+			}
+			return image;
+		} catch (FileNotFoundException e) {
+
+			// Deleted by another instance meanwhile
+			return null;
+		} catch (IOException e) {
+			System.err.println("DiskRasterCache.java: Deleting unreadable raster " + file + ": " + e.getMessage());
+			file.delete();
+			return null;
+		} finally {
+			close(input);
+		}
+	}
+
+	/**
+	 * Stores the raster in the background. The image must not be modified
+	 * afterwards.
+	 *
+	 * @param fingerprint See {@link #fingerprint(File)}
+	 * @param pageNr
+	 * @param image
+	 */
+	void store(String fingerprint, int pageNr, BufferedImage image) {
+		if (_budget <= 0) return;
+
+		RasterCache.getInstance().ensureCapacity(4L * image.getWidth() * image.getHeight());
+		_writer.execute(new Write(fingerprint, pageNr, image));
+	}
+
+	/**
+	 * Stores the raster in the background like {@link #store(String, int,
+	 * BufferedImage) store(...)}, but waits for room instead of dropping the
+	 * raster if writing falls behind.
+	 *
+	 * @param fingerprint See {@link #fingerprint(File)}
+	 * @param pageNr
+	 * @param image
+	 * @throws InterruptedException
+	 */
+	void storeWaiting(String fingerprint, int pageNr, BufferedImage image) throws InterruptedException {
+		if (_budget <= 0) return;
+
+		RasterCache.getInstance().ensureCapacity(4L * image.getWidth() * image.getHeight());
+		Write write = new Write(fingerprint, pageNr, image);
+		try {
+			enqueue(write);
+		} catch (InterruptedException e) {
+			write.discard();
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits until the rasters stored so far are written, e.g. before exiting.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void flush() throws InterruptedException {
+		final CountDownLatch written = new CountDownLatch(1);
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				written.countDown();
+			}
+		});
+		written.await();
+	}
+
+	private void enqueue(Runnable task) throws InterruptedException {
+		_writer.prestartCoreThread();
+		_writer.getQueue().put(task);
+	}
+
+	private void write(String fingerprint, int pageNr, BufferedImage image) {
+		File file = getFile(fingerprint, pageNr, image.getWidth(), image.getHeight());
+		if (file.exists()) return;
+
+		File temp = null;
+		try {
+			File directory = file.getParentFile();
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not create " + directory);
+			}
+
+			temp = File.createTempFile(file.getName(), TEMP_SUFFIX, directory);
+			OutputStream output = new BufferedOutputStream(new FileOutputStream(temp));
+			try {
+				RasterCodec.encode(image, output);
+			} finally {
+				output.close();
+			}
+
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			if (_size >= 0) _size += file.length();
+			if (_size < 0 || _size > _budget) trim();
+		} catch (IOException e) {
+			System.err.println("DiskRasterCache.java: Could not store raster " + file + ": " + e.getMessage());
+		} finally {
+			if (temp != null && temp.exists()) temp.delete();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used rasters until the cache fits into 90%
+	 * of the budget. Skipped if another instance is trimming.
+	 */
+	private void trim() {
+
+		// A disabled cache is left as it is for the other instances:
+		if (_budget <= 0) return;
+		if (!_directory.isDirectory()) {
+			_size = 0;
+			return;
+		}
+
+		RandomAccessFile lockFile = null;
+		FileLock lock = null;
+		try {
+			lockFile = new RandomAccessFile(new File(_directory, LOCK_FILE), "rw");
+			lock = lockFile.getChannel().tryLock();
+			if (lock == null) return;
+
+			List<File> files = new ArrayList<File>();
+			long now = System.currentTimeMillis();
+			long size = 0;
+			File[] directories = _directory.listFiles();
+			if (directories == null) return;
+			for (File directory : directories) {
+				if (!directory.isDirectory()) continue;
+				File[] entries = directory.listFiles();
+				if (entries == null) continue;
+				for (File entry : entries) {
+					if (entry.getName().endsWith(SUFFIX)) {
+						files.add(entry);
+						size += entry.length();
+					} else if (entry.getName().endsWith(TEMP_SUFFIX) && now - entry.lastModified() > STALE_TEMP_FILE_AGE) {
+
+						// Left behind by a crashed instance:
+						entry.delete();
+					}
+				}
+			}
+
+			long budget = _budget;
+			if (size > budget) {
+				Collections.sort(files, new Comparator<File>() {
+					@Override
+					public int compare(File a, File b) {
+						long difference = a.lastModified() - b.lastModified();
+						return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+					}
+				});
+
+				long target = budget - budget / 10;
+				for (File file : files) {
+					if (size <= target) break;
+					long length = file.length();
+					if (file.delete()) size -= length;
+				}
+
+				for (File directory : directories) {
+
+					// Only succeeds if empty:
+					if (directory.isDirectory()) directory.delete();
+				}
+			}
+			_size = size;
+		} catch (IOException e) {
+			System.err.println("DiskRasterCache.java: Could not trim cache: " + e.getMessage());
+		} catch (OverlappingFileLockException e) {
+			// Already trimming
+		} finally {
+			if (lock != null) {
+				try {
+					lock.release();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			close(lockFile);
+		}
+	}
+
+	private File getFile(String fingerprint, int pageNr, int width, int height) {
+		return new File(new File(_directory, fingerprint), pageNr + "_" + width + "x" + height + SUFFIX);
+	}
+
+	/**
+	 * Derives the fingerprint from the content of the file, but only reads
+	 * its size, the first and last 64 KB and the cross reference section
+	 * the trailer points to. Copies and renamed files share the fingerprint,
+	 * a changed file gets a new one.
+	 *
+	 * The fingerprint is remembered by path, size and modification time,
+	 * unless the file was modified too recently to tell a rewrite apart.
+	 *
+	 * @param file
+	 * @return A fingerprint (SHA-1) of the file
+	 * @throws IOException
+	 */
+	static String fingerprint(File file) throws IOException {
+		if (!file.isFile()) throw new FileNotFoundException(file.toString());
+		long lastModified = file.lastModified();
+		String key = file.getCanonicalPath() + "\n" + file.length() + "\n" + lastModified;
+		synchronized (_knownFingerprints) {
+			String fingerprint = _knownFingerprints.get(key);
+			if (fingerprint != null) return fingerprint;
+		}
+
+		String fingerprint = fingerprintContent(file);
+		if (lastModified < System.currentTimeMillis() - MODIFICATION_TIME_GRANULARITY) {
+			synchronized (_knownFingerprints) {
+				_knownFingerprints.put(key, fingerprint);
+			}
+		}
+		return fingerprint;
+	}
+
+	private static String fingerprintContent(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			long length = input.length();
+			digest.update(Long.toString(length).getBytes("UTF-8"));
+			digest.update(readBlock(input, 0));
+			byte[] tail = readBlock(input, Math.max(0, length - FINGERPRINT_BLOCK));
+			digest.update(tail);
+
+			// The cross reference section, unless already part of the tail:
+			long xref = findStartXref(tail);
+			if (xref >= 0 && xref < length - FINGERPRINT_BLOCK) {
+				digest.update(readBlock(input, xref));
+			}
+		} finally {
+			input.close();
+		}
+
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest()) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @return Up to FINGERPRINT_BLOCK bytes of the file from the given
+	 *         position on
+	 */
+	private static byte[] readBlock(RandomAccessFile input, long position) throws IOException {
+		byte[] block = new byte[(int) Math.min(FINGERPRINT_BLOCK, input.length() - position)];
+		input.seek(position);
+		input.readFully(block);
+		return block;
+	}
+
+	/**
+	 * @param tail The end of a PDF file
+	 * @return The offset following the last "startxref", or -1
+	 */
+	static long findStartXref(byte[] tail) throws IOException {
+		String text = new String(tail, "ISO-8859-1");
+		int index = text.lastIndexOf("startxref");
+		if (index < 0) return -1;
+
+		long offset = -1;
+		for (int i = index + "startxref".length(); i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= '0' && c <= '9') {
+				offset = Math.max(offset, 0) * 10 + (c - '0');
+				if (offset > Integer.MAX_VALUE) return -1;
+			} else if (offset >= 0 || !Character.isWhitespace(c)) {
+				break;
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * @return The application's directory in the platform's cache location
+	 */
+	private static File getDefaultDirectory() {
+		String os = System.getProperty("os.name").toLowerCase();
+		String home = System.getProperty("user.home");
+		File base;
+		if (os.startsWith("mac os x")) {
+			base = new File(home, "Library/Caches");
+		} else if (os.startsWith("windows")) {
+			String localAppData = System.getenv("LOCALAPPDATA");
+			base = (localAppData != null) ? new File(localAppData) : new File(home, "AppData/Local");
+		} else {
+			String xdgCacheHome = System.getenv("XDG_CACHE_HOME");
+			base = (xdgCacheHome != null && xdgCacheHome.length() > 0) ? new File(xdgCacheHome) : new File(home, ".cache");
+		}
+		return new File(new File(base, "pdfpresenter"), "rasters");
+	}
+
+	/**
+	 * A raster waiting to be written.
+	 */
+	private class Write implements Runnable {
+		private final String _fingerprint;
+		private final int _pageNr;
+		private final BufferedImage _image;
+		private final long _bytes;
+
+		public Write(String fingerprint, int pageNr, BufferedImage image) {
+			_fingerprint = fingerprint;
+			_pageNr = pageNr;
+			_image = image;
+			_bytes = 4L * image.getWidth() * image.getHeight();
+			_pendingBytes.addAndGet(_bytes);
+		}
+
+		@Override
+		public void run() {
+			try {
+				write(_fingerprint, _pageNr, _image);
+			} finally {
+				discard();
+			}
+		}
+
+		/**
+		 * Stops counting the raster as pending, also if it is not written.
+		 */
+		public void discard() {
+			_pendingBytes.addAndGet(-_bytes);
+		}
+	}
+
+	private static void close(RandomAccessFile file) {
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
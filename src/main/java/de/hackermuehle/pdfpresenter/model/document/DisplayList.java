@@ -0,0 +1,527 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Java2D primitives a page was rendered with: paths, glyph runs and
+ * images, each with the transformation, clip and paint it was drawn with.
+ * Recorded once by a {@link RecordingGraphics2D}, then replayed at any
+ * scale without interpreting the page content again.
+ *
+ * Display lists are immutable and may be replayed by several threads at
+ * once.
+ */
+public class DisplayList {
+	private static final int CHECK_INTERVAL = 256; // commands between checks for cancellation
+
+	private final Command[] _commands;
+	private final long _bytes;
+
+	DisplayList(List<Command> commands, long bytes) {
+		_commands = commands.toArray(new Command[commands.size()]);
+		_bytes = bytes;
+	}
+
+	/**
+	 * @return The number of recorded primitives
+	 */
+	public int size() {
+		return _commands.length;
+	}
+
+	/**
+	 * @return The estimated number of bytes held by the list, including
+	 *         the images
+	 */
+	public long getBytes() {
+		return _bytes;
+	}
+
+	/**
+	 * Draws the primitives relative to the current transformation and clip
+	 * of the graphics, which are restored afterwards. Rendering hints set
+	 * while recording are added to the current ones.
+	 *
+	 * @param g2d
+	 */
+	public void replay(Graphics2D g2d) {
+		AffineTransform transform = g2d.getTransform();
+		Shape clip = g2d.getClip();
+		Paint paint = g2d.getPaint();
+		Stroke stroke = g2d.getStroke();
+		Composite composite = g2d.getComposite();
+		Font font = g2d.getFont();
+		Color background = g2d.getBackground();
+		RenderingHints hints = g2d.getRenderingHints();
+
+		GraphicsState state = null;
+		try {
+			for (int i = 0; i < _commands.length; i++) {
+				if (i % CHECK_INTERVAL == 0) Document.checkCancelled();
+
+				Command command = _commands[i];
+				if (command._state != state) {
+					state = command._state;
+					g2d.setTransform(transform);
+					g2d.setClip(clip);
+					state.apply(g2d);
+				}
+				command.paint(g2d);
+			}
+		} finally {
+			g2d.setTransform(transform);
+			g2d.setClip(clip);
+			g2d.setPaint(paint);
+			g2d.setStroke(stroke);
+			g2d.setComposite(composite);
+			g2d.setFont(font);
+			g2d.setBackground(background);
+			g2d.setRenderingHints(hints);
+		}
+	}
+
+	/**
+	 * Compares two display lists, e.g. of consecutive overlay pages that
+	 * only differ by a bullet point. Primitives drawn by both lists before
+	 * and after the first and last difference are considered unchanged.
+	 * 
+	 * @param a
+	 * @param b
+	 * @return The bounds of the primitives that differ, in the coordinates
+	 * the lists were recorded in, empty if the lists draw the same
+	 */
+	public static Rectangle2D getChangedArea(DisplayList a, DisplayList b) {
+		Command[] commandsA = a._commands;
+		Command[] commandsB = b._commands;
+		int prefix = 0;
+		while (prefix < commandsA.length && prefix < commandsB.length && commandsA[prefix].isSame(commandsB[prefix])) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < commandsA.length - prefix && suffix < commandsB.length - prefix
+				&& commandsA[commandsA.length - 1 - suffix].isSame(commandsB[commandsB.length - 1 - suffix])) {
+			suffix++;
+		}
+
+		Rectangle2D area = new Rectangle2D.Double();
+		for (int i = prefix; i < commandsA.length - suffix; i++) {
+			add(area, commandsA[i].getBounds());
+		}
+		for (int i = prefix; i < commandsB.length - suffix; i++) {
+			add(area, commandsB[i].getBounds());
+		}
+		return area;
+	}
+
+	private static void add(Rectangle2D area, Rectangle2D bounds) {
+		if (bounds.isEmpty()) return;
+		if (area.isEmpty()) {
+			area.setRect(bounds);
+		} else {
+			area.add(bounds);
+		}
+	}
+
+	/**
+	 * @return true if both shapes have the same outline
+	 */
+	static boolean isSameShape(Shape a, Shape b) {
+		if (a == b) return true;
+		if (a == null || b == null) return false;
+
+		float[] coordsA = new float[6];
+		float[] coordsB = new float[6];
+		PathIterator iteratorA = a.getPathIterator(null);
+		PathIterator iteratorB = b.getPathIterator(null);
+		if (iteratorA.getWindingRule() != iteratorB.getWindingRule()) return false;
+		for (; !iteratorA.isDone() && !iteratorB.isDone(); iteratorA.next(), iteratorB.next()) {
+			if (iteratorA.currentSegment(coordsA) != iteratorB.currentSegment(coordsB)) return false;
+			if (!Arrays.equals(coordsA, coordsB)) return false;
+		}
+		return iteratorA.isDone() && iteratorB.isDone();
+	}
+
+	private static boolean isEqual(Object a, Object b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+	/**
+	 * @return The bytes held by the pixels of the image, an estimate if not
+	 *         a BufferedImage
+	 */
+	static long bytes(Image image) {
+		if (image instanceof BufferedImage) {
+			DataBuffer buffer = ((BufferedImage) image).getRaster().getDataBuffer();
+			return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+		}
+		return 4L * Math.max(0, image.getWidth(null)) * Math.max(0, image.getHeight(null));
+	}
+
+	/**
+	 * Graphics attributes shared by consecutive primitives. The clip is in
+	 * the coordinates of the transformation.
+	 */
+	static class GraphicsState {
+		private final AffineTransform _transform;
+		private final Shape _clip;
+		private final Paint _paint;
+		private final Stroke _stroke;
+		private final Composite _composite;
+		private final Color _xorColor;
+		private final Font _font;
+		private final Color _background;
+		private final Map<RenderingHints.Key, Object> _hints;
+
+		public GraphicsState(AffineTransform transform, Shape clip, Paint paint, Stroke stroke, Composite composite,
+				Color xorColor, Font font, Color background, Map<RenderingHints.Key, Object> hints) {
+			_transform = transform;
+			_clip = clip;
+			_paint = paint;
+			_stroke = stroke;
+			_composite = composite;
+			_xorColor = xorColor;
+			_font = font;
+			_background = background;
+			_hints = hints;
+		}
+
+		/**
+		 * @return true if primitives are drawn the same with both states.
+		 * Paints and images without value equality are the same only if
+		 * identical.
+		 */
+		boolean isSame(GraphicsState state) {
+			return this == state || (_transform.equals(state._transform) && isSameShape(_clip, state._clip)
+					&& isEqual(_paint, state._paint) && isEqual(_stroke, state._stroke)
+					&& isEqual(_composite, state._composite) && isEqual(_xorColor, state._xorColor)
+					&& isEqual(_font, state._font) && isEqual(_background, state._background)
+					&& _hints.equals(state._hints));
+		}
+
+		/**
+		 * @param bounds Bounds in the coordinates of the transformation
+		 * @return The bounds in the coordinates the list was recorded in,
+		 * limited to the clip
+		 */
+		Rectangle2D transform(Rectangle2D bounds) {
+			if (_clip != null) bounds = bounds.createIntersection(_clip.getBounds2D());
+			if (bounds.isEmpty()) return new Rectangle2D.Double();
+			return _transform.createTransformedShape(bounds).getBounds2D();
+		}
+
+		void apply(Graphics2D g2d) {
+			g2d.transform(_transform);
+			if (_clip != null) g2d.clip(_clip);
+			if (_xorColor != null) {
+				g2d.setXORMode(_xorColor);
+			} else {
+				g2d.setComposite(_composite);
+			}
+			g2d.setPaint(_paint);
+			g2d.setStroke(_stroke);
+			g2d.setFont(_font);
+			g2d.setBackground(_background);
+			if (!_hints.isEmpty()) g2d.addRenderingHints(_hints);
+		}
+	}
+
+	/**
+	 * A primitive drawn with a graphics state.
+	 */
+	abstract static class Command {
+		private final GraphicsState _state;
+
+		protected Command(GraphicsState state) {
+			_state = state;
+		}
+
+		abstract void paint(Graphics2D g2d);
+
+		/**
+		 * @return The bounds of the primitive in the coordinates the list
+		 * was recorded in
+		 */
+		Rectangle2D getBounds() {
+			return _state.transform(getLocalBounds());
+		}
+
+		/**
+		 * @return The bounds of the primitive in the coordinates of the
+		 * transformation of its state
+		 */
+		abstract Rectangle2D getLocalBounds();
+
+		/**
+		 * @return true if both commands draw the same primitive with the
+		 * same graphics state
+		 */
+		boolean isSame(Command command) {
+			return getClass() == command.getClass() && _state.isSame(command._state) && isSamePrimitive(command);
+		}
+
+		/**
+		 * @param command A command of the same class
+		 */
+		abstract boolean isSamePrimitive(Command command);
+	}
+
+	/**
+	 * @return The bounds of the image drawn with the given transformation
+	 */
+	private static Rectangle2D getImageBounds(int width, int height, AffineTransform transform) {
+		Rectangle2D bounds = new Rectangle2D.Double(0, 0, Math.max(0, width), Math.max(0, height));
+		return (transform != null) ? transform.createTransformedShape(bounds).getBounds2D() : bounds;
+	}
+
+	static class Fill extends Command {
+		private final Shape _shape;
+
+		public Fill(GraphicsState state, Shape shape) {
+			super(state);
+			_shape = shape;
+		}
+
+		@Override
+		void paint(Graphics2D g2d) {
+			g2d.fill(_shape);
+		}
+
+		@Override
+		Rectangle2D getLocalBounds() {
+			return _shape.getBounds2D();
+		}
+
+		@Override
+		boolean isSamePrimitive(Command command) {
+			return isSameShape(_shape, ((Fill) command)._shape);
+		}
+	}
+
+	static class Draw extends Command {
+		private final Shape _shape;
+
+		public Draw(GraphicsState state, Shape shape) {
+			super(state);
+			_shape = shape;
+		}
+
+		@Override
+		void paint(Graphics2D g2d) {
+			g2d.draw(_shape);
+		}
+
+		@Override
+		Rectangle2D getLocalBounds() {
+			return ((Command) this)._state._stroke.createStrokedShape(_shape).getBounds2D();
+		}
+
+		@Override
+		boolean isSamePrimitive(Command command) {
+			return isSameShape(_shape, ((Draw) command)._shape);
+		}
+	}
+
+	static class Glyphs extends Command {
+		private final GlyphVector _glyphs;
+		private final float _x;
+		private final float _y;
+
+		public Glyphs(GraphicsState state, GlyphVector glyphs, float x, float y) {
+			super(state);
+			_glyphs = glyphs;
+			_x = x;
+			_y = y;
+		}
+
+		@Override
+		void paint(Graphics2D g2d) {
+			g2d.drawGlyphVector(_glyphs, _x, _y);
+		}
+
+		@Override
+		Rectangle2D getLocalBounds() {
+			Rectangle2D bounds = _glyphs.getVisualBounds();
+			bounds.setRect(bounds.getX() + _x, bounds.getY() + _y, bounds.getWidth(), bounds.getHeight());
+			return bounds;
+		}
+
+		@Override
+		boolean isSamePrimitive(Command command) {
+			Glyphs glyphs = (Glyphs) command;
+			return _x == glyphs._x && _y == glyphs._y && _glyphs.equals(glyphs._glyphs);
+		}
+	}
+
+	static class DrawImage extends Command {
+		private final Image _image;
+		private final AffineTransform _transform;
+
+		public DrawImage(GraphicsState state, Image image, AffineTransform transform) {
+			super(state);
+			_image = image;
+			_transform = transform;
+		}
+
+		@Override
+		void paint(Graphics2D g2d) {
+			g2d.drawImage(_image, _transform, null);
+		}
+
+		@Override
+		Rectangle2D getLocalBounds() {
+			return getImageBounds(_image.getWidth(null), _image.getHeight(null), _transform);
+		}
+
+		@Override
+		boolean isSamePrimitive(Command command) {
+			DrawImage image = (DrawImage) command;
+			return _image == image._image && isEqual(_transform, image._transform);
+		}
+	}
+
+	static class DrawImageRect extends Command {
+		private final Image _image;
+		private final int _dx1, _dy1, _dx2, _dy2;
+		private final int _sx1, _sy1, _sx2, _sy2;
+		private final Color _background;
+
+		public DrawImageRect(GraphicsState state, Image image, int dx1, int dy1, int dx2, int dy2,
+				int sx1, int sy1, int sx2, int sy2, Color background) {
+			super(state);
+			_image = image;
+			_dx1 = dx1;
+			_dy1 = dy1;
+			_dx2 = dx2;
+			_dy2 = dy2;
+			_sx1 = sx1;
+			_sy1 = sy1;
+			_sx2 = sx2;
+			_sy2 = sy2;
+			_background = background;
+		}
+
+		@Override
+		void paint(Graphics2D g2d) {
+			g2d.drawImage(_image, _dx1, _dy1, _dx2, _dy2, _sx1, _sy1, _sx2, _sy2, _background, null);
+		}
+
+		@Override
+		Rectangle2D getLocalBounds() {
+			Rectangle2D bounds = new Rectangle2D.Double(Math.min(_dx1, _dx2), Math.min(_dy1, _dy2), 0, 0);
+			bounds.add(Math.max(_dx1, _dx2), Math.max(_dy1, _dy2));
+			return bounds;
+		}
+
+		@Override
+		boolean isSamePrimitive(Command command) {
+			DrawImageRect image = (DrawImageRect) command;
+			return _image == image._image && _dx1 == image._dx1 && _dy1 == image._dy1 && _dx2 == image._dx2 && _dy2 == image._dy2
+					&& _sx1 == image._sx1 && _sy1 == image._sy1 && _sx2 == image._sx2 && _sy2 == image._sy2
+					&& isEqual(_background, image._background);
+		}
+	}
+
+	static class DrawRenderedImage extends Command {
+		private final RenderedImage _image;
+		private final AffineTransform _transform;
+
+		public DrawRenderedImage(GraphicsState state, RenderedImage image, AffineTransform transform) {
+			super(state);
+			_image = image;
+			_transform = transform;
+		}
+
+		@Override
+		void paint(Graphics2D g2d) {
+			g2d.drawRenderedImage(_image, _transform);
+		}
+
+		@Override
+		Rectangle2D getLocalBounds() {
+			Rectangle2D bounds = getImageBounds(_image.getWidth(), _image.getHeight(), null);
+			bounds.setRect(_image.getMinX(), _image.getMinY(), bounds.getWidth(), bounds.getHeight());
+			return _transform.createTransformedShape(bounds).getBounds2D();
+		}
+
+		@Override
+		boolean isSamePrimitive(Command command) {
+			DrawRenderedImage image = (DrawRenderedImage) command;
+			return _image == image._image && _transform.equals(image._transform);
+		}
+	}
+
+	static class DrawRenderableImage extends Command {
+		private final RenderableImage _image;
+		private final AffineTransform _transform;
+
+		public DrawRenderableImage(GraphicsState state, RenderableImage image, AffineTransform transform) {
+			super(state);
+			_image = image;
+			_transform = transform;
+		}
+
+		@Override
+		void paint(Graphics2D g2d) {
+			g2d.drawRenderableImage(_image, _transform);
+		}
+
+		@Override
+		Rectangle2D getLocalBounds() {
+			Rectangle2D bounds = new Rectangle2D.Float(_image.getMinX(), _image.getMinY(), _image.getWidth(), _image.getHeight());
+			return _transform.createTransformedShape(bounds).getBounds2D();
+		}
+
+		@Override
+		boolean isSamePrimitive(Command command) {
+			DrawRenderableImage image = (DrawRenderableImage) command;
+			return _image == image._image && _transform.equals(image._transform);
+		}
+	}
+
+	static class ClearRect extends Command {
+		private final int _x, _y, _width, _height;
+
+		public ClearRect(GraphicsState state, int x, int y, int width, int height) {
+			super(state);
+			_x = x;
+			_y = y;
+			_width = width;
+			_height = height;
+		}
+
+		@Override
+		void paint(Graphics2D g2d) {
+			g2d.clearRect(_x, _y, _width, _height);
+		}
+
+		@Override
+		Rectangle2D getLocalBounds() {
+			return new Rectangle2D.Double(_x, _y, Math.max(0, _width), Math.max(0, _height));
+		}
+
+		@Override
+		boolean isSamePrimitive(Command command) {
+			ClearRect clear = (ClearRect) command;
+			return _x == clear._x && _y == clear._y && _width == clear._width && _height == clear._height;
+		}
+	}
+}
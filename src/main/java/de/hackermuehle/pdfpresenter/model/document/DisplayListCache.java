@@ -0,0 +1,97 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Display lists of the pages of a document, replayed instead of rendering
+ * the pages again at another scale. Separate from the rendered rasters.
+ *
+ * If all caches together exceed the budget, the least recently used pages
+ * are dropped, except for the pages around the focus page (see
+ * {@link Document#getFocusPage()}).
+ */
+public class DisplayListCache {
+	static final int WINDOW = 3; // pages kept before and after the focus page
+
+	private static volatile long _budget = Runtime.getRuntime().maxMemory() / 16;
+	private static final AtomicLong _size = new AtomicLong();
+
+	// Access ordered, least recently used first:
+	private final LinkedHashMap<Integer, DisplayList> _pages = new LinkedHashMap<Integer, DisplayList>(16, 0.75f, true);
+
+	/**
+	 * @return The maximum number of bytes of all caches
+	 */
+	public static long getBudget() {
+		return _budget;
+	}
+
+	/**
+	 * Sets the maximum number of bytes of all caches. Applied when pages are
+	 * added.
+	 *
+	 * @param budget Budget in bytes, 0 keeps only the pages around the focus
+	 */
+	public static void setBudget(long budget) {
+		if (budget < 0) throw new IllegalArgumentException("budget < 0");
+		_budget = budget;
+	}
+
+	/**
+	 * @return The estimated number of bytes of all caches
+	 */
+	public static long getSize() {
+		return _size.get();
+	}
+
+	/**
+	 * @param pageNr
+	 * @return The display list of the page or null
+	 */
+	synchronized DisplayList get(int pageNr) {
+		return _pages.get(pageNr);
+	}
+
+	/**
+	 * Adds the display list of a page and drops least recently used pages
+	 * outside the window around the focus page while over budget.
+	 *
+	 * @param pageNr
+	 * @param displayList
+	 * @param focusPage
+	 */
+	synchronized void put(int pageNr, DisplayList displayList, int focusPage) {
+		DisplayList replaced = _pages.put(pageNr, displayList);
+		if (replaced != null) _size.addAndGet(-replaced.getBytes());
+		_size.addAndGet(displayList.getBytes());
+
+		Iterator<Map.Entry<Integer, DisplayList>> iterator = _pages.entrySet().iterator();
+		while (_size.get() > _budget && iterator.hasNext()) {
+			Map.Entry<Integer, DisplayList> entry = iterator.next();
+			if (entry.getKey() == pageNr) continue;
+			if (focusPage >= 0 && Math.abs(entry.getKey() - focusPage) <= WINDOW) continue;
+			_size.addAndGet(-entry.getValue().getBytes());
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Drops the display list of a page, e.g. after its content changed.
+	 *
+	 * @param pageNr
+	 */
+	synchronized void remove(int pageNr) {
+		DisplayList removed = _pages.remove(pageNr);
+		if (removed != null) _size.addAndGet(-removed.getBytes());
+	}
+
+	synchronized void clear() {
+		for (DisplayList displayList : _pages.values()) {
+			_size.addAndGet(-displayList.getBytes());
+		}
+		_pages.clear();
+	}
+}
@@ -1,6 +1,7 @@
 package de.hackermuehle.pdfpresenter.model.document;
 
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
 import java.awt.Image;
@@ -11,14 +12,22 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
 import java.awt.image.VolatileImage;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.swing.SwingUtilities;
+
+import de.hackermuehle.pdfpresenter.model.CacheEvent;
 import de.hackermuehle.pdfpresenter.model.CacheObserver;
 import de.hackermuehle.pdfpresenter.model.Clipping;
 import de.hackermuehle.pdfpresenter.model.ImmutableClipping;
@@ -31,6 +40,7 @@ import de.hackermuehle.pdfpresenter.model.slide.Slide;
  * A Document maintains a list of DocumentCacheEntry's that identify
  * certain images currently in use / displayed by external users.
  * These identified images are held in memory (= cached).
+ * Pages are rendered in the background by the {@link RenderScheduler}.
  */
 public abstract class Document {
 	public static final int PRIO_MIN		= 0;
@@ -40,19 +50,58 @@ public abstract class Document {
 	public static final int PRIO_HIGHEST	= 1000000;
 	public static final int PRIO_MAX		= 1000000;
 	
-	private List<CacheMarker> _markersToDo;			// pages to cache
-	private List<CacheMarker> _markersToMaintain;	// pages in cache
-	private ConcurrentHashMap<String, BufferedImage> _cache; //the image cache
-	private CachingThread _thread; //the caching thread
+	/**
+	 * Edge length of tiles in pixels. Pages zoomed to more than
+	 * TILING_FACTOR times the visible area are cached in tiles.
+	 */
+	public static final int TILE_SIZE		= 256;
+	private static final int TILING_FACTOR	= 2;
+	
+	/**
+	 * Pages without any cached raster are first rendered at this scale,
+	 * unless the preview would be narrower than MIN_PREVIEW_WIDTH.
+	 */
+	private static final double PREVIEW_SCALE	= 0.25;
+	private static final int MIN_PREVIEW_WIDTH	= 32;
+	
+	/**
+	 * Pages differing from a neighbour in at most MAX_DELTA_FRACTION of their
+	 * pixels are rendered on top of the neighbour's raster, see {@link
+	 * #setDeltaRendering(boolean)}. Changed areas are grown by DELTA_MARGIN
+	 * pixels for antialiasing.
+	 */
+	private static final double MAX_DELTA_FRACTION	= 0.5;
+	private static final int DELTA_MARGIN	= 2;
+	
+	private static final Color PLACEHOLDER_COLOR = Color.GRAY;
+	private static volatile boolean _strictPainting = false;
+	private static volatile boolean _deltaRendering = false;
+	
+	// The page the calling worker renders, see CacheMarker.isCancelled():
+	private static final ThreadLocal<CacheIdentifier> _renderedIdentifier = new ThreadLocal<CacheIdentifier>();
+	
+	private Set<CacheMarker> _markersToMaintain;	// pages in cache
+	private final Map<CacheIdentifier, PendingRender> _pendingRenders = new HashMap<CacheIdentifier, PendingRender>();
+	private RasterIndex _cache; //the image cache
+	private TileIndex _tiles; //the tile cache for zoomed pages
+	private RenderMetrics _metrics;
+	private volatile boolean _metricsRegistered = false; // see cache(...)
+	private final long _openedNanos = System.nanoTime();
+	private volatile int _focusPage = -1;
+	private final Object _renderPageLock = new Object(); // see renderPage(...)
+	private final AtomicInteger _generation = new AtomicInteger(); // see pagesChanged(...)
+	private final Map<CacheIdentifier, CacheMarker> _placeholderMarkers = new ConcurrentHashMap<CacheIdentifier, CacheMarker>(); // see paintUncached(...)
+	private boolean _placeholderPainted; // event dispatch thread only, see paint(...)
 
 	/**
 	 * construction, setting up cache
 	 */
 	public Document() {
-		_markersToDo = Collections.synchronizedList(new LinkedList<CacheMarker>());
-		_markersToMaintain = Collections.synchronizedList(new LinkedList<CacheMarker>());
-		_cache = new ConcurrentHashMap<String, BufferedImage>();
-		_thread = null;
+		_markersToMaintain = Collections.newSetFromMap(new ConcurrentHashMap<CacheMarker, Boolean>());
+		_cache = new RasterIndex();
+		_tiles = new TileIndex();
+		_metrics = new RenderMetrics(this);
+		RasterCache.getInstance().register(this);
 	}
 	
 	/** 
@@ -73,13 +122,18 @@ public abstract class Document {
 	private class CacheIdentifier{
 		private int _pageNr;
 		private Rectangle _destination;
-		private String _string;
+		private Rectangle _tiles;
 		
-		public CacheIdentifier(int pageNr, Rectangle destination) {
+		public CacheIdentifier(int pageNr, Rectangle destination, Rectangle tiles) {
 			super();
 			_pageNr = pageNr;
 			_destination = (Rectangle) destination.clone();
-			_string = "p" + _pageNr + "d" + _destination.getWidth() + "h" + _destination.getHeight();
+			_tiles = (tiles != null) ? (Rectangle) tiles.clone() : null;
+		}
+		
+		public CacheIdentifier(int pageNr, Clipping clipping) {
+			this(pageNr, calcDestination(pageNr, clipping), null);
+			_tiles = calcTiles(_destination, clipping);
 		}
 		
 		public int getPageNr() {
@@ -90,27 +144,85 @@ public abstract class Document {
 			return (Rectangle) _destination.clone();
 		}
 		
+		public int getWidth() {
+			return _destination.width;
+		}
+		
+		public int getHeight() {
+			return _destination.height;
+		}
+		
 		/**
-		 * Return a string representation. CacheIdentifier of equal values
-		 * return equal strings.
-		 * 
-		 * @return string representation
+		 * @return The visible tiles (in tile units) or null, if the page is
+		 * cached as a whole
+		 */
+		public Rectangle getTiles() {
+			return (_tiles != null) ? (Rectangle) _tiles.clone() : null;
+		}
+		
+		/**
+		 * @return The number of pixels to render
+		 */
+		public long getPixelCount() {
+			if (_tiles != null) return (long) _tiles.width * _tiles.height * TILE_SIZE * TILE_SIZE;
+			return (long) getWidth() * getHeight();
+		}
+		
+		/**
+		 * @param cacheId
+		 * @return true if both identify the same page in the same dimensions
+		 * and, if tiled, overlapping tiles
+		 */
+		public boolean isSameImage(CacheIdentifier cacheId) {
+			if (_pageNr != cacheId._pageNr || getWidth() != cacheId.getWidth() || getHeight() != cacheId.getHeight()) return false;
+			if (_tiles == null || cacheId._tiles == null) return _tiles == cacheId._tiles;
+			return _tiles.intersects(cacheId._tiles);
+		}
+		
+		/**
+		 * Equal identifiers denote the same rendering: the same page in the
+		 * same dimensions and, if tiled, the same tiles.
 		 */
-		public String toString() {
-			return _string;
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheIdentifier)) return false;
+			CacheIdentifier cacheId = (CacheIdentifier) obj;
+			if (_pageNr != cacheId._pageNr || getWidth() != cacheId.getWidth() || getHeight() != cacheId.getHeight()) return false;
+			return (_tiles == null) ? cacheId._tiles == null : _tiles.equals(cacheId._tiles);
 		}
+		
+		@Override
+		public int hashCode() {
+			int result = _pageNr;
+			result = 31 * result + getWidth();
+			result = 31 * result + getHeight();
+			result = 31 * result + ((_tiles != null) ? _tiles.hashCode() : 0);
+			return result;
+		}
+	}
+	
+	/**
+	 * A rendering in progress. Markers requesting the same rendering
+	 * meanwhile wait for it instead of rendering again.
+	 */
+	private static class PendingRender {
+		// Waiting markers and the identifier each one requested:
+		private final Map<CacheMarker, CacheIdentifier> _followers = new LinkedHashMap<CacheMarker, CacheIdentifier>();
 	}
 	
 	/**
 	 * Private implementation of the CachedDocumentEntry.
 	 * Additional priority and observer functionality.
 	 */
-	private class CacheMarker implements DocumentCacheEntry, Comparable<CacheMarker>{
+	private class CacheMarker extends RenderJob implements DocumentCacheEntry {
+		private int _pageNr; // as requested, see getCanonicalPage(...)
 		private int _priority;
+		private int _basePriority;
 		private long _time;
 		private Clipping _clipping;
-		private CacheIdentifier _cacheIdentifier;
+		private volatile CacheIdentifier _cacheIdentifier;
 		private CacheObserver _observer;
+		private volatile boolean _disposed;
 		
 		public CacheMarker(int pageNr, Clipping clipping, int priority, CacheObserver observer) {
 			if (priority < PRIO_MIN)
@@ -141,6 +253,22 @@ public abstract class Document {
 			return _priority;
 		}
 		
+		/**
+		 * @return The priority requested by the owner of this marker. Unlike
+		 * {@link #getPriority()}, not reduced for nice re-rendering.
+		 */
+		public int getBasePriority() {
+			return _basePriority;
+		}
+		
+		/**
+		 * @return true if this marker belongs to a view that displays the
+		 * cached page (and therefore observes it)
+		 */
+		public boolean isDisplayed() {
+			return _observer != null;
+		}
+		
 		public CacheIdentifier getCacheIdentifier() {
 			return _cacheIdentifier;
 		}
@@ -149,69 +277,84 @@ public abstract class Document {
 			return _observer;
 		}
 		
-		private void addMarkerToDoSorterd(CacheMarker marker) {
-			if(_markersToDo!=null) {
-				boolean added = false;
-				for(int i = 0; i < _markersToDo.size();i++) {
-					if (_markersToDo.get(i).compareTo(marker) > 0) {
-						_markersToDo.add(i, marker);
-						added = true;
-						break;
-					}
-				}
-				if(!added) {
-					_markersToDo.add(marker);
-				}
-			} else {
-				System.err.println("Document.java: _markersToDo=null");
-			}
+		/**
+		 * @return true if the page requested is painted from the rasters of
+		 * an identical page
+		 */
+		public boolean isDeduplicated() {
+			return _pageNr != _cacheIdentifier.getPageNr();
+		}
+		
+		@Override
+		public Document getDocument() {
+			return Document.this;
+		}
+		
+		@Override
+		public long getPixelCount() {
+			return _cacheIdentifier.getPixelCount();
 		}
 		
 		@Override
-		public void dispose() {
-			_markersToDo.remove(this);
+		public synchronized void dispose() {
+			_disposed = true;
+			RenderScheduler.getInstance().cancel(this);
 			_markersToMaintain.remove(this);
 		}
 		
 		@Override
 		public boolean isCached() {
 			//returns isCached(this) isCachedLarger(this) // isCached should return true if paint() returns immediately.
-			return Document.this.isCached(_cacheIdentifier) || Document.this.isCachedLarger(_cacheIdentifier.getPageNr(), _cacheIdentifier.getDestination()) != null;
+			return Document.this.isCached(_cacheIdentifier) || Document.this.isCachedLarger(_cacheIdentifier);
 		}
 		
 		@Override
-		public void update(int pageNr, Clipping clipping, int priority, CacheObserver observer) {
+		public boolean isPreviewAvailable() {
+			return isCached() || getLargestRaster(_cacheIdentifier.getPageNr()) != null;
+		}
+		
+		@Override
+		public synchronized void update(int pageNr, Clipping clipping, int priority, CacheObserver observer) {
 
-			// If contained, remove this marker from the to-do queue:
-			_markersToDo.remove(this);
+			// A queued marker stays in the to-do queue and is re-sorted below:
 			_markersToMaintain.remove(this);
+			_disposed = false;
 			
 			// Update the settings:
 			_clipping = (Clipping) clipping.clone();
 			_priority = priority;
+			_basePriority = priority;
 			_time = System.currentTimeMillis();
-			_cacheIdentifier = new CacheIdentifier(pageNr, calcDestination(pageNr, clipping));
+			CacheIdentifier previousIdentifier = _cacheIdentifier;
+			_pageNr = pageNr;
+			_cacheIdentifier = new CacheIdentifier(getCanonicalPage(pageNr), clipping);
 			_observer = observer;
+			if (priority >= PRIO_MAIN) _focusPage = pageNr;
 			
-			if (Document.this.isCached(_cacheIdentifier)) {
+			boolean cached = Document.this.isCached(_cacheIdentifier);
+			if (cached || Document.this.isCachedLarger(_cacheIdentifier)) {
+				CacheStatistics.getInstance().hit(CacheStatistics.Tier.MEMORY);
+				if (cached && isDeduplicated() && (previousIdentifier == null || !previousIdentifier.isSameImage(_cacheIdentifier))) {
+					_metrics.recordDeduplicatedRender();
+				}
+			} else {
+				CacheStatistics.getInstance().miss(CacheStatistics.Tier.MEMORY);
+			}
+			
+			if (cached) {
 				
 				// Page is already cached in exactly the same dimension:
-				if (_observer != null) {
-					_observer.notify(this, "img.ready");
-				}
+				RenderScheduler.getInstance().cancel(this);
+				notifyObserver(CacheEvent.Kind.READY);
 				
-				// The marker has to be maintained (if not already maintained):
-				if (!_markersToMaintain.contains(this)) {
-					_markersToMaintain.add(this);
-				}
+				// The marker has to be maintained:
+				_markersToMaintain.add(this);
 			} else {
 				
-				if (Document.this.isCachedLarger(_cacheIdentifier.getPageNr(), _cacheIdentifier.getDestination()) != null) {
+				if (Document.this.isCachedLarger(_cacheIdentifier)) {
 					
 					// Page is already cached in bigger dimensions:
-					if (_observer != null) {
-						_observer.notify(this, "img.ready.shrinked");
-					}
+					notifyObserver(CacheEvent.Kind.READY_SHRINKED);
 					
 					// Is priority high enough to allow for nice re-rendering
 					// in exact dimensions?
@@ -221,154 +364,235 @@ public abstract class Document {
 						if (_priority >= 0)
 							_priority -= PRIO_MAX - 1; // Reduce priority < 0
 						
-						addMarkerToDoSorterd(this);
-						runThread();
+						RenderScheduler.getInstance().submit(this);
+					} else {
+						RenderScheduler.getInstance().cancel(this);
 					}
 			
-					// The marker has to be maintained (if not already maintained):
-					if (!_markersToMaintain.contains(this)) {
-						_markersToMaintain.add(this);
-					}
+					// The marker has to be maintained:
+					_markersToMaintain.add(this);
 				}
 				else {
-					addMarkerToDoSorterd(this);
-					runThread();
+					RenderScheduler.getInstance().submit(this);
 				}
 			}
 		}
-
+		
+		/**
+		 * Adds the page, identified by this marker, to the cache.
+		 */
 		@Override
-		public int compareTo(CacheMarker marker) {
-			if (marker.getPriority() == getPriority()) {
+		public void render() {
+			resolveCanonicalPage();
+			CacheIdentifier cacheIdentifier = getCacheIdentifier();
+			boolean deduplicated = isDeduplicated();
+			if (Document.this.isCached(cacheIdentifier)) {
+				if (deduplicated) _metrics.recordDeduplicatedRender();
+				rendered(cacheIdentifier, true);
+				return;
+			}
+			
+			// Wait for an identical rendering in progress, if any:
+			PendingRender pending;
+			boolean waiting;
+			synchronized (_pendingRenders) {
+				pending = _pendingRenders.get(cacheIdentifier);
+				waiting = (pending != null);
+				if (waiting) {
+					pending._followers.put(this, cacheIdentifier);
+				} else {
+					pending = new PendingRender();
+					_pendingRenders.put(cacheIdentifier, pending);
+				}
+			}
+			if (waiting) {
+				_metrics.recordSharedRender();
+				if (deduplicated) _metrics.recordDeduplicatedRender();
+				return;
+			}
+			
+			Rectangle destination = cacheIdentifier.getDestination();
+			Rectangle tiles = cacheIdentifier.getTiles();
+			
+			boolean painted = false;
+			boolean completed = false;
+			boolean cancelled = false;
+			long start = System.nanoTime();
+			_renderedIdentifier.set(cacheIdentifier);
+			try {
+				
+				// A cold page is shown in low resolution first:
+				Rectangle preview = calcPreview(cacheIdentifier, getBasePriority(), isDisplayed());
+				if (preview != null) {
+					RasterCache.getInstance().ensureCapacity(4L * preview.width * preview.height);
+					if (paintImageIntoCache(cacheIdentifier.getPageNr(), preview, getBasePriority(), false) != null) {
+						notifyObserver(CacheEvent.Kind.PREVIEW);
+						for (CacheMarker follower : getFollowers(pending)) {
+							follower.notifyObserver(CacheEvent.Kind.PREVIEW);
+						}
+					}
+					checkCancelled();
+				}
 				
-				double markerSize = marker.getCacheIdentifier().getDestination().getWidth() * marker.getCacheIdentifier().getDestination().getHeight();
-				double thisSize = this.getCacheIdentifier().getDestination().getWidth() * this.getCacheIdentifier().getDestination().getHeight();
+				if (tiles != null) {
+					painted = paintTilesIntoCache(cacheIdentifier.getPageNr(), destination, tiles, getBasePriority());
+				} else {
+					//free mem
+					RasterCache.getInstance().ensureCapacity(4L * destination.width * destination.height);
+					painted = paintImageIntoCache(cacheIdentifier.getPageNr(), destination, getBasePriority(), true) != null;
+				}
+				completed = true;
+			} catch (RenderCancelledException e) {
 				
-				// Commented out - only useful if thumbnail images are rendered 
-				// on demand:
-				/*if (markerSize == thisSize) {
-					// Newer images first:
-					return (marker._time - this._time < 0) ? -1 : 1;
-				}*/
+				// Disposed or re-targeted, a re-targeted marker is queued again:
+				cancelled = true;
+				_metrics.recordCancelledRender();
+				return;
+			} finally {
+				_renderedIdentifier.remove();
 				
-				// Bigger images first:
-				return (markerSize - thisSize <= 0) ? -1 : 1;
+				// The rendering ends even if it failed, e.g. the page could not
+				// be parsed. Waiting markers that still need a cancelled page
+				// render it themselves:
+				Map<CacheMarker, CacheIdentifier> followers = removePending(cacheIdentifier, pending);
+				if (!completed && !cancelled) {
+					rendered(cacheIdentifier, false);
+				}
+				for (Map.Entry<CacheMarker, CacheIdentifier> follower : followers.entrySet()) {
+					if (cancelled) {
+						follower.getKey().resubmit(follower.getValue());
+					} else {
+						follower.getKey().rendered(follower.getValue(), painted);
+					}
+				}
 			}
-			// Priority images first:
-			return marker.getPriority() - getPriority();
+			if (painted) {
+				_metrics.recordRender(cacheIdentifier.getPageNr(), System.nanoTime() - start);
+			}
+			rendered(cacheIdentifier, painted);
 		}
 		
-		@Override
-		public ImmutableClipping getClipping() {
-			return _clipping;
+		/**
+		 * Notifies the observer and maintains the page, once the page
+		 * identified by the given identifier is cached.
+		 * 
+		 * @param cacheIdentifier The identifier rendered
+		 * @param painted false if the rendering failed
+		 */
+		private void rendered(CacheIdentifier cacheIdentifier, boolean painted) {
+			
+			// A page rendered for a placeholder needs no marker any longer:
+			if (getObserver() == null && _placeholderMarkers.values().remove(this)) {
+				dispose();
+			}
+			
+			boolean outOfMemoryError = false;
+			if(!painted) {
+				if(getObserver() != null) {
+					notifyObserver(CacheEvent.Kind.ERROR);
+					outOfMemoryError = true;
+				}
+			} else {	
+				notifyObserver(CacheEvent.Kind.READY);
+			}
+			
+			synchronized (this) {
+				
+				// Skip if the marker was updated or disposed meanwhile:
+				if (_disposed || cacheIdentifier != _cacheIdentifier) return;
+				
+				// Check whether this rendering was previously of higher priority:
+				if (_priority < 0) {
+					_priority = _basePriority; // Restore previous priority
+				}
+				
+				// Possibly already contained (nice re-rendering), only add new ones:
+				if (!outOfMemoryError) {
+					_markersToMaintain.add(this);
+				}
+			}
 		}
-	}
 		
-	private class CachingThread extends Thread {
-
-		private boolean _stop = false;
+		/**
+		 * Identifies the page by its canonical page, which documents may
+		 * only determine off the event dispatch thread, i.e. by now.
+		 */
+		private void resolveCanonicalPage() {
+			int pageNr;
+			synchronized (this) {
+				pageNr = _pageNr;
+			}
+			int canonicalPage = getCanonicalPage(pageNr);
+			synchronized (this) {
+				if (_disposed || pageNr != _pageNr || canonicalPage == _cacheIdentifier.getPageNr()) return;
+				_cacheIdentifier = new CacheIdentifier(canonicalPage, _clipping);
+			}
+		}
+		
+		/**
+		 * Queues this marker again after the rendering it waited for was
+		 * cancelled, unless it was updated or disposed meanwhile.
+		 */
+		private synchronized void resubmit(CacheIdentifier cacheIdentifier) {
+			if (_disposed || cacheIdentifier != _cacheIdentifier) return;
+			RenderScheduler.getInstance().submit(this);
+		}
 		
 		/**
-		 * Sets marker to stop thread
+		 * Renders the page again after its content changed, unless disposed.
 		 */
-		public void stopMe() {
-			_stop = true;
+		private synchronized void refresh() {
+			if (_disposed) return;
+			update(_pageNr, _clipping, _basePriority, _observer);
 		}
 		
 		/**
-		 * this function caches all elements in the _markersToDo queue
+		 * Notifies the observer, if any, about the visible part of the page.
 		 */
-		private void cache() {
+		private void notifyObserver(CacheEvent.Kind kind) {
+			CacheObserver observer = getObserver();
+			if (observer == null) return;
 			
-			// Add new pages, identified by markers, to the cache:
-			while(_markersToDo!=null && !_markersToDo.isEmpty() && _stop==false) {
-
-				CacheMarker m = _markersToDo.get(0);
-				boolean outOfMemoryError = false;
-				
-				if (!_cache.contains(m.getCacheIdentifier().toString())) {
-					//free mem
-					cleanup();
-					
-					BufferedImage cacheImage = paintImageIntoCache(m.getCacheIdentifier().getPageNr(), m.getCacheIdentifier().getDestination());
-					if(cacheImage==null) {
-						if(m.getObserver() != null) {
-							m.getObserver().notify(m, "img.error");
-							outOfMemoryError = true;
-						}
-					} else {	
-						if (m.getObserver() != null) {
-							m.getObserver().notify(m, "img.ready");
-						}	
-					}
-					// Check whether this rendering was previously of higher priority:
-					if (m._priority < 0) {
-						m._priority += PRIO_MAX + 1; // Restore previous priority
-					}
-				}
-				
-				// Possibly already contained (nice re-rendering), only add new ones:
-				if (!_markersToMaintain.contains(m) && !outOfMemoryError) {
-					_markersToMaintain.add(m);
-				}
-				
-				_markersToDo.remove(m);
-			}
+			ImmutableClipping clipping = getClipping();
+			Rectangle2D area = clipping.getSource().createIntersection(getBounds(_cacheIdentifier.getPageNr()));
+			observer.notify(new CacheEvent(this, kind, area.isEmpty() ? clipping.getSource() : area));
 		}
 		
-		// TODO: Niedrige Prioritäten zuerst rauswerfen!
+		private List<CacheMarker> getFollowers(PendingRender pending) {
+			synchronized (_pendingRenders) {
+				return new ArrayList<CacheMarker>(pending._followers.keySet());
+			}
+		}
 		
 		/**
-		 * This function tries to clean up and free some allocated memory
+		 * Ends the rendering in progress.
+		 * 
+		 * @return The markers that waited for it
 		 */
-		private void cleanup() {
-			int mb100 = 1024*1024*100;
-
-			if (estimateCacheSize() > mb100) {
-				  //System.err.println("more than 100mb per cache!, running cleanup");
-				  HashSet<String> check = new HashSet<String>();
-				  for(CacheMarker m : _markersToMaintain) {
-					  //check.add(m.getCacheIdentifier().toString());
-					  if(isCached(m.getCacheIdentifier())) {
-						  check.add(m.getCacheIdentifier().toString());
-					  } else if(null!=isCachedLargerString(m.getCacheIdentifier().getPageNr(), m.getCacheIdentifier().getDestination())) {
-						  check.add(isCachedLargerString(m.getCacheIdentifier().getPageNr(), m.getCacheIdentifier().getDestination()));
-					  } else {
-						  System.err.println("Document.java: Marker in _markersToMaintain without cache!");
-					  }
-					  //isCachedLarger(pageId, destination)
-				  }
-				  for(String key : _cache.keySet()) {
-					  if(!check.contains(key)){
-						  //System.out.println("Removing:" + key.toString());
-						  if(_cache.get(key)!=null) {
-							  _cache.get(key).flush();
-						  }
-						  _cache.remove(key);
-
-					  }
-				  }
-
-			  }
-			  /*double memRatio = (double) Runtime.getRuntime().totalMemory() / (double)Runtime.getRuntime().maxMemory(); 
-			  if(memRatio > 0.9 || Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() < 10*1024*1024) {
-				  //System.runFinalization();
-				  //System.gc();
-				  System.err.println("Garbage Collection - Memory Low");
-				  //System.gc();
-			  }*/
-			  //System.out.println("After Max " + maxMemory + " allocated " + allocatedMemory + " free " + freeMemory); 
-		}
-		
-		/** 
-		 * main thread functions, Executes cleanup and caching
+		private Map<CacheMarker, CacheIdentifier> removePending(CacheIdentifier cacheIdentifier, PendingRender pending) {
+			synchronized (_pendingRenders) {
+				_pendingRenders.remove(cacheIdentifier);
+				return new LinkedHashMap<CacheMarker, CacheIdentifier>(pending._followers);
+			}
+		}
+		
+		/**
+		 * A rendering is cancelled if this marker is disposed or now
+		 * identifies another page or dimension than the calling worker
+		 * renders.
 		 */
-		public void run() {
-			cleanup();
-			cache();
+		@Override
+		public boolean isCancelled() {
+			CacheIdentifier renderedIdentifier = _renderedIdentifier.get();
+			return _disposed || (renderedIdentifier != null && !renderedIdentifier.isSameImage(_cacheIdentifier));
+		}
+		
+		@Override
+		public ImmutableClipping getClipping() {
+			return _clipping;
 		}
 	}
-	
+		
 	/**
 	 * Generates a cache entry for this document for the given page and the
 	 * given clipping.
@@ -383,16 +607,28 @@ public abstract class Document {
 	 * @return
 	 */
 	public DocumentCacheEntry cache(int pageNr, Clipping clipping, int priority, CacheObserver observer) {
+		if (!_metricsRegistered) {
+			_metricsRegistered = true;
+			_metrics.register(getTitle() + " #" + Integer.toHexString(System.identityHashCode(this)));
+		}
 		return new CacheMarker(pageNr, clipping, priority, observer);
 	}
 	
+	/**
+	 * @return The cache and render metrics of this document, registered as
+	 * MBean once the document is cached
+	 */
+	public RenderMetrics getMetrics() {
+		return _metrics;
+	}
+	
 	/**
 	 * @param pageNr the requested page number
 	 * @param clipping the source clipping region to render
 	 * @return true if requested page is cached
 	 */
 	public boolean isCached(int pageNr, Clipping clipping) {
-		CacheIdentifier cacheId = new CacheIdentifier(pageNr, calcDestination(pageNr, clipping));
+		CacheIdentifier cacheId = new CacheIdentifier(getCanonicalPage(pageNr), clipping);
 		return isCached(cacheId);
 	}
 	
@@ -430,44 +666,222 @@ public abstract class Document {
 	 * @param clipping
 	 */
 	public final void paint(Graphics2D g2d, int pageNr, Clipping clipping) {
+		boolean edt = SwingUtilities.isEventDispatchThread();
+		long start = System.nanoTime();
 		AffineTransform originalTransform = g2d.getTransform();
+		if (edt) _placeholderPainted = false;
 		
+		pageNr = getCanonicalPage(pageNr);
 		Rectangle destination = calcDestination(pageNr, clipping);
-		CacheIdentifier cacheId = new CacheIdentifier(pageNr, destination);
-		//System.out.println(cacheId.toString());
+		Rectangle tiles = calcTiles(destination, clipping);
+		if (tiles != null) {
+			paintTiles(g2d, pageNr, clipping, destination, tiles);
+		} else {
+			paintPage(g2d, pageNr, clipping, destination);
+		}
+		
+		g2d.setTransform(originalTransform);
+		if (edt) {
+			long end = System.nanoTime();
+			_metrics.recordEdtPaint(end - start);
+			
+			// A placeholder is not the page yet:
+			if (!_placeholderPainted) _metrics.recordFirstPaint(end - _openedNanos);
+		}
+	}
+	
+	/**
+	 * In strict painting mode, pages are never rendered on the event dispatch
+	 * thread: {@link #paint(Graphics2D, int, Clipping) paint(...)} only draws
+	 * cached rasters there, or a placeholder if none is cached. Rendering is
+	 * left to the render workers, so documents that are fast to render are
+	 * cached as well.
+	 * 
+	 * @param strictPainting
+	 */
+	public static void setStrictPainting(boolean strictPainting) {
+		_strictPainting = strictPainting;
+	}
+	
+	/**
+	 * @see #setStrictPainting(boolean)
+	 */
+	public static boolean isStrictPainting() {
+		return _strictPainting;
+	}
+	
+	/**
+	 * In delta rendering mode, a page that differs from a cached neighbour
+	 * in a small area only, e.g. the next step of an overlay sequence, is
+	 * rendered by painting that area on top of a copy of the neighbour's
+	 * raster. It is then cached as a patch of the neighbour's raster. Takes
+	 * effect for documents that know the changed area, see {@link
+	 * #getChangedArea(int, int)}; PDF documents only with display lists
+	 * enabled. Off by default.
+	 * 
+	 * @param deltaRendering
+	 */
+	public static void setDeltaRendering(boolean deltaRendering) {
+		_deltaRendering = deltaRendering;
+	}
+	
+	/**
+	 * @see #setDeltaRendering(boolean)
+	 */
+	public static boolean isDeltaRendering() {
+		return _deltaRendering;
+	}
+	
+	/**
+	 * Paints a page that is not cached at all: Renders it immediately, or
+	 * paints a placeholder on the event dispatch thread in strict painting
+	 * mode. The page is then rendered in the background, in case no cache
+	 * entry requested it, by a marker per page and size.
+	 */
+	private void paintUncached(Graphics2D g2d, int pageNr, Clipping clipping) {
+		if (_strictPainting && SwingUtilities.isEventDispatchThread()) {
+			_metrics.recordPlaceholder();
+			_placeholderPainted = true;
+			g2d.setPaint(PLACEHOLDER_COLOR);
+			g2d.fill(getBounds(pageNr));
+			
+			// Already rendered or queued pages are not rendered again:
+			CacheIdentifier cacheId = new CacheIdentifier(pageNr, clipping);
+			CacheMarker marker = _placeholderMarkers.get(cacheId);
+			if (marker == null) {
+				_placeholderMarkers.put(cacheId, new CacheMarker(pageNr, clipping, PRIO_MAIN, null));
+			} else {
+				marker.update(pageNr, clipping, PRIO_MAIN, null);
+			}
+		} else {
+			paintContent(g2d, pageNr, clipping);
+		}
+	}
+	
+	/**
+	 * Paints the visible tiles of a zoomed page. Missing tiles are painted
+	 * like an uncached page beforehand.
+	 */
+	private void paintTiles(Graphics2D g2d, int pageNr, Clipping clipping, Rectangle destination, Rectangle tiles) {
+		CachedTile[] cachedTiles = new CachedTile[tiles.width * tiles.height];
+		boolean complete = true;
+		for (int y = 0; y < tiles.height; y++) {
+			for (int x = 0; x < tiles.width; x++) {
+				CachedTile tile = _tiles.get(pageNr, destination.width, destination.height, tiles.x + x, tiles.y + y);
+				cachedTiles[y * tiles.width + x] = tile;
+				if (tile == null) complete = false;
+			}
+		}
+		
+		if (complete) {
+			_metrics.recordExactHit();
+		} else {
+			
+			// Prefer a blurry page to rendering on the calling thread:
+			CachedRaster cachedRaster = _cache.getLarger(pageNr, destination.width, destination.height);
+			if (cachedRaster != null) {
+				_metrics.recordLargerHit();
+			} else {
+				_metrics.recordMiss();
+				cachedRaster = getLargestRaster(pageNr);
+			}
+			AffineTransform transform = g2d.getTransform();
+			if (cachedRaster != null) {
+				paintScaled(g2d, pageNr, clipping, cachedRaster);
+			} else {
+				paintUncached(g2d, pageNr, clipping);
+			}
+			g2d.setTransform(transform);
+		}
 		
-		BufferedImage cachedPage;
-		if (isCached(cacheId)) {
+		// Tile (0, 0) starts at the upper left corner of the page:
+		g2d.transform(clipping.getInverseTransform());
+		for (CachedTile tile : cachedTiles) {
+			if (tile == null) continue;
+			tile.touch();
+			int tileX = destination.x + tile.getTileX() * TILE_SIZE;
+			int tileY = destination.y + tile.getTileY() * TILE_SIZE;
+			tile.draw(g2d, tileX, tileY, tileX + tile.getWidth(), tileY + tile.getHeight(),
+					0, 0, tile.getWidth(), tile.getHeight());
+		}
+	}
+	
+	/**
+	 * @return The widest cached raster of the page or null
+	 */
+	private CachedRaster getLargestRaster(int pageNr) {
+		List<CachedRaster> rasters = _cache.getPage(pageNr);
+		return rasters.isEmpty() ? null : rasters.get(rasters.size() - 1);
+	}
+	
+	/**
+	 * Paints a page from the best cached raster or, if there is none,
+	 * immediately.
+	 */
+	private void paintPage(Graphics2D g2d, int pageNr, Clipping clipping, Rectangle destination) {
+		CachedRaster cachedRaster = _cache.get(pageNr, destination.width, destination.height);
+		AffineTransform transform = g2d.getTransform();
+		if (cachedRaster != null) {
 			
 			// Page is cached with exact dimensions!
 			// Paint cached image:
-			cachedPage = _cache.get(cacheId.toString());
+			cachedRaster.touch();
 			
 			// Transform (upper-left slide corner at (0, 0), width / height = slide.width / slide.height):
 			g2d.transform(clipping.getInverseTransform());//setTransform(new AffineTransform());
 			
-			int x = (int)(clipping.getSource().getX()/getBounds(pageNr).getWidth()*cachedPage.getWidth());
-			int y = (int)(clipping.getSource().getY()/getBounds(pageNr).getHeight()*cachedPage.getHeight());
-			int w = (int)(clipping.getSource().getWidth()/getBounds(pageNr).getWidth()*cachedPage.getWidth());
-			int h = (int)(clipping.getSource().getHeight()/getBounds(pageNr).getHeight()*cachedPage.getHeight());
+			int x = (int)(clipping.getSource().getX()/getBounds(pageNr).getWidth()*cachedRaster.getWidth());
+			int y = (int)(clipping.getSource().getY()/getBounds(pageNr).getHeight()*cachedRaster.getHeight());
+			int w = (int)(clipping.getSource().getWidth()/getBounds(pageNr).getWidth()*cachedRaster.getWidth());
+			int h = (int)(clipping.getSource().getHeight()/getBounds(pageNr).getHeight()*cachedRaster.getHeight());
 			
 			g2d.translate((int)clipping.getDestination().getX(), (int)clipping.getDestination().getY());
-			g2d.drawImage(cachedPage, 0, 0, (int)clipping.getDestination().getWidth(),(int)clipping.getDestination().getHeight(), x, y, x+w, y+h, null);
+			if (cachedRaster.draw(g2d, 0, 0, (int)clipping.getDestination().getWidth(),(int)clipping.getDestination().getHeight(), x, y, x+w, y+h)) {
+				_metrics.recordExactHit();
+				return;
+			}
 			
+			// Evicted meanwhile:
+			g2d.setTransform(transform);
+		}
+		
+		cachedRaster = _cache.getLarger(pageNr, destination.width, destination.height);
+		
+		if (cachedRaster != null) {
+			_metrics.recordLargerHit();
 		} else {
-			cachedPage = isCachedLarger(pageNr, destination);
+			_metrics.recordMiss();
 			
-			if (cachedPage != null) { 
-				// Page is cached with bigger dimensions!
-				// Paint cached image:
-				// Transform (upper-left slide corner at (0, 0), width / height = slide.width / slide.height):
-				g2d.transform(clipping.getInverseTransform());
-				//g2d.setTransform(new AffineTransform());
-				
-				int x =(int)((double) clipping.getSource().getX()/getBounds(pageNr).getWidth()*cachedPage.getWidth());
-				int y =(int)((double) clipping.getSource().getY()/getBounds(pageNr).getHeight()*cachedPage.getHeight());
-				int w =(int)((double) clipping.getSource().getWidth()/getBounds(pageNr).getWidth()*cachedPage.getWidth());
-				int h =(int)((double) clipping.getSource().getHeight()/getBounds(pageNr).getHeight()*cachedPage.getHeight());
+			// Upscale a preview, if any:
+			cachedRaster = getLargestRaster(pageNr);
+		}
+		
+		if (cachedRaster != null) { 
+			paintScaled(g2d, pageNr, clipping, cachedRaster);
+		} else {
+			// Page not cached, paint immediately (no caching):
+			paintUncached(g2d, pageNr, clipping);
+		}
+	}
+	
+	/**
+	 * Paints the clipped part of a page from a cached raster of another size.
+	 */
+	private void paintScaled(Graphics2D g2d, int pageNr, Clipping clipping, CachedRaster cachedRaster) {
+		cachedRaster.touch();
+		AffineTransform transform = g2d.getTransform();
+		int width = cachedRaster.getWidth();
+		int height = cachedRaster.getHeight();
+		
+		// Paint cached image scaled:
+		// Transform (upper-left slide corner at (0, 0), width / height = slide.width / slide.height):
+		g2d.transform(clipping.getInverseTransform());
+		//g2d.setTransform(new AffineTransform());
+		
+		int x =(int)((double) clipping.getSource().getX()/getBounds(pageNr).getWidth()*width);
+		int y =(int)((double) clipping.getSource().getY()/getBounds(pageNr).getHeight()*height);
+		int w =(int)((double) clipping.getSource().getWidth()/getBounds(pageNr).getWidth()*width);
+		int h =(int)((double) clipping.getSource().getHeight()/getBounds(pageNr).getHeight()*height);
 
 //				System.out.println("clipping.X" + clipping.getSource().getX() + " page.width " + getBounds(pageNr).getWidth());
 //				System.out.println("x " + x  + " cachedPage.width " + cachedPage.getWidth());
@@ -478,59 +892,197 @@ public abstract class Document {
 //				System.out.println("cachedPage.w " + cachedPage.getWidth() + " w " + w + " clipping.w " + clipping.getSource().getWidth());
 //				System.out.println("cachedPage.h " + cachedPage.getHeight() +" h " + h + " clipping.h " + clipping.getSource().getHeight());
 //				
-				if (x<0) {
-					x=0;
-				}
-				if (y<0) {
-					y=0;
-				}
-				if (x >= cachedPage.getWidth()) {
-					x = cachedPage.getWidth() - 1;
-				}
-				if (y >= cachedPage.getHeight()) {
-					y = cachedPage.getHeight() - 1;
-				}
-				if (w+x > cachedPage.getWidth()) { 
-					w = cachedPage.getWidth() - x;
-				}
-				if (h+y > cachedPage.getHeight()) {
-					h = cachedPage.getHeight() - y;
-				}
-				
-				//g2d.translate(clipping.getDestination().getX(), clipping.getDestination().getY());
+		if (x<0) {
+			x=0;
+		}
+		if (y<0) {
+			y=0;
+		}
+		if (x >= width) {
+			x = width - 1;
+		}
+		if (y >= height) {
+			y = height - 1;
+		}
+		if (w+x > width) { 
+			w = width - x;
+		}
+		if (h+y > height) {
+			h = height - y;
+		}
+		
+		//g2d.translate(clipping.getDestination().getX(), clipping.getDestination().getY());
 //				BufferedImage temp = new BufferedImage((int)clipping.getDestination().getWidth(), (int)clipping.getDestination().getHeight(), BufferedImage.TYPE_INT_RGB);
 //				temp.getGraphics().drawImage(cachedPage, x,y,x+w,y+w,null);
 //				
-				g2d.translate(clipping.getDestination().getX(), clipping.getDestination().getY());
-				g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-				g2d.drawImage(cachedPage, 0, 0, (int)clipping.getDestination().getWidth(), (int)clipping.getDestination().getHeight() , x, y, x+w, y+h, null);
-				g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-				
-			} else {
-				// Page not cached, paint immediately (no caching):
-				paintContent(g2d, pageNr, clipping);
-			}		
+		g2d.translate(clipping.getDestination().getX(), clipping.getDestination().getY());
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		boolean drawn = cachedRaster.draw(g2d, 0, 0, (int)clipping.getDestination().getWidth(), (int)clipping.getDestination().getHeight() , x, y, x+w, y+h);
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		if (!drawn) {
+			
+			// Evicted meanwhile:
+			g2d.setTransform(transform);
+			paintUncached(g2d, pageNr, clipping);
 		}
-		
-		g2d.setTransform(originalTransform);
 	}
 	
 	/**
 	 * Releases resources hold by this document.
 	 */
 	public void dispose() {
-		if(_thread!=null && _thread.isAlive()) {
-			_thread.stopMe();
-		}
-		if (_markersToDo != null) {
-			_markersToDo.clear();
-		}
+		RenderScheduler.getInstance().cancelAll(this);
+		_placeholderMarkers.clear();
 		if (_markersToMaintain != null) {
 			_markersToMaintain.clear();
 		}
 		if (_cache != null) {
+			for (CachedRaster raster : _cache.getAll()) {
+				raster.release();
+			}
 			_cache.clear();
 		}
+		if (_tiles != null) {
+			for (CachedTile tile : _tiles.getAll()) {
+				tile.release();
+			}
+			_tiles.clear();
+		}
+		CompressedRasterCache.getInstance().removeAll(this);
+		RasterCache.getInstance().unregister(this);
+		_metrics.unregister();
+	}
+	
+	/**
+	 * Drops the rendered rasters of pages whose content changed, e.g. after
+	 * the file was reloaded, and renders the maintained pages again. Pages
+	 * being rendered meanwhile are rendered again once done.
+	 * 
+	 * @param pages The changed pages, including pages that no longer exist
+	 */
+	protected void pagesChanged(Set<Integer> pages) {
+		if (pages.isEmpty()) return;
+		_generation.incrementAndGet();
+		
+		// Pages patched onto a changed page are rendered again as well:
+		Set<Integer> dropped = new HashSet<Integer>(pages);
+		for (CachedRaster raster : _cache.getAll()) {
+			if (raster instanceof PatchedRaster && pages.contains(((PatchedRaster) raster).getBase().getPageNr())) {
+				dropped.add(raster.getPageNr());
+			}
+		}
+		
+		for (CachedRaster raster : _cache.getAll()) {
+			if (dropped.contains(raster.getPageNr()) && _cache.remove(raster)) {
+				raster.release();
+			}
+		}
+		for (CachedTile tile : _tiles.getAll()) {
+			if (pages.contains(tile.getPageNr()) && _tiles.remove(tile)) {
+				tile.release();
+			}
+		}
+		CompressedRasterCache.getInstance().removePages(this, pages);
+		
+		for (CacheMarker marker : _markersToMaintain) {
+			int pageNr = marker._pageNr;
+			if (!dropped.contains(pageNr) && !dropped.contains(marker.getCacheIdentifier().getPageNr())) continue;
+			if (pageNr < getNumberOfPages()) {
+				marker.refresh();
+			} else {
+				_markersToMaintain.remove(marker);
+			}
+		}
+	}
+	
+	/**
+	 * Paints the page content, again if the content changed meanwhile (see
+	 * {@link #pagesChanged(Set)}).
+	 * 
+	 * @return false if the content changed meanwhile and the page no longer
+	 * exists
+	 */
+	private boolean paintCurrentContent(Graphics2D g2d, int pageNr, Clipping clipping) {
+		int generation;
+		do {
+			generation = _generation.get();
+			if (pageNr >= getNumberOfPages()) return false;
+			paintContent(g2d, pageNr, clipping);
+		} while (generation != _generation.get());
+		return true;
+	}
+	
+	/**
+	 * @param pageNr
+	 * @param width Width of the view the whole page is fit into, e.g. a screen
+	 * @param height Height of the view
+	 * @return The size in pixels the page is cached at when shown in the
+	 * view, i.e. the size to {@link #renderPage(int, int, int, boolean)} it
+	 * at so the disk cache serves it later
+	 */
+	public Dimension getPixelSize(int pageNr, int width, int height) {
+		if (width <= 0 || height <= 0) throw new IllegalArgumentException("Illegal size: " + width + "x" + height);
+		
+		Rectangle2D bounds = getBounds(pageNr);
+		try {
+			Rectangle pixels = calcDestination(pageNr, new Clipping(bounds, Clipping.createDestination(bounds, width, height)));
+			return new Dimension(Math.max(1, pixels.width), Math.max(1, pixels.height));
+		} catch (NoninvertibleTransformException e) {
+			throw new IllegalArgumentException("Illegal size: " + width + "x" + height);
+		}
+	}
+	
+	/**
+	 * Renders a page into a new image, bypassing the in-memory caches, e.g.
+	 * to export it. May be called by several threads at once, pages of
+	 * documents not supporting concurrent rendering are rendered one after
+	 * another.
+	 * 
+	 * @param pageNr
+	 * @param width Width of the image in pixels
+	 * @param height Height of the image in pixels
+	 * @param diskCache True to look the page up in the {@link
+	 * DiskRasterCache} first and store it there once rendered, so later
+	 * sessions find it
+	 * @return The rendered page
+	 */
+	public BufferedImage renderPage(int pageNr, int width, int height, boolean diskCache) {
+		if (width <= 0 || height <= 0) throw new IllegalArgumentException("Illegal size: " + width + "x" + height);
+		
+		pageNr = getCanonicalPage(pageNr);
+		String fingerprint = diskCache ? getFingerprint() : null;
+		if (fingerprint != null) {
+			BufferedImage stored = DiskRasterCache.getInstance().load(fingerprint, pageNr, width, height);
+			if (stored != null) return stored;
+		}
+		
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = img.createGraphics();
+		try {
+			Clipping clipping = new Clipping(getBounds(pageNr), new Rectangle(0, 0, width, height));
+			g2d.setTransform(clipping.getTransform());
+			if (isConcurrentRenderingSupported()) {
+				paintContent(g2d, pageNr, clipping);
+			} else {
+				synchronized (_renderPageLock) {
+					paintContent(g2d, pageNr, clipping);
+				}
+			}
+		} catch (NoninvertibleTransformException e) {
+			// Never happens given getBounds(pageNr) has dimensions > 0.
+			e.printStackTrace();
+		} finally {
+			g2d.dispose();
+		}
+		
+		if (fingerprint != null) {
+			try {
+				DiskRasterCache.getInstance().storeWaiting(fingerprint, pageNr, img);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return img;
 	}
 	
 	/**
@@ -542,6 +1094,82 @@ public abstract class Document {
 	 */
 	protected abstract void paintContent(Graphics2D g2d, int pageNr, Clipping clipping);
 	
+	/**
+	 * @return The page last requested for display at main priority (see
+	 * {@link #PRIO_MAIN}), i.e. the page presented, or -1
+	 */
+	protected int getFocusPage() {
+		return _focusPage;
+	}
+	
+	/**
+	 * Pages with identical content share their rasters and renderings. The
+	 * rasters of a page are cached, and the page is rendered, as its
+	 * canonical page. Documents may return the page itself on the event
+	 * dispatch thread until a render worker determined its canonical page.
+	 * 
+	 * @param pageNr
+	 * @return The page with the same content that represents the page in the
+	 * caches, the page itself by default
+	 */
+	protected int getCanonicalPage(int pageNr) {
+		return pageNr;
+	}
+	
+	/**
+	 * Determines where two pages of the same bounds differ, for delta
+	 * rendering (see {@link #setDeltaRendering(boolean)}). Documents
+	 * returning an area must respect the clip of the Graphics2D in {@link
+	 * #paintContent(Graphics2D, int, Clipping) paintContent(...)}, including
+	 * the page background.
+	 * 
+	 * @param pageNr
+	 * @param basePageNr
+	 * @return The area of the page that differs from the base page in page
+	 * coordinates, empty if the pages look the same, or null if unknown
+	 * (default)
+	 */
+	protected Rectangle2D getChangedArea(int pageNr, int basePageNr) {
+		return null;
+	}
+	
+	/**
+	 * @return true if {@link #paintContent(Graphics2D, int, Clipping)} may be
+	 * called by several render workers at the same time. False by default,
+	 * pages of this document are then rendered one after another.
+	 */
+	protected boolean isConcurrentRenderingSupported() {
+		return false;
+	}
+	
+	/**
+	 * Identifies the content of this document across sessions. Pages of
+	 * documents with a fingerprint are stored in the {@link DiskRasterCache}
+	 * once rendered.
+	 * 
+	 * @return A fingerprint of the document content or null, if pages of this
+	 * document should not be stored on disk (default)
+	 */
+	protected String getFingerprint() {
+		return null;
+	}
+	
+	/**
+	 * Aborts the rendering of a page that is no longer needed, e.g. because
+	 * the presenter skipped the slide. Implementations of {@link
+	 * #paintContent(Graphics2D, int, Clipping) paintContent(...)} that take
+	 * long should call this regularly. Does nothing if not called by a
+	 * render worker.
+	 * 
+	 * @throws RenderCancelledException if the rendering has been cancelled
+	 */
+	protected static void checkCancelled() {
+		RenderJob job = RenderScheduler.getCurrentJob();
+		if (job != null && job.isCancelled()) {
+			throw new RenderCancelledException();
+		}
+	}
+	
 	
 	/**
 	 * checks if the requested pair (pageNr, clipping) is cached 
@@ -550,7 +1178,16 @@ public abstract class Document {
 	 * @return true if requested page, identified by cachId is cacheds
 	 */
 	protected boolean isCached(CacheIdentifier cacheId) {
-		return _cache.containsKey(cacheId.toString());
+		Rectangle tiles = cacheId.getTiles();
+		if (tiles == null) {
+			return _cache.get(cacheId.getPageNr(), cacheId.getWidth(), cacheId.getHeight()) != null;
+		}
+		for (int y = tiles.y; y < tiles.y + tiles.height; y++) {
+			for (int x = tiles.x; x < tiles.x + tiles.width; x++) {
+				if (_tiles.get(cacheId.getPageNr(), cacheId.getWidth(), cacheId.getHeight(), x, y) == null) return false;
+			}
+		}
+		return true;
 	}
 	
 	/**
@@ -561,83 +1198,181 @@ public abstract class Document {
 	 * @return true if requested page is cached in larger resolution
 	 */
 	protected BufferedImage isCachedLarger(int pageId, Rectangle2D destination) {
-		for(String k : _cache.keySet()) {
-			int i = k.indexOf('d');
-			int iPage = Integer.parseInt((k.substring(1, i)));
-			if (iPage == pageId) {
-				if (destination.getWidth() <= _cache.get(k).getWidth() && 
-					destination.getHeight() <= _cache.get(k).getHeight()) {
-					return _cache.get(k);
-				}
-			}
-		}
-		return null;
+		CachedRaster raster = _cache.getLarger(pageId, (int) Math.ceil(destination.getWidth()), (int) Math.ceil(destination.getHeight()));
+		return (raster != null) ? raster.copyImage() : null;
 	}
 	
 	/**
-	 * checks if requested page is cached in any larger resolution
-	 * 
-	 * @param pageId the requested page number
-	 * @param destination the requested output resolution
-	 * @return true if requested page is cached in larger resolution
+	 * Like {@link #isCachedLarger(int, Rectangle2D)}, without copying an
+	 * off-heap raster.
 	 */
-	protected String isCachedLargerString(int pageId, Rectangle2D destination) {
-		for(String k : _cache.keySet()) {
-			int i = k.indexOf('d');
-			int iPage = Integer.parseInt((k.substring(1, i)));
-			if (iPage == pageId) {
-				if (destination.getWidth() <= _cache.get(k).getWidth() && 
-					destination.getHeight() <= _cache.get(k).getHeight()) {
-					return k;
-				}
-			}
-		}
-		return null;
+	private boolean isCachedLarger(CacheIdentifier cacheId) {
+		return _cache.getLarger(cacheId.getPageNr(), cacheId.getWidth(), cacheId.getHeight()) != null;
 	}
+	
 	/**
 	 * this function provides a linkedlist with all cached images to a given page number
 	 * 
 	 * @param pageId the requested page number
-	 * @return LinkedList of images
+	 * @return LinkedList of images, smallest first
 	 */
 	protected LinkedList<BufferedImage> getCachedPages(int pageId) {
 		LinkedList<BufferedImage> b = new LinkedList<BufferedImage>();
-		for(String k : _cache.keySet()) {
-			int i = k.indexOf('d');
-			int iPage = Integer.parseInt((k.substring(1, i)));
-			if(iPage == pageId) {
-				b.add( _cache.get(k));
-			}
+		for(CachedRaster raster : _cache.getPage(pageId)) {
+			BufferedImage image = raster.copyImage();
+			if (image != null) b.add(image);
 		}
 		return b;
 	}
 
 	/**
-	 * Will start the thread, if thread is not running
+	 * Estimates the size of all cached pages in bytes.
+	 * 
+	 * @return Estimated size in bytes
 	 */
-	private void runThread() {
-		if(_thread == null || !_thread.isAlive()) {
-			_thread = new CachingThread();
-			_thread.setPriority(Thread.MIN_PRIORITY);
-			_thread.start();
+	long estimateCacheSize() {
+		long result = 0;
+		for(CachedRaster raster : getCachedRasters()) {
+			result += raster.getBytes();
 		}
+		return result;
 	}
-
+	
 	/**
-	 * Estimates the size of all cached pages in bytes.
-	 * 
-	 * @return Estimated size in bytes
+	 * @return The number of bytes that identical pages, cached separately,
+	 * would occupy in addition
 	 */
-	private int estimateCacheSize() {
-		int result = 0;
-		for(String key : _cache.keySet()) {
-			BufferedImage cachedPage = _cache.get(key);
-			int bpp = DataBuffer.getDataTypeSize(cachedPage.getRaster().getDataBuffer().getDataType());
-			result += (cachedPage.getWidth() * cachedPage.getHeight()) * bpp / 8; 
+	long estimateDeduplicatedBytes() {
+		Set<String> counted = new HashSet<String>();
+		long result = 0;
+		for (CacheMarker marker : _markersToMaintain) {
+			CacheIdentifier cacheIdentifier = marker.getCacheIdentifier();
+			if (!marker.isDeduplicated() || !isCached(cacheIdentifier)) continue;
+			if (counted.add(marker._pageNr + " " + cacheIdentifier.getWidth() + "x" + cacheIdentifier.getHeight())) {
+				result += 4 * cacheIdentifier.getPixelCount();
+			}
 		}
 		return result;
 	}
 	
+	/**
+	 * @return The number of bytes that pages cached as patches of their
+	 * neighbours would occupy in addition, if cached in full
+	 */
+	long estimatePatchedBytes() {
+		long result = 0;
+		for (CachedRaster raster : _cache.getAll()) {
+			if (raster instanceof PatchedRaster) result += ((PatchedRaster) raster).getSavedBytes();
+		}
+		return result;
+	}
+	
+	/**
+	 * @return A snapshot of all cached pages and tiles
+	 */
+	List<CachedRaster> getCachedRasters() {
+		List<CachedRaster> result = new ArrayList<CachedRaster>(_cache.size() + _tiles.size());
+		result.addAll(_cache.getAll());
+		result.addAll(_tiles.getAll());
+		return result;
+	}
+	
+	/**
+	 * Collects the rasters the maintained markers of this document refer to,
+	 * i.e. their exact or larger raster or their visible tiles.
+	 * 
+	 * @param displayed receives rasters referred to by displayed markers
+	 * @param priorities receives the highest priority of the markers
+	 * referring to each raster
+	 */
+	void collectReferencedRasters(Set<CachedRaster> displayed, Map<CachedRaster, Integer> priorities) {
+		for(CacheMarker m : _markersToMaintain) {
+			CacheIdentifier id = m.getCacheIdentifier();
+			Rectangle tiles = id.getTiles();
+			if (tiles != null) {
+				for (int y = tiles.y; y < tiles.y + tiles.height; y++) {
+					for (int x = tiles.x; x < tiles.x + tiles.width; x++) {
+						CachedTile tile = _tiles.get(id.getPageNr(), id.getWidth(), id.getHeight(), x, y);
+						if (tile != null) addReferencedRaster(tile, m, displayed, priorities);
+					}
+				}
+				continue;
+			}
+			
+			CachedRaster raster = _cache.get(id.getPageNr(), id.getWidth(), id.getHeight());
+			if (raster == null) {
+				raster = _cache.getLarger(id.getPageNr(), id.getWidth(), id.getHeight());
+			}
+			if (raster != null) addReferencedRaster(raster, m, displayed, priorities);
+		}
+	}
+	
+	private static void addReferencedRaster(CachedRaster raster, CacheMarker m, Set<CachedRaster> displayed, Map<CachedRaster, Integer> priorities) {
+		if (m.isDisplayed()) {
+			displayed.add(raster);
+		}
+		Integer priority = priorities.get(raster);
+		if (priority == null || priority < m.getBasePriority()) {
+			priorities.put(raster, m.getBasePriority());
+		}
+	}
+	
+	/**
+	 * Removes the given raster from the cache and releases its memory.
+	 * 
+	 * @param raster
+	 * @param compress true to keep a page in the {@link CompressedRasterCache}
+	 * @return true if the raster was cached
+	 */
+	boolean evict(CachedRaster raster, boolean compress) {
+		List<CachedRaster> removed = detach(raster);
+		release(removed, compress);
+		return !removed.isEmpty();
+	}
+	
+	/**
+	 * Removes the given raster from the cache, without releasing its memory
+	 * yet. See {@link #release(List, boolean)}.
+	 * 
+	 * @param raster
+	 * @return The raster and the patches based on it, empty if the raster
+	 * was not cached
+	 */
+	List<CachedRaster> detach(CachedRaster raster) {
+		List<CachedRaster> removed = new ArrayList<CachedRaster>();
+		if ((raster instanceof CachedTile) ? _tiles.remove((CachedTile) raster) : _cache.remove(raster)) {
+			removed.add(raster);
+			_metrics.recordEviction();
+			
+			// Patches can't outlive the raster they are based on:
+			for (CachedRaster patched : _cache.getAll()) {
+				if (patched instanceof PatchedRaster && ((PatchedRaster) patched).getBase() == raster) {
+					removed.addAll(detach(patched));
+				}
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Releases the memory of detached rasters.
+	 * 
+	 * @param rasters See {@link #detach(CachedRaster)}
+	 * @param compress true to keep the pages in the {@link CompressedRasterCache}
+	 */
+	void release(List<CachedRaster> rasters, boolean compress) {
+		
+		// Patches are composed from their base, compress all first:
+		if (compress) {
+			for (CachedRaster raster : rasters) {
+				CompressedRasterCache.getInstance().put(this, raster);
+			}
+		}
+		for (CachedRaster raster : rasters) {
+			raster.release();
+		}
+	}
+	
 	/**
 	 * calcs the required output resolution(destination) for a give pair of page number and clipping
 	 * 
@@ -650,7 +1385,139 @@ public abstract class Document {
 		return new Rectangle((int) bounds.getX(), (int) bounds.getY(), (int) bounds.getWidth(), (int) bounds.getHeight());
 	}
 	
-	private BufferedImage paintImageIntoCache(int pageNr, Rectangle destination) {
+	/**
+	 * Determines the tiles of the zoomed page that are visible through the
+	 * clipping.
+	 * 
+	 * @param destination the zoomed page, see {@link #calcDestination(int, Clipping)}
+	 * @param clipping
+	 * @return The visible tiles (in tile units) or null, if the page is not
+	 * zoomed far enough to be tiled
+	 */
+	private static Rectangle calcTiles(Rectangle destination, Clipping clipping) {
+		Rectangle visible = clipping.getDestination();
+		if ((long) destination.width * destination.height <= (long) TILING_FACTOR * visible.width * visible.height) {
+			return null;
+		}
+		
+		// Visible part in page pixels:
+		visible.translate(-destination.x, -destination.y);
+		visible = visible.intersection(new Rectangle(0, 0, destination.width, destination.height));
+		if (visible.isEmpty()) return new Rectangle();
+		
+		int x = visible.x / TILE_SIZE;
+		int y = visible.y / TILE_SIZE;
+		return new Rectangle(x, y, (visible.x + visible.width - 1) / TILE_SIZE - x + 1, (visible.y + visible.height - 1) / TILE_SIZE - y + 1);
+	}
+	
+	/**
+	 * Determines the size of a preview of the page, rendered before the page
+	 * itself. Only pages without any cached raster get a preview, and only if
+	 * displayed or due next. Thumbnails are small already and don't, neither
+	 * do pages precached ahead.
+	 * 
+	 * @param cacheId
+	 * @param priority
+	 * @param displayed true if a view observes the page
+	 * @return The size of the whole page preview or null, if no preview is
+	 * needed
+	 */
+	private Rectangle calcPreview(CacheIdentifier cacheId, int priority, boolean displayed) {
+		if (priority <= PRIO_THUMBNAIL) return null;
+		if (!displayed && priority < PRIO_MAIN) return null;
+		if (getLargestRaster(cacheId.getPageNr()) != null) return null;
+		
+		double scale = PREVIEW_SCALE;
+		if (cacheId.getTiles() != null) {
+			
+			// Scale the zoomed page down to about the visible area:
+			scale *= Math.sqrt(cacheId.getPixelCount() / ((double) cacheId.getWidth() * cacheId.getHeight()));
+		}
+		int width = (int) (cacheId.getWidth() * scale);
+		int height = (int) (cacheId.getHeight() * scale);
+		if (width < MIN_PREVIEW_WIDTH || height < 1) return null;
+		return new Rectangle(0, 0, width, height);
+	}
+	
+	/**
+	 * Renders the missing tiles of the given range in one pass and adds them
+	 * to the cache.
+	 * 
+	 * @return false if out of memory
+	 */
+	private boolean paintTilesIntoCache(int pageNr, Rectangle destination, Rectangle tiles, int priority) {
+		
+		// Bounding box of the missing tiles, in page pixels:
+		Rectangle missing = null;
+		for (int y = tiles.y; y < tiles.y + tiles.height; y++) {
+			for (int x = tiles.x; x < tiles.x + tiles.width; x++) {
+				if (_tiles.get(pageNr, destination.width, destination.height, x, y) == null) {
+					Rectangle bounds = calcTileBounds(destination, x, y);
+					missing = (missing == null) ? bounds : missing.union(bounds);
+				}
+			}
+		}
+		if (missing == null) return true;
+		
+		// The tiles are cut from a temporary image of the same size:
+		RasterCache.getInstance().ensureCapacity(8L * missing.width * missing.height);
+		BufferedImage img = allocateImage(missing);
+		if (img == null) return false;
+		
+		Graphics2D g2d = (Graphics2D) img.createGraphics();
+		try {
+			Clipping clipping = new Clipping(getBounds(pageNr), new Rectangle(-missing.x, -missing.y, destination.width, destination.height));
+			g2d.setTransform(clipping.getTransform());
+			if (!paintCurrentContent(g2d, pageNr, clipping)) throw new RenderCancelledException();
+			checkCancelled();
+		} catch (NoninvertibleTransformException e) {
+			// Never happens given getBounds(pageNr) has dimensions > 0.
+			e.printStackTrace();
+		} catch (RenderCancelledException e) {
+			img.flush();
+			throw e;
+		} finally {
+			g2d.dispose();
+		}
+		
+		try {
+			for (int y = missing.y / TILE_SIZE; y * TILE_SIZE < missing.y + missing.height; y++) {
+				for (int x = missing.x / TILE_SIZE; x * TILE_SIZE < missing.x + missing.width; x++) {
+					if (_tiles.get(pageNr, destination.width, destination.height, x, y) != null) continue;
+					
+					Rectangle bounds = calcTileBounds(destination, x, y);
+					BufferedImage tile = allocateImage(bounds);
+					if (tile == null) return false;
+					Graphics2D g2dTile = tile.createGraphics();
+					g2dTile.drawImage(img, missing.x - bounds.x, missing.y - bounds.y, null);
+					g2dTile.dispose();
+					
+					CachedTile replaced = _tiles.put(new CachedTile(pageNr, destination.width, destination.height, x, y, tile, priority, RasterCache.getInstance().isOffHeap()));
+					if (replaced != null) {
+						replaced.release();
+					}
+				}
+			}
+		} finally {
+			img.flush();
+		}
+		return true;
+	}
+	
+	/**
+	 * @return The bounds of the given tile in page pixels
+	 */
+	private static Rectangle calcTileBounds(Rectangle destination, int tileX, int tileY) {
+		int x = tileX * TILE_SIZE;
+		int y = tileY * TILE_SIZE;
+		return new Rectangle(x, y, Math.min(TILE_SIZE, destination.width - x), Math.min(TILE_SIZE, destination.height - y));
+	}
+	
+	/**
+	 * @param diskCache false to neither look the page up in the {@link
+	 * DiskRasterCache} nor store it there, e.g. for previews
+	 */
+	private BufferedImage paintImageIntoCache(int pageNr, Rectangle destination, int priority, boolean diskCache) {
 		
 //		
 //		try {
@@ -658,35 +1525,194 @@ public abstract class Document {
 //			} catch(InterruptedException e) {} 
 		
 		if (destination.getWidth() <= 0 || destination.getHeight() <= 0) return null;
-		BufferedImage img = null;
-		try {
-			img = GraphicsEnvironment.getLocalGraphicsEnvironment().
-				getDefaultScreenDevice().getDefaultConfiguration().
-				createCompatibleImage((int)destination.getWidth(), (int)destination.getHeight());
-		} catch(java.lang.OutOfMemoryError e) {
-			System.err.println("Error: Document.java. Could not render image, reason: out of memory");
-			System.err.println("Increase your Java VM Heap Size setting.");
-			return null;
+		
+		// Evicted before?
+		CacheStatistics statistics = CacheStatistics.getInstance();
+		BufferedImage compressed = CompressedRasterCache.getInstance().get(this, pageNr, destination.width, destination.height);
+		if (compressed != null) {
+			statistics.hit(CacheStatistics.Tier.COMPRESSED);
+			putIntoCache(pageNr, compressed, priority);
+			return compressed;
 		}
+		statistics.miss(CacheStatistics.Tier.COMPRESSED);
+		
+		// Rendered in a previous session?
+		String fingerprint = diskCache ? getFingerprint() : null;
+		if (fingerprint != null) {
+			BufferedImage stored = DiskRasterCache.getInstance().load(fingerprint, pageNr, destination.width, destination.height);
+			if (stored != null) {
+				statistics.hit(CacheStatistics.Tier.DISK);
+				putIntoCache(pageNr, stored, priority);
+				return stored;
+			}
+			statistics.miss(CacheStatistics.Tier.DISK);
+		}
+		
+		BufferedImage img = allocateImage(destination);
+		if (img == null) return null;
 		//BufferedImage img = new BufferedImage((int)destination.getWidth(), (int)destination.getHeight(),BufferedImage.TYPE_3BYTE_BGR);
 		//BufferedImage img = new BufferedImage((int)clipping.getDestination().getWidth(),(int) clipping.getDestination().getHeight(), BufferedImage.TYPE_INT_RGB);
 		
 		// Paint the given page with destination width / height into the buffer:
+		int generation = _generation.get();
+		CachedRaster base = null;
+		Rectangle area = null;
+		if (_deltaRendering) {
+			for (int neighbour : new int[] { pageNr - 1, pageNr + 1 }) {
+				if (neighbour < 0 || neighbour >= getNumberOfPages()) continue;
+				neighbour = getCanonicalPage(neighbour);
+				CachedRaster raster = (neighbour != pageNr) ? _cache.get(neighbour, destination.width, destination.height) : null;
+				area = (raster != null) ? calcChangedArea(pageNr, neighbour, destination) : null;
+				if (area != null) {
+					base = raster;
+					break;
+				}
+			}
+		}
+		
 		Graphics2D g2d = (Graphics2D) img.createGraphics();
 		try {
 			Clipping clipping = new Clipping(getBounds(pageNr), new Rectangle(0, 0, (int) destination.getWidth(), (int) destination.getHeight()));
+			BufferedImage baseImage = (base != null) ? base.copyImage() : null;
+			if (baseImage != null) {
+				
+				// Only the changed area is painted, over the neighbour:
+				g2d.drawImage(baseImage, 0, 0, null);
+				g2d.clip(area);
+			} else {
+				base = null;
+			}
 			g2d.setTransform(clipping.getTransform());
-			paintContent(g2d, pageNr, clipping);
+			if (!paintCurrentContent(g2d, pageNr, clipping)) throw new RenderCancelledException();
+			if (base != null && generation != _generation.get()) {
+				
+				// The neighbour may have changed meanwhile:
+				base = null;
+				g2d.setClip(null);
+				if (!paintCurrentContent(g2d, pageNr, clipping)) throw new RenderCancelledException();
+			}
+			checkCancelled();
 		} catch (NoninvertibleTransformException e) {
 			// Never happens given getBounds(pageNr) has dimensions > 0.
 			e.printStackTrace();
+		} catch (RenderCancelledException e) {
+			
+			// Discard the partially rendered image:
+			img.flush();
+			throw e;
+		} finally {
+			g2d.dispose();
 		}
-		g2d.dispose();
 
-		_cache.put((new CacheIdentifier(pageNr, destination).toString()), img);
+		if (base != null) {
+			_metrics.recordDeltaRender();
+			putIntoCache(pageNr, img, base, area, destination, priority);
+		} else {
+			putIntoCache(pageNr, img, priority);
+		}
+		
+		// The fingerprint is of the file before the change:
+		if (fingerprint != null && generation == _generation.get()) {
+			DiskRasterCache.getInstance().store(fingerprint, pageNr, img);
+		}
 		return img;
 	}
 	
+	private void putIntoCache(int pageNr, BufferedImage image, int priority) {
+		putIntoCache(new CachedRaster(pageNr, image, priority, RasterCache.getInstance().isOffHeap()));
+	}
+	
+	/**
+	 * Caches a page rendered on top of the given raster as a patch of the
+	 * raster, or in full if the raster is held off-heap or the patch would be
+	 * too large. Patches of patches are based on the raster below.
+	 * 
+	 * @param area The pixels of the image that differ from the raster
+	 */
+	private void putIntoCache(int pageNr, BufferedImage image, CachedRaster base, Rectangle area, Rectangle destination, int priority) {
+		if (base instanceof PatchedRaster) {
+			Rectangle baseArea = ((PatchedRaster) base).getArea();
+			area = area.isEmpty() ? baseArea : area.union(baseArea);
+			base = ((PatchedRaster) base).getBase();
+		}
+		if (area.isEmpty() || (double) area.width * area.height > MAX_DELTA_FRACTION * destination.width * destination.height
+				|| base.isOffHeap() || RasterCache.getInstance().isOffHeap()
+				|| _cache.get(base.getPageNr(), base.getWidth(), base.getHeight()) != base) {
+			putIntoCache(pageNr, image, priority);
+			return;
+		}
+		
+		BufferedImage patch = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = patch.createGraphics();
+		g2d.drawImage(image, -area.x, -area.y, null);
+		g2d.dispose();
+		putIntoCache(new PatchedRaster(pageNr, base, patch, area, priority));
+	}
+	
+	private void putIntoCache(CachedRaster raster) {
+		CachedRaster replaced = _cache.put(raster);
+		if (replaced != null) {
+			replaced.release();
+		}
+	}
+	
+	/**
+	 * @return The pixels of the page that differ from the given page of the
+	 * same size, or null if unknown or too many for delta rendering
+	 */
+	private Rectangle calcChangedArea(int pageNr, int basePageNr, Rectangle destination) {
+		if (!getBounds(pageNr).equals(getBounds(basePageNr))) return null;
+		Rectangle2D changed = getChangedArea(pageNr, basePageNr);
+		if (changed == null) return null;
+		
+		Rectangle area;
+		try {
+			Clipping clipping = new Clipping(getBounds(pageNr), new Rectangle(0, 0, destination.width, destination.height));
+			area = clipping.getTransform().createTransformedShape(changed).getBounds();
+		} catch (NoninvertibleTransformException e) {
+			return null;
+		}
+		if (changed.isEmpty()) return new Rectangle();
+		area.grow(DELTA_MARGIN, DELTA_MARGIN);
+		area = area.intersection(new Rectangle(0, 0, destination.width, destination.height));
+		if (area.isEmpty()) return new Rectangle();
+		if ((double) area.width * area.height > MAX_DELTA_FRACTION * destination.width * destination.height) return null;
+		return area;
+	}
+	
+	/**
+	 * Creates an image of the given size. If out of memory, frees all cached
+	 * rasters that are not displayed and retries once.
+	 * 
+	 * @return The image or null, if out of memory
+	 */
+	private BufferedImage allocateImage(Rectangle destination) {
+		try {
+			return createCompatibleImage(destination);
+		} catch(java.lang.OutOfMemoryError e) {
+			_metrics.recordOutOfMemoryFallback();
+			RasterCache.getInstance().shrink(0);
+			try {
+				return createCompatibleImage(destination);
+			} catch(java.lang.OutOfMemoryError e2) {
+				System.err.println("Error: Document.java. Could not render image, reason: out of memory");
+				System.err.println("Increase your Java VM Heap Size setting or lower the cache budget.");
+				return null;
+			}
+		}
+	}
+	
+	private static BufferedImage createCompatibleImage(Rectangle destination) {
+		
+		// Without a screen (e.g. tests), any opaque format will do:
+		if (GraphicsEnvironment.isHeadless()) {
+			return new BufferedImage((int)destination.getWidth(), (int)destination.getHeight(), BufferedImage.TYPE_INT_RGB);
+		}
+		return GraphicsEnvironment.getLocalGraphicsEnvironment().
+			getDefaultScreenDevice().getDefaultConfiguration().
+			createCompatibleImage((int)destination.getWidth(), (int)destination.getHeight());
+	}
+	
 	// TODO: CacheMarkers with priority higher than / equal to 1 should have
 	// an additional VolatileImage (created with ...getDefaultConfiguration().
 	// createVolatileImage()).
@@ -39,12 +39,15 @@ public class ImageDocument extends Document {
 	}
 	
 	/**
-	 * ImageDocument is not cached, since the rendering process is very fast.
+	 * ImageDocument is not cached, since the rendering process is very fast,
+	 * except in strict painting mode (see
+	 * {@link Document#setStrictPainting(boolean)}).
 	 * 
-	 * @return Always null
+	 * @return null, unless in strict painting mode
 	 */
 	@Override
 	public DocumentCacheEntry cache(int pageNr, Clipping clipping, int priority, CacheObserver observer) {
+		if (isStrictPainting()) return super.cache(pageNr, clipping, priority, observer);
 		return null;
 	}
 	
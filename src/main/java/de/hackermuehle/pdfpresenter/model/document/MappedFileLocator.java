@@ -0,0 +1,28 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.intarsys.tools.locator.DelegatingLocator;
+import de.intarsys.tools.locator.FileLocator;
+import de.intarsys.tools.randomaccess.IRandomAccess;
+
+/**
+ * A file locator whose random access maps the file into memory, see
+ * {@link MappedRandomAccess}. jPod parses the objects of a document on
+ * first access, so opening a large file only reads its cross reference
+ * table and the page tree.
+ */
+class MappedFileLocator extends DelegatingLocator {
+	private final File _file;
+
+	public MappedFileLocator(File file) {
+		super(new FileLocator(file));
+		_file = file;
+	}
+
+	@Override
+	public IRandomAccess getRandomAccess() throws IOException {
+		return new MappedRandomAccess(_file);
+	}
+}
@@ -0,0 +1,172 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import de.intarsys.tools.randomaccess.AbstractRandomAccess;
+
+/**
+ * Read only access to a file mapped into memory. Reading is served from
+ * the operating system's page cache, only the parts of the file that are
+ * actually read are loaded.
+ *
+ * Files larger than a segment are mapped in several segments. Like other
+ * random access implementations, not thread safe.
+ *
+ * Mapping is unsafe for files that change while open: Reading a part of the
+ * file that was truncated or replaced in place faults. The fault is reported
+ * as an IOException or, since compiled code may report it late, as an
+ * InternalError of a later call. Parts read before may have changed
+ * unnoticed. Files expected to change, e.g. of live reloaded documents, are
+ * not mapped.
+ */
+class MappedRandomAccess extends AbstractRandomAccess {
+	static final int SEGMENT_SIZE = 1 << 30; // 1 GB
+
+	private final MappedByteBuffer[] _segments;
+	private final int _segmentSize;
+	private final long _length;
+	private long _offset = 0;
+	private boolean _closed = false;
+
+	public MappedRandomAccess(File file) throws IOException {
+		this(file, SEGMENT_SIZE);
+	}
+
+	MappedRandomAccess(File file, int segmentSize) throws IOException {
+		_segmentSize = segmentSize;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			_length = channel.size();
+			_segments = new MappedByteBuffer[(int) ((_length + segmentSize - 1) / segmentSize)];
+			for (int i = 0; i < _segments.length; i++) {
+				long position = (long) i * segmentSize;
+				_segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, _length - position));
+			}
+		} finally {
+			
+			// The mapping remains valid:
+			randomAccessFile.close();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkOpen();
+		if (_offset >= _length) return -1;
+		int value;
+		try {
+			value = _segments[(int) (_offset / _segmentSize)].get((int) (_offset % _segmentSize)) & 0xff;
+		} catch (InternalError e) {
+			throw changed(e);
+		}
+		_offset++;
+		return value;
+	}
+
+	@Override
+	public int read(byte[] buffer) throws IOException {
+		return read(buffer, 0, buffer.length);
+	}
+
+	@Override
+	public int read(byte[] buffer, int start, int numBytes) throws IOException {
+		checkOpen();
+		if (numBytes == 0) return 0;
+		if (_offset >= _length) return -1;
+
+		int read = 0;
+		while (read < numBytes && _offset < _length) {
+			MappedByteBuffer segment = _segments[(int) (_offset / _segmentSize)];
+			int position = (int) (_offset % _segmentSize);
+			int count = Math.min(numBytes - read, segment.limit() - position);
+			segment.position(position);
+			try {
+				segment.get(buffer, start + read, count);
+			} catch (InternalError e) {
+				throw changed(e);
+			}
+			read += count;
+			_offset += count;
+		}
+		return read;
+	}
+
+	@Override
+	public long getLength() throws IOException {
+		return _length;
+	}
+
+	@Override
+	public long getOffset() throws IOException {
+		return _offset;
+	}
+
+	@Override
+	public void seek(long offset) throws IOException {
+		checkOpen();
+		if (offset < 0) throw new IOException("offset < 0");
+		_offset = offset;
+	}
+
+	@Override
+	public void seekBy(long delta) throws IOException {
+		seek(_offset + delta);
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	/**
+	 * The mapping is released once its segments are collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		_closed = true;
+		Arrays.fill(_segments, null);
+	}
+
+	@Override
+	public void flush() throws IOException {
+	}
+
+	@Override
+	public void setLength(long newLength) throws IOException {
+		throw new IOException("read only");
+	}
+
+	@Override
+	public void write(int value) throws IOException {
+		throw new IOException("read only");
+	}
+
+	@Override
+	public void write(byte[] buffer) throws IOException {
+		throw new IOException("read only");
+	}
+
+	@Override
+	public void write(byte[] buffer, int start, int numBytes) throws IOException {
+		throw new IOException("read only");
+	}
+
+	private void checkOpen() throws IOException {
+		if (_closed) throw new IOException("closed");
+	}
+
+	/**
+	 * @param e The error the virtual machine reports a fault of a mapped
+	 *        page with, e.g. SIGBUS on Unix
+	 * @return An IOException to throw instead
+	 */
+	private static IOException changed(InternalError e) {
+		return new IOException("File changed while mapped", e);
+	}
+}
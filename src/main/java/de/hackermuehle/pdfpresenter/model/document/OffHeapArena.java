@@ -0,0 +1,202 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pixel memory outside of the Java heap, so cached rasters don't add to
+ * garbage collection pauses.
+ *
+ * Memory is reserved in large direct buffers (chunks) and handed out in
+ * blocks of ints. Blocks are freed explicitly and reused by later
+ * allocations; adjacent free blocks are merged. Chunks that become
+ * completely free are given back, except for one chunk of spare memory.
+ */
+class OffHeapArena {
+	private static final OffHeapArena _instance = new OffHeapArena();
+	static final int CHUNK_INTS = 16 * 1024 * 1024; // 64 MB
+
+	private final List<Chunk> _chunks = new ArrayList<Chunk>();
+	private final int _chunkInts;
+	private long _reserved;
+	private long _used;
+
+	OffHeapArena(int chunkInts) {
+		_chunkInts = chunkInts;
+	}
+
+	private OffHeapArena() {
+		this(CHUNK_INTS);
+	}
+
+	public static OffHeapArena getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * @param ints Size of the block
+	 * @return A block of the given size or null, if out of direct memory
+	 */
+	public synchronized Block allocate(int ints) {
+		if (ints <= 0) throw new IllegalArgumentException("ints <= 0");
+
+		for (Chunk chunk : _chunks) {
+			Block block = chunk.allocate(ints);
+			if (block != null) {
+				_used += 4L * ints;
+				return block;
+			}
+		}
+
+		// Rasters larger than a chunk get a chunk of their own:
+		Chunk chunk;
+		try {
+			chunk = new Chunk(Math.max(ints, _chunkInts));
+		} catch (OutOfMemoryError e) {
+			return null;
+		}
+		_chunks.add(chunk);
+		_reserved += 4L * chunk._size;
+		_used += 4L * ints;
+		return chunk.allocate(ints);
+	}
+
+	/**
+	 * Returns the block to the arena. The block must not be used afterwards.
+	 *
+	 * @param block
+	 * @throws IllegalStateException The block was freed before
+	 */
+	public synchronized void free(Block block) {
+		if (block._freed) throw new IllegalStateException("Block freed twice");
+		block._freed = true;
+		Chunk chunk = block._chunk;
+		chunk.free(block._offset, block._length);
+		_used -= 4L * block._length;
+
+		// Keeps up to one chunk of free memory for the next rasters. Direct
+		// memory is released once the buffer is collected:
+		if (chunk.isEmpty() && _reserved - _used > 4L * _chunkInts) {
+			_chunks.remove(chunk);
+			_reserved -= 4L * chunk._size;
+		}
+	}
+
+	/**
+	 * @return The number of bytes of direct memory held by the arena
+	 */
+	public synchronized long getReserved() {
+		return _reserved;
+	}
+
+	/**
+	 * @return The number of bytes in allocated blocks
+	 */
+	public synchronized long getUsed() {
+		return _used;
+	}
+
+	/**
+	 * A contiguous range of ints in a chunk.
+	 */
+	static class Block {
+		private final Chunk _chunk;
+		private final int _offset;
+		private final int _length;
+		private volatile boolean _freed = false;
+
+		private Block(Chunk chunk, int offset, int length) {
+			_chunk = chunk;
+			_offset = offset;
+			_length = length;
+		}
+
+		public int getLength() {
+			return _length;
+		}
+
+		/**
+		 * Copies ints from the block into the array.
+		 */
+		public void get(int position, int[] dst, int offset, int length) {
+			checkRange(position, length);
+			IntBuffer buffer = _chunk._buffer.duplicate();
+			buffer.position(_offset + position);
+			buffer.get(dst, offset, length);
+		}
+
+		/**
+		 * Copies ints from the array into the block.
+		 */
+		public void put(int position, int[] src, int offset, int length) {
+			checkRange(position, length);
+			IntBuffer buffer = _chunk._buffer.duplicate();
+			buffer.position(_offset + position);
+			buffer.put(src, offset, length);
+		}
+
+		private void checkRange(int position, int length) {
+			if (_freed) throw new IllegalStateException("Block freed");
+			if (position < 0 || length < 0 || position + length > _length) {
+				throw new IndexOutOfBoundsException();
+			}
+		}
+	}
+
+	private static class Chunk {
+		private final IntBuffer _buffer;
+		private final int _size;
+		private final TreeMap<Integer, Integer> _free = new TreeMap<Integer, Integer>(); // offset -> length
+
+		public Chunk(int size) {
+			_buffer = ByteBuffer.allocateDirect(4 * size).order(ByteOrder.nativeOrder()).asIntBuffer();
+			_size = size;
+			_free.put(0, size);
+		}
+
+		/**
+		 * First fit.
+		 */
+		public Block allocate(int length) {
+			Iterator<Map.Entry<Integer, Integer>> iterator = _free.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<Integer, Integer> range = iterator.next();
+				int offset = range.getKey();
+				int free = range.getValue();
+				if (free >= length) {
+					iterator.remove();
+					if (free > length) {
+						_free.put(offset + length, free - length);
+					}
+					return new Block(this, offset, length);
+				}
+			}
+			return null;
+		}
+
+		public void free(int offset, int length) {
+			Map.Entry<Integer, Integer> next = _free.ceilingEntry(offset);
+			if (next != null && next.getKey() == offset + length) {
+				length += next.getValue();
+				_free.remove(next.getKey());
+			}
+			Map.Entry<Integer, Integer> previous = _free.floorEntry(offset);
+			if (previous != null && previous.getKey() + previous.getValue() == offset) {
+				offset = previous.getKey();
+				length += previous.getValue();
+			}
+			_free.put(offset, length);
+		}
+
+		public boolean isEmpty() {
+			Map.Entry<Integer, Integer> first = _free.firstEntry();
+			return first != null && first.getValue() == _size;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.geom.Rectangle2D;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.intarsys.pdf.cos.COSArray;
+import de.intarsys.pdf.cos.COSDictionary;
+import de.intarsys.pdf.cos.COSName;
+import de.intarsys.pdf.cos.COSObject;
+import de.intarsys.pdf.cos.COSStream;
+import de.intarsys.pdf.pd.PDPage;
+import de.intarsys.pdf.pd.PDResources;
+
+/**
+ * Identifies what a PDF page looks like, independent of the file it is
+ * stored in: a digest of its content streams, its resources (fonts, images,
+ * forms, ...), its crop box and its rotation.
+ *
+ * Objects are digested by value, not by object number, since recompiling a
+ * document renumbers its objects. Objects referenced more than once are
+ * digested once and then by the order they were first reached in.
+ */
+class PageFingerprint {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final MessageDigest _digest;
+	private final Map<COSObject, Integer> _visited = new IdentityHashMap<COSObject, Integer>();
+
+	private PageFingerprint() {
+		try {
+			_digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param page
+	 * @param cropBox The normalized crop box of the page
+	 * @param rotation The rotation of the page
+	 * @return The fingerprint of the page
+	 */
+	static String of(PDPage page, Rectangle2D cropBox, int rotation) {
+		PageFingerprint fingerprint = new PageFingerprint();
+		fingerprint.update(cropBox + " " + rotation);
+		fingerprint.update(page.cosGetField(PDPage.DK_Contents));
+		PDResources resources = page.getResources();
+		fingerprint.update((resources != null) ? resources.cosGetObject() : null);
+
+		StringBuilder result = new StringBuilder();
+		for (byte b : fingerprint._digest.digest()) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	private void update(String value) {
+		_digest.update(value.getBytes(UTF8));
+		_digest.update((byte) 0);
+	}
+
+	private void update(COSObject object) {
+		if (object == null) {
+			update("null");
+			return;
+		}
+		object = object.dereference();
+
+		Integer visited = _visited.get(object);
+		if (visited != null) {
+			update("ref " + visited);
+			return;
+		}
+		_visited.put(object, _visited.size());
+
+		if (object instanceof COSStream) {
+			COSStream stream = (COSStream) object;
+			update("stream");
+			update(stream.getDict());
+			byte[] bytes = stream.getEncodedBytes();
+			update(Integer.toString((bytes != null) ? bytes.length : -1));
+			if (bytes != null) _digest.update(bytes);
+		} else if (object instanceof COSDictionary) {
+			COSDictionary dictionary = (COSDictionary) object;
+			List<COSName> keys = new ArrayList<COSName>();
+			for (Object key : dictionary.keySet()) {
+				keys.add((COSName) key);
+			}
+			Collections.sort(keys, new Comparator<COSName>() {
+				@Override
+				public int compare(COSName a, COSName b) {
+					return a.toString().compareTo(b.toString());
+				}
+			});
+			update("dict " + keys.size());
+			for (COSName key : keys) {
+				update(key.toString());
+				update(dictionary.get(key));
+			}
+		} else if (object instanceof COSArray) {
+			COSArray array = (COSArray) object;
+			update("array " + array.size());
+			for (int i = 0; i < array.size(); i++) {
+				update(array.get(i));
+			}
+		} else {
+			update(object.toString());
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.intarsys.pdf.content.CSContent;
+import de.intarsys.pdf.pd.PDResources;
+
+/**
+ * Parsed content streams and resources of the pages of a PDF document,
+ * kept for rendering the pages again. Separate from the rendered rasters.
+ *
+ * The size of a parsed page is estimated from the number of its content
+ * stream operations. If all caches together exceed the budget, the least
+ * recently used pages are dropped, except for the pages around the focus
+ * page (see {@link Document#getFocusPage()}).
+ */
+public class ParsedPageCache {
+	static final int WINDOW = 3; // pages kept before and after the focus page
+	private static final int OPERATION_BYTES = 100;
+	
+	private static volatile long _budget = Runtime.getRuntime().maxMemory() / 16;
+	private static final AtomicLong _size = new AtomicLong();
+	
+	// Access ordered, least recently used first:
+	private final LinkedHashMap<Integer, ParsedPage> _pages = new LinkedHashMap<Integer, ParsedPage>(16, 0.75f, true);
+	
+	/**
+	 * @return The maximum number of bytes of all caches
+	 */
+	public static long getBudget() {
+		return _budget;
+	}
+	
+	/**
+	 * Sets the maximum number of bytes of all caches. Applied when pages are
+	 * added.
+	 * 
+	 * @param budget Budget in bytes, 0 keeps only the pages around the focus
+	 */
+	public static void setBudget(long budget) {
+		if (budget < 0) throw new IllegalArgumentException("budget < 0");
+		_budget = budget;
+	}
+	
+	/**
+	 * @return The estimated number of bytes of all caches
+	 */
+	public static long getSize() {
+		return _size.get();
+	}
+	
+	/**
+	 * @param pageNr
+	 * @return The parsed page or null
+	 */
+	synchronized ParsedPage get(int pageNr) {
+		return _pages.get(pageNr);
+	}
+	
+	/**
+	 * Adds a parsed page and drops least recently used pages outside the
+	 * window around the focus page while over budget.
+	 * 
+	 * @param pageNr
+	 * @param page
+	 * @param focusPage
+	 */
+	synchronized void put(int pageNr, ParsedPage page, int focusPage) {
+		ParsedPage replaced = _pages.put(pageNr, page);
+		if (replaced != null) _size.addAndGet(-replaced._bytes);
+		_size.addAndGet(page._bytes);
+		
+		Iterator<Map.Entry<Integer, ParsedPage>> iterator = _pages.entrySet().iterator();
+		while (_size.get() > _budget && iterator.hasNext()) {
+			Map.Entry<Integer, ParsedPage> entry = iterator.next();
+			if (entry.getKey() == pageNr) continue;
+			if (focusPage >= 0 && Math.abs(entry.getKey() - focusPage) <= WINDOW) continue;
+			_size.addAndGet(-entry.getValue()._bytes);
+			iterator.remove();
+		}
+	}
+	
+	synchronized void clear() {
+		for (ParsedPage page : _pages.values()) {
+			_size.addAndGet(-page._bytes);
+		}
+		_pages.clear();
+	}
+	
+	/**
+	 * The parsed content stream and resources of a page.
+	 */
+	static class ParsedPage {
+		private final CSContent _content;
+		private final PDResources _resources;
+		private final long _bytes;
+		
+		public ParsedPage(CSContent content, PDResources resources) {
+			this(content, resources, (content != null) ? (long) content.size() * OPERATION_BYTES : 0);
+		}
+		
+		ParsedPage(CSContent content, PDResources resources, long bytes) {
+			_content = content;
+			_resources = resources;
+			_bytes = bytes;
+		}
+		
+		public CSContent getContent() {
+			return _content;
+		}
+		
+		public PDResources getResources() {
+			return _resources;
+		}
+		
+		public long getBytes() {
+			return _bytes;
+		}
+	}
+}
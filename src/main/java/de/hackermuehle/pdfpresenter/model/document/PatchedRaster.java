@@ -0,0 +1,103 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * A rendered page held as the changes to the rendered page of a neighbour,
+ * e.g. the next step of an overlay sequence: the raster of the neighbour
+ * (the base) plus a patch of the area that differs.
+ *
+ * Only the patch counts towards the cache size. The base raster is held on
+ * the heap and is shared, so a patched raster is evicted with its base.
+ * Composed images share a buffer of the calling thread, like off-heap
+ * rasters.
+ */
+class PatchedRaster extends CachedRaster {
+	private static final ThreadLocal<BufferedImage[]> _scratch = new ThreadLocal<BufferedImage[]>() {
+		@Override
+		protected BufferedImage[] initialValue() {
+			return new BufferedImage[1];
+		}
+	};
+
+	private final CachedRaster _base;
+	private final BufferedImage _baseImage;
+	private final BufferedImage _patch;
+	private final Rectangle _area;
+
+	/**
+	 * @param pageNr
+	 * @param base A raster on the heap of the same size, not patched
+	 * @param patch The pixels of the area
+	 * @param area The area of the page that differs from the base
+	 * @param priority
+	 */
+	public PatchedRaster(int pageNr, CachedRaster base, BufferedImage patch, Rectangle area, int priority) {
+		super(pageNr, base.getWidth(), base.getHeight(), patch, priority);
+		if (base.isOffHeap() || base instanceof PatchedRaster) throw new IllegalArgumentException("Illegal base: " + base);
+		_base = base;
+		_baseImage = base.getImage();
+		_patch = patch;
+		_area = new Rectangle(area);
+	}
+
+	public CachedRaster getBase() {
+		return _base;
+	}
+
+	public Rectangle getArea() {
+		return new Rectangle(_area);
+	}
+
+	/**
+	 * @return The image, valid until the calling thread gets the image of
+	 *         another patched raster
+	 */
+	@Override
+	public BufferedImage getImage() {
+		BufferedImage[] holder = _scratch.get();
+		BufferedImage image = holder[0];
+		if (image == null || image.getWidth() != getWidth() || image.getHeight() != getHeight()) {
+			image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
+			holder[0] = image;
+		}
+		compose(image);
+		return image;
+	}
+
+	@Override
+	public BufferedImage copyImage() {
+		BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
+		compose(image);
+		return image;
+	}
+
+	private void compose(BufferedImage image) {
+		Graphics2D g2d = image.createGraphics();
+		g2d.drawImage(_baseImage, 0, 0, null);
+		g2d.drawImage(_patch, _area.x, _area.y, null);
+		g2d.dispose();
+	}
+
+	/**
+	 * Frees the patch. The base is released by its own raster.
+	 */
+	@Override
+	public void release() {
+		_patch.flush();
+	}
+
+	/**
+	 * @return The bytes saved by not holding the whole page
+	 */
+	public long getSavedBytes() {
+		return Math.max(0, 4L * getWidth() * getHeight() - getBytes());
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + "b" + _base.getPageNr();
+	}
+}
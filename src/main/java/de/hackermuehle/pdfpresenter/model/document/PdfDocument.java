@@ -3,19 +3,42 @@ package de.hackermuehle.pdfpresenter.model.document;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
+import javax.swing.SwingUtilities;
+
 import de.hackermuehle.pdfpresenter.model.Clipping;
 import de.intarsys.cwt.awt.environment.CwtAwtGraphicsContext;
-import de.intarsys.cwt.environment.IGraphicsContext;
+import de.intarsys.cwt.awt.image.CwtAwtImage;
+import de.intarsys.cwt.awt.image.IAwtImage;
+import de.intarsys.cwt.image.IImage;
 import de.intarsys.pdf.content.CSContent;
+import de.intarsys.pdf.content.CSException;
+import de.intarsys.pdf.content.CSOperation;
+import de.intarsys.pdf.content.CSOperators;
+import de.intarsys.pdf.cos.COSIndirectObject;
+import de.intarsys.pdf.cos.COSName;
+import de.intarsys.pdf.cos.COSObject;
 import de.intarsys.pdf.parser.COSLoadException;
 import de.intarsys.pdf.pd.PDDocument;
+import de.intarsys.pdf.pd.PDImage;
 import de.intarsys.pdf.pd.PDPage;
 import de.intarsys.pdf.pd.PDPageTree;
 import de.intarsys.pdf.pd.PDResources;
+import de.intarsys.pdf.pd.PDXObject;
 import de.intarsys.pdf.platform.cwt.rendering.CSPlatformRenderer;
 import de.intarsys.tools.locator.FileLocator;
 
@@ -24,74 +47,285 @@ import de.intarsys.tools.locator.FileLocator;
  * The rendering is done using the jPod renderer library.
  */
 public class PdfDocument extends Document {
-
-	private PDDocument _pdDocument;
-	private PDPageTree _pageTree;
+	private static volatile boolean _displayListsEnabled = false;
+	private static volatile boolean _liveReloadEnabled = false;
+	private static volatile boolean _deduplicationEnabled = false;
+	private volatile PDDocument _pdDocument;
+	private volatile PDPageTree _pageTree;
+	private File _file;
+	private volatile int _numberOfPages;
+	private volatile String _fingerprint; // "" if unavailable
+	
+	// jPod objects are not thread safe. The document opened first serves
+	// page properties and, if no other handle can be opened, rendering:
+	private final Object _lock = new Object();
+	private RenderHandle _primaryHandle;
+	
+	// Further handles, one per concurrent rendering. Handles of a previous
+	// generation read the file before it was reloaded:
+	private final LinkedList<RenderHandle> _idleHandles = new LinkedList<RenderHandle>();
+	private int _handleGeneration = 0;
+	private boolean _disposed = false;
+	
+	// Images are shared by the handles, since decoding doesn't depend on
+	// the instance of the file:
+	private final DecodedImageCache _decodedImages = new DecodedImageCache();
+	
+	// Pages recorded for replay, if enabled:
+	private final DisplayListCache _displayLists = new DisplayListCache();
 	
 	// Cache frequently used data:
-	private Vector<CSContent> _pageContent;
-	private Vector<Rectangle2D> _pageCropBoxes;
-	private Vector<Integer> _pageRotations;
-	private Vector<PDResources> _pageResources;
+	private volatile Vector<Rectangle2D> _pageCropBoxes;
+	private volatile Vector<Integer> _pageRotations;
+	private volatile String[] _pageFingerprints; // null per page until fingerprinted
+	private final Map<String, Integer> _firstPages = new HashMap<String, Integer>(); // by fingerprint
+	private final Object _fingerprintLock = new Object(); // guards the above
 	
 	public PdfDocument(String fileName) throws IOException, COSLoadException {
-		FileLocator locator = new FileLocator(fileName);
-		_pdDocument = PDDocument.createFromLocator(locator);
+		_file = new File(fileName);
+		_pdDocument = open();
 		_pageTree = _pdDocument.getPageTree();
+		_numberOfPages = _pageTree.getCount();
+		_primaryHandle = new RenderHandle(_pdDocument, _handleGeneration);
 		
 		// These vectors cache return values from calls to the jPodRenderer:
-		_pageContent = new Vector<CSContent>(getNumberOfPages());
-		_pageContent.setSize(getNumberOfPages());
 		_pageCropBoxes = new Vector<Rectangle2D>(getNumberOfPages());
 		_pageCropBoxes.setSize(getNumberOfPages());
 		_pageRotations = new Vector<Integer>(getNumberOfPages());
 		_pageRotations.setSize(getNumberOfPages());
-		_pageResources = new Vector<PDResources>(getNumberOfPages());
-		_pageResources.setSize(getNumberOfPages());
+		
+		_pageFingerprints = new String[_numberOfPages];
 	}
 	
 	public String getTitle() {
-		return _pdDocument.getName();
+		synchronized (_lock) {
+			return _pdDocument.getName();
+		}
 	}
 	
 	public int getNumberOfPages() {
-		return _pageTree.getCount();
+		return _numberOfPages;
 	}
 	
 	public double getPageRatio(int pageNr) {
 		return getBounds(pageNr).getWidth() / getBounds(pageNr).getHeight();
 	}
 	
+	/**
+	 * Pages are rendered concurrently, each rendering with its own handle
+	 * of the file.
+	 */
 	@Override
-	public void paintContent(Graphics2D g2dOutput, int pageNr, Clipping clipping) {
-		if (pageNr < 0 || pageNr >= getNumberOfPages())
-			throw new IllegalArgumentException("Illegal page number: " + pageNr);
-			
-		// Load cached page data:
-		PDPage page = null;
-		Integer rotation = _pageRotations.get(pageNr);
-		if (rotation == null) {
-			if (page == null) page = _pageTree.getPageAt(pageNr);
-			rotation = page.getRotate();
-			_pageRotations.set(pageNr, rotation);
+	protected boolean isConcurrentRenderingSupported() {
+		return true;
+	}
+	
+	/**
+	 * With display lists, the rendering of a page is recorded once (see
+	 * {@link DisplayList}) and replayed for each scale the page is painted
+	 * at, instead of interpreting the page content again. Display lists are
+	 * cached separately from the rendered rasters.
+	 * 
+	 * @param displayListsEnabled
+	 */
+	public static void setDisplayListsEnabled(boolean displayListsEnabled) {
+		_displayListsEnabled = displayListsEnabled;
+	}
+	
+	/**
+	 * @see #setDisplayListsEnabled(boolean)
+	 */
+	public static boolean isDisplayListsEnabled() {
+		return _displayListsEnabled;
+	}
+	
+	/**
+	 * Documents opened with live reload can be reloaded after their file
+	 * changed, see {@link #prepareReload()}. Their files are not mapped into
+	 * memory. Pages are fingerprinted when first rendered, pages never
+	 * rendered count as changed when reloaded.
+	 * 
+	 * @param liveReloadEnabled
+	 */
+	public static void setLiveReloadEnabled(boolean liveReloadEnabled) {
+		_liveReloadEnabled = liveReloadEnabled;
+	}
+	
+	/**
+	 * @see #setLiveReloadEnabled(boolean)
+	 */
+	public static boolean isLiveReloadEnabled() {
+		return _liveReloadEnabled;
+	}
+	
+	/**
+	 * Pages with identical content, e.g. repeated title pages or the pages
+	 * of a handout, share their rendered rasters and are rendered once.
+	 * Pages are fingerprinted when first rendered, so a page shares the
+	 * rasters of an identical page rendered before.
+	 * 
+	 * @param deduplicationEnabled
+	 */
+	public static void setDeduplicationEnabled(boolean deduplicationEnabled) {
+		_deduplicationEnabled = deduplicationEnabled;
+	}
+	
+	/**
+	 * @see #setDeduplicationEnabled(boolean)
+	 */
+	public static boolean isDeduplicationEnabled() {
+		return _deduplicationEnabled;
+	}
+	
+	/**
+	 * @return The page first fingerprinted with the same fingerprint, if
+	 * deduplicated
+	 */
+	@Override
+	protected int getCanonicalPage(int pageNr) {
+		
+		// Pages of live reloaded documents are compared to the changed file:
+		if (!_deduplicationEnabled && !_liveReloadEnabled) return pageNr;
+		String fingerprint = getPageFingerprint(pageNr);
+		if (fingerprint == null || !_deduplicationEnabled) return pageNr;
+		synchronized (_fingerprintLock) {
+			Integer firstPage = _firstPages.get(fingerprint);
+			return (firstPage != null) ? firstPage : pageNr;
 		}
-		Rectangle2D cropBox = _pageCropBoxes.get(pageNr);
-		if (cropBox == null) {
-			if (page == null) page = _pageTree.getPageAt(pageNr);
-			cropBox = page.getCropBox().toNormalizedRectangle();
-			_pageCropBoxes.set(pageNr, cropBox);
+	}
+	
+	/**
+	 * Fingerprints the page on first use, unless called on the event
+	 * dispatch thread.
+	 * 
+	 * @return The fingerprint of the page or null, if not fingerprinted
+	 */
+	private String getPageFingerprint(int pageNr) {
+		String[] fingerprints = _pageFingerprints;
+		synchronized (_fingerprintLock) {
+			if (pageNr < 0 || pageNr >= fingerprints.length) return null;
+			if (fingerprints[pageNr] != null) return fingerprints[pageNr];
+		}
+		if (SwingUtilities.isEventDispatchThread()) return null;
+		
+		String fingerprint;
+		RenderHandle handle = acquireHandle();
+		if (handle != null) {
+			try {
+				fingerprint = fingerprintPage(handle, pageNr);
+			} finally {
+				releaseHandle(handle);
+			}
+		} else {
+			synchronized (_lock) {
+				fingerprint = fingerprintPage(_primaryHandle, pageNr);
+			}
+		}
+		
+		synchronized (_fingerprintLock) {
+			if (fingerprints != _pageFingerprints) return null; // reloaded meanwhile
+			if (fingerprints[pageNr] == null) {
+				fingerprints[pageNr] = fingerprint;
+				if (!_firstPages.containsKey(fingerprint)) _firstPages.put(fingerprint, pageNr);
+			}
+			return fingerprints[pageNr];
+		}
+	}
+	
+	private String fingerprintPage(RenderHandle handle, int pageNr) {
+		return PageFingerprint.of(handle._pageTree.getPageAt(pageNr), getCropBox(pageNr), getRotation(pageNr));
+	}
+	
+	/**
+	 * Replaces the fingerprints of all pages, e.g. of the file reloaded.
+	 */
+	private void setPageFingerprints(String[] fingerprints) {
+		int[] canonicalPages = canonicalPages(fingerprints);
+		synchronized (_fingerprintLock) {
+			_pageFingerprints = fingerprints;
+			_firstPages.clear();
+			for (int pageNr = 0; pageNr < fingerprints.length; pageNr++) {
+				if (fingerprints[pageNr] != null && canonicalPages[pageNr] == pageNr) _firstPages.put(fingerprints[pageNr], pageNr);
+			}
+		}
+	}
+	
+	public File getFile() {
+		return _file;
+	}
+	
+	/**
+	 * Reads the file again and compares its pages to the pages read before.
+	 * Takes long, call from a background thread and apply the reload on the
+	 * event dispatch thread.
+	 * 
+	 * @return The file as read now
+	 * @throws IOException
+	 * @throws COSLoadException The file is not readable, e.g. because it is
+	 * being written
+	 */
+	public Reload prepareReload() throws IOException, COSLoadException {
+		PDDocument document = PDDocument.createFromLocator(new FileLocator(_file));
+		try {
+			return new Reload(document);
+		} catch (RuntimeException e) {
+			document.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return The fingerprints of the given pages, also caching their crop
+	 * boxes and rotations
+	 */
+	private static String[] fingerprintPages(PDPageTree pageTree, int numberOfPages, Vector<Rectangle2D> cropBoxes, Vector<Integer> rotations) {
+		String[] fingerprints = new String[numberOfPages];
+		for (int pageNr = 0; pageNr < numberOfPages; pageNr++) {
+			PDPage page = pageTree.getPageAt(pageNr);
+			Rectangle2D cropBox = page.getCropBox().toNormalizedRectangle();
+			int rotation = page.getRotate();
+			cropBoxes.set(pageNr, cropBox);
+			rotations.set(pageNr, rotation);
+			fingerprints[pageNr] = PageFingerprint.of(page, cropBox, rotation);
 		}
-		CSContent content = _pageContent.get(pageNr);
-		if (content == null) {
-			if (page == null) page = _pageTree.getPageAt(pageNr);
-			content = page.getContentStream();
-			_pageContent.set(pageNr, content);
+		return fingerprints;
+	}
+	
+	/**
+	 * @return For each page the first page with the same fingerprint, the
+	 * page itself if not fingerprinted
+	 */
+	static int[] canonicalPages(String[] fingerprints) {
+		int[] canonicalPages = new int[fingerprints.length];
+		Map<String, Integer> firstPages = new HashMap<String, Integer>();
+		for (int pageNr = 0; pageNr < fingerprints.length; pageNr++) {
+			if (fingerprints[pageNr] == null) {
+				canonicalPages[pageNr] = pageNr;
+				continue;
+			}
+			Integer firstPage = firstPages.get(fingerprints[pageNr]);
+			if (firstPage == null) {
+				firstPage = pageNr;
+				firstPages.put(fingerprints[pageNr], firstPage);
+			}
+			canonicalPages[pageNr] = firstPage;
 		}
-		PDResources resources = _pageResources.get(pageNr);
-		if (resources == null) {
-			if (page == null) page = _pageTree.getPageAt(pageNr);
-			resources = page.getResources();
-			_pageResources.set(pageNr, resources);
+		return canonicalPages;
+	}
+	
+	@Override
+	public void paintContent(Graphics2D g2dOutput, int pageNr, Clipping clipping) {
+		if (pageNr < 0 || pageNr >= getNumberOfPages())
+			throw new IllegalArgumentException("Illegal page number: " + pageNr);
+		
+		DisplayList displayList = null;
+		if (_displayListsEnabled) {
+			displayList = _displayLists.get(pageNr);
+			if (displayList != null) {
+				getMetrics().recordDisplayListReplay();
+			} else {
+				displayList = recordDisplayList(g2dOutput, pageNr);
+			}
 		}
 		
 		AffineTransform originalTransform = g2dOutput.getTransform();
@@ -99,7 +333,96 @@ public class PdfDocument extends Document {
 		g2dOutput.setPaint(Color.WHITE);
 		g2dOutput.fill(clipping.getSource());
 		
-		IGraphicsContext graphics = new CwtAwtGraphicsContext(g2dOutput);
+		if (displayList != null) {
+			displayList.replay(g2dOutput);
+		} else {
+			renderContent(g2dOutput, pageNr);
+		}
+		
+		g2dOutput.setTransform(originalTransform);
+	}
+	
+	/**
+	 * Compares the display lists of the pages, recording them if needed.
+	 * Overlay pages generated by beamer usually differ by a few primitives.
+	 * 
+	 * @return The changed area or null, if display lists are disabled
+	 */
+	@Override
+	protected Rectangle2D getChangedArea(int pageNr, int basePageNr) {
+		if (!_displayListsEnabled) return null;
+		
+		DisplayList base = _displayLists.get(basePageNr);
+		DisplayList displayList = _displayLists.get(pageNr);
+		if (base == null || displayList == null) {
+			Graphics2D g2d = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+			try {
+				if (base == null) base = recordDisplayList(g2d, basePageNr);
+				if (displayList == null) displayList = recordDisplayList(g2d, pageNr);
+			} finally {
+				g2d.dispose();
+			}
+		}
+		return DisplayList.getChangedArea(base, displayList);
+	}
+	
+	/**
+	 * Records the page content and caches the display list.
+	 * 
+	 * @param g2d Graphics to take the initial paint, stroke, font and
+	 * composite from
+	 */
+	private DisplayList recordDisplayList(Graphics2D g2d, int pageNr) {
+		RecordingGraphics2D recording = new RecordingGraphics2D(g2d);
+		try {
+			renderContent(recording, pageNr);
+		} finally {
+			recording.dispose();
+		}
+		DisplayList displayList = recording.getDisplayList();
+		_displayLists.put(pageNr, displayList, getFocusPage());
+		return displayList;
+	}
+	
+	/**
+	 * Renders the page content with jPod.
+	 */
+	private void renderContent(Graphics2D g2dOutput, int pageNr) {
+		RenderHandle handle = acquireHandle();
+		if (handle != null) {
+			try {
+				renderContent(g2dOutput, pageNr, handle);
+			} finally {
+				releaseHandle(handle);
+			}
+		} else {
+			synchronized (_lock) {
+				renderContent(g2dOutput, pageNr, _primaryHandle);
+			}
+		}
+	}
+	
+	private void renderContent(Graphics2D g2dOutput, int pageNr, RenderHandle handle) {
+		
+		// Load cached page data:
+		int rotation = getRotation(pageNr);
+		Rectangle2D cropBox = getCropBox(pageNr);
+		ParsedPageCache.ParsedPage parsedPage = handle._parsedPages.get(pageNr);
+		if (parsedPage != null) {
+			getMetrics().recordParsedHit();
+		} else {
+			long start = System.nanoTime();
+			PDPage page = handle._pageTree.getPageAt(pageNr);
+			parsedPage = new ParsedPageCache.ParsedPage(page.getContentStream(), page.getResources());
+			getMetrics().recordParse(System.nanoTime() - start);
+			handle._parsedPages.put(pageNr, parsedPage, getFocusPage());
+		}
+		CSContent content = parsedPage.getContent();
+		PDResources resources = parsedPage.getResources();
+		
+		AffineTransform originalTransform = g2dOutput.getTransform();
+		
+		CapturingGraphicsContext graphics = new CapturingGraphicsContext(g2dOutput);
 
 		// Fancy transformation:
 		g2dOutput.translate(getBounds(pageNr).getWidth()/2.0, getBounds(pageNr).getHeight()/2.0);
@@ -110,7 +433,7 @@ public class PdfDocument extends Document {
 		g2dOutput.translate(-cropBox.getX(), -cropBox.getY());
 		
 		if (content != null) {
-			CSPlatformRenderer renderer = new CSPlatformRenderer(null, graphics);
+			CSPlatformRenderer renderer = new CancellableRenderer(graphics, _decodedImages, getMetrics());
 //			System.out.println("begin render");
 			renderer.process(content, resources);
 //			System.out.println("end render");
@@ -118,34 +441,463 @@ public class PdfDocument extends Document {
 		
 		g2dOutput.setTransform(originalTransform);
 	}
-
+	
+	/**
+	 * Opens the file memory-mapped, so only the parts of it that are parsed
+	 * are read. Mapped files can't be replaced on some platforms and fail to
+	 * read if rewritten in place, so files of live reloaded documents are
+	 * read conventionally, see {@link MappedRandomAccess}.
+	 */
+	private PDDocument open() throws IOException, COSLoadException {
+		if (_liveReloadEnabled) return PDDocument.createFromLocator(new FileLocator(_file));
+		try {
+			return PDDocument.createFromLocator(new MappedFileLocator(_file));
+		} catch (IOException e) {
+			
+			// E.g. out of address space, read the file conventionally:
+			return PDDocument.createFromLocator(new FileLocator(_file));
+		}
+	}
+	
+	/**
+	 * @return An idle handle, opened if necessary, or null if the file
+	 * can't be opened again
+	 */
+	private RenderHandle acquireHandle() {
+		int generation;
+		synchronized (_idleHandles) {
+			if (!_idleHandles.isEmpty()) return _idleHandles.removeFirst();
+			generation = _handleGeneration;
+		}
+		try {
+			return new RenderHandle(open(), generation);
+		} catch (IOException e) {
+			System.err.println("PdfDocument.java: Could not open " + _file + " for rendering, rendering serially: " + e.getMessage());
+		} catch (COSLoadException e) {
+			System.err.println("PdfDocument.java: Could not open " + _file + " for rendering, rendering serially: " + e.getMessage());
+		}
+		return null;
+	}
+	
+	private void releaseHandle(RenderHandle handle) {
+		synchronized (_idleHandles) {
+			if (!_disposed && handle._generation == _handleGeneration) {
+				_idleHandles.addLast(handle);
+				return;
+			}
+		}
+		handle.close();
+	}
+	
+	/**
+	 * Closes the handles opened for rendering.
+	 */
+	@Override
+	public void dispose() {
+		super.dispose();
+		
+		List<RenderHandle> handles;
+		synchronized (_idleHandles) {
+			_disposed = true;
+			handles = new ArrayList<RenderHandle>(_idleHandles);
+			_idleHandles.clear();
+		}
+		for (RenderHandle handle : handles) {
+			handle.close();
+		}
+		_decodedImages.clear();
+		_displayLists.clear();
+	}
+	
+	/**
+	 * The fingerprint is derived from parts of the file's content on first
+	 * use, see {@link DiskRasterCache#fingerprint(File)}.
+	 */
+	@Override
+	protected String getFingerprint() {
+		if (_fingerprint == null) {
+			try {
+				_fingerprint = DiskRasterCache.fingerprint(_file);
+			} catch (IOException e) {
+				System.err.println("PdfDocument.java: Could not read " + _file + ", disk cache disabled: " + e.getMessage());
+				_fingerprint = "";
+			}
+		}
+		return (_fingerprint.length() > 0) ? _fingerprint : null;
+	}
+	
 	@Override
 	public Rectangle2D getBounds(int pageNr) {
 		if (pageNr < 0 || pageNr >= getNumberOfPages())
 			throw new IllegalArgumentException("Illegal page number: " + pageNr);
 		
-		// Load cached page data:
-		PDPage page = null;
+		int rotation = getRotation(pageNr);
+		Rectangle2D cropBox = getCropBox(pageNr);
+		
+		Rectangle2D bounds = (Rectangle2D) cropBox.clone();
+		AffineTransform transform = new AffineTransform();
+		transform.rotate(-((double)rotation) * Math.PI / 180.0);
+		bounds = transform.createTransformedShape(bounds).getBounds2D();
+		bounds.setRect(0, 0, bounds.getWidth(), bounds.getHeight());
+			
+		return bounds;
+	}
+	
+	private int getRotation(int pageNr) {
 		Integer rotation = _pageRotations.get(pageNr);
 		if (rotation == null) {
-			if (page == null) page = _pageTree.getPageAt(pageNr);
-			rotation = page.getRotate();
+			synchronized (_lock) {
+				rotation = _pageTree.getPageAt(pageNr).getRotate();
+			}
 			_pageRotations.set(pageNr, rotation);
 		}
+		return rotation;
+	}
+	
+	private Rectangle2D getCropBox(int pageNr) {
 		Rectangle2D cropBox = _pageCropBoxes.get(pageNr);
 		if (cropBox == null) {
-			if (page == null) page = _pageTree.getPageAt(pageNr);
-			cropBox = page.getCropBox().toNormalizedRectangle();
+			synchronized (_lock) {
+				cropBox = _pageTree.getPageAt(pageNr).getCropBox().toNormalizedRectangle();
+			}
 			_pageCropBoxes.set(pageNr, cropBox);
 		}
+		return cropBox;
+	}
+	
+	/**
+	 * An instance of the file for one rendering at a time, with its own
+	 * cache of parsed page content.
+	 */
+	private class RenderHandle {
+		private final PDDocument _document;
+		private final PDPageTree _pageTree;
+		private final int _generation;
+		private final ParsedPageCache _parsedPages = new ParsedPageCache();
 		
-		Rectangle2D bounds = (Rectangle2D) cropBox.clone();
-		AffineTransform transform = new AffineTransform();
-		transform.rotate(-((double)rotation) * Math.PI / 180.0);
-		bounds = transform.createTransformedShape(bounds).getBounds2D();
-		bounds.setRect(0, 0, bounds.getWidth(), bounds.getHeight());
+		public RenderHandle(PDDocument document, int generation) {
+			_document = document;
+			_pageTree = document.getPageTree();
+			_generation = generation;
+		}
+		
+		public void close() {
+			_parsedPages.clear();
+			closeDocument(_document);
+		}
+	}
+	
+	/**
+	 * The file of this document read again. Pages are matched to the pages
+	 * read before by their fingerprints, so pages that were only moved keep
+	 * their identity.
+	 */
+	public class Reload {
+		private final PDDocument _document;
+		private final int _numberOfPages;
+		private final Vector<Rectangle2D> _cropBoxes;
+		private final Vector<Integer> _rotations;
+		private final String[] _fingerprints;
+		private final int _previousNumberOfPages;
+		private final String[] _previousFingerprints;
+		private final int[] _previousPages;
+		private boolean _done = false;
+		
+		private Reload(PDDocument document) {
+			_document = document;
+			PDPageTree pageTree = document.getPageTree();
+			_numberOfPages = pageTree.getCount();
+			_cropBoxes = new Vector<Rectangle2D>(_numberOfPages);
+			_cropBoxes.setSize(_numberOfPages);
+			_rotations = new Vector<Integer>(_numberOfPages);
+			_rotations.setSize(_numberOfPages);
+			_fingerprints = fingerprintPages(pageTree, _numberOfPages, _cropBoxes, _rotations);
+			_previousNumberOfPages = PdfDocument.this._numberOfPages;
+			String[] previousFingerprints;
+			synchronized (_fingerprintLock) {
+				_previousFingerprints = _pageFingerprints;
+				previousFingerprints = _previousFingerprints.clone();
+			}
+			_previousPages = matchPages(previousFingerprints, _fingerprints);
+		}
+		
+		public int getNumberOfPages() {
+			return _numberOfPages;
+		}
+		
+		/**
+		 * @param pageNr
+		 * @return The page read before with the same content or -1, if the
+		 * page is new or changed
+		 */
+		public int getPreviousPage(int pageNr) {
+			return _previousPages[pageNr];
+		}
+		
+		/**
+		 * @return true if no page changed, moved, was added or removed
+		 */
+		public boolean isUnchanged() {
+			return getChangedPages().isEmpty();
+		}
+		
+		/**
+		 * @return The pages whose content is not the same as before, including
+		 * pages that no longer exist
+		 */
+		private Set<Integer> getChangedPages() {
+			Set<Integer> changed = new HashSet<Integer>();
+			for (int pageNr = 0; pageNr < Math.max(_numberOfPages, _previousNumberOfPages); pageNr++) {
+				if (pageNr >= _numberOfPages || _previousPages[pageNr] != pageNr) changed.add(pageNr);
+			}
+			return changed;
+		}
+		
+		/**
+		 * Replaces the document content with the content read. Changed pages
+		 * are dropped from the caches and rendered again.
+		 * 
+		 * @throws IllegalStateException The document was reloaded meanwhile
+		 */
+		public void apply() {
+			Set<Integer> changed = getChangedPages();
+			RenderHandle primaryHandle;
+			List<RenderHandle> handles;
+			synchronized (_lock) {
+				if (_done) throw new IllegalStateException("Reload applied or discarded before");
+				if (_previousFingerprints != _pageFingerprints) throw new IllegalStateException("Document reloaded meanwhile");
+				_done = true;
+				
+				synchronized (_idleHandles) {
+					if (_disposed) {
+						closeDocument(_document);
+						return;
+					}
+					_handleGeneration++;
+					handles = new ArrayList<RenderHandle>(_idleHandles);
+					_idleHandles.clear();
+				}
+				primaryHandle = _primaryHandle;
+				_primaryHandle = new RenderHandle(_document, _handleGeneration);
+				_pdDocument = _document;
+				_pageTree = _primaryHandle._pageTree;
+				_pageCropBoxes = _cropBoxes;
+				_pageRotations = _rotations;
+				setPageFingerprints(_fingerprints);
+				PdfDocument.this._numberOfPages = _numberOfPages;
+				_fingerprint = null;
+			}
+			primaryHandle.close();
+			for (RenderHandle handle : handles) {
+				handle.close();
+			}
 			
-		return bounds;
+			// Image object numbers are not the same in the file read:
+			_decodedImages.clear();
+			for (int pageNr : changed) {
+				_displayLists.remove(pageNr);
+			}
+			pagesChanged(changed);
+		}
+		
+		/**
+		 * Closes the file read, if not applied.
+		 */
+		public void discard() {
+			synchronized (_lock) {
+				if (_done) return;
+				_done = true;
+			}
+			closeDocument(_document);
+		}
+	}
+	
+	/**
+	 * Matches pages by fingerprint: A page is the same as the page at the
+	 * same position if that has the same fingerprint, or else as another
+	 * page with the same fingerprint that is not matched otherwise.
+	 * 
+	 * @param previous Fingerprints of the pages before, null if unknown. A
+	 * page not fingerprinted (null) matches no page.
+	 * @param current Fingerprints of the pages now
+	 * @return For each current page the previous page with the same content
+	 * or -1
+	 */
+	static int[] matchPages(String[] previous, String[] current) {
+		int[] previousPages = new int[current.length];
+		Arrays.fill(previousPages, -1);
+		if (previous == null) return previousPages;
+		
+		boolean[] matched = new boolean[previous.length];
+		for (int pageNr = 0; pageNr < current.length && pageNr < previous.length; pageNr++) {
+			if (current[pageNr].equals(previous[pageNr])) {
+				previousPages[pageNr] = pageNr;
+				matched[pageNr] = true;
+			}
+		}
+		
+		// Moved pages, in order:
+		Map<String, LinkedList<Integer>> unmatched = new HashMap<String, LinkedList<Integer>>();
+		for (int pageNr = 0; pageNr < previous.length; pageNr++) {
+			if (matched[pageNr] || previous[pageNr] == null) continue;
+			LinkedList<Integer> pages = unmatched.get(previous[pageNr]);
+			if (pages == null) {
+				pages = new LinkedList<Integer>();
+				unmatched.put(previous[pageNr], pages);
+			}
+			pages.add(pageNr);
+		}
+		for (int pageNr = 0; pageNr < current.length; pageNr++) {
+			if (previousPages[pageNr] >= 0) continue;
+			LinkedList<Integer> pages = unmatched.get(current[pageNr]);
+			if (pages != null && !pages.isEmpty()) previousPages[pageNr] = pages.removeFirst();
+		}
+		return previousPages;
+	}
+	
+	private static void closeDocument(PDDocument document) {
+		try {
+			document.close();
+		} catch (IOException e) {
+			// Only read from
+		}
+	}
+	
+	/**
+	 * Aborts the rendering of a cancelled page before the next content
+	 * stream operation, see {@link Document#checkCancelled()}.
+	 * 
+	 * Image XObjects are drawn from the {@link DecodedImageCache} if
+	 * decoded before. Otherwise the image jPod decodes and draws is
+	 * captured for the cache.
+	 */
+	private static class CancellableRenderer extends CSPlatformRenderer {
+		private final CapturingGraphicsContext _graphics;
+		private final DecodedImageCache _decodedImages;
+		private final RenderMetrics _metrics;
+		
+		public CancellableRenderer(CapturingGraphicsContext graphics, DecodedImageCache decodedImages, RenderMetrics metrics) {
+			super(null, graphics);
+			_graphics = graphics;
+			_decodedImages = decodedImages;
+			_metrics = metrics;
+		}
+		
+		@Override
+		protected void process(CSOperation operation) throws CSException {
+			checkCancelled();
+			
+			String key = getImageKey(operation);
+			if (key == null) {
+				super.process(operation);
+				return;
+			}
+			
+			DecodedImageCache.DecodedImage image = _decodedImages.get(key);
+			long start = System.nanoTime();
+			if (image != null) {
+				AffineTransform transform = _graphics.getTransform();
+				_graphics.transform(image.getTransform());
+				_graphics.drawImage(new CwtAwtImage(image.getImage()), 0, 0);
+				_graphics.setTransform(transform);
+				_metrics.recordDecodedImageHit(Math.max(0, image.getDecodeNanos() - (System.nanoTime() - start)));
+				return;
+			}
+			
+			AffineTransform transform = _graphics.getTransform();
+			_graphics.startCapture();
+			try {
+				super.process(operation);
+			} finally {
+				_graphics.stopCapture();
+			}
+			long nanos = System.nanoTime() - start;
+			_metrics.recordImageDecode(nanos);
+			
+			// Drawn exactly once, keep it with its transformation relative
+			// to the content:
+			BufferedImage captured = _graphics.getCapturedImage();
+			if (captured != null) {
+				try {
+					AffineTransform relative = transform.createInverse();
+					relative.concatenate(_graphics.getCapturedTransform());
+					_decodedImages.put(key, new DecodedImageCache.DecodedImage(captured, relative, nanos));
+				} catch (NoninvertibleTransformException e) {
+					// Degenerate transformation, nothing visible to cache
+				}
+			}
+		}
+		
+		/**
+		 * @return The cache key of the image XObject the operation draws or
+		 * null, if it draws no image shared by reference. Stencil masks are
+		 * not cached, since they are painted with the current color.
+		 */
+		private String getImageKey(CSOperation operation) {
+			if (!operation.matchesOperator(CSOperators.CSO_Do)) return null;
+			
+			COSObject operand = operation.getOperand(0);
+			PDResources resources = getResources();
+			if (!(operand instanceof COSName) || resources == null) return null;
+			
+			PDXObject xObject = resources.getXObjectResource((COSName) operand);
+			if (!(xObject instanceof PDImage) || ((PDImage) xObject).isImageMask()) return null;
+			
+			COSIndirectObject reference = xObject.cosGetObject().getIndirectObject();
+			if (reference == null) return null;
+			return DecodedImageCache.key(reference.getKey().getObjectNumber(), reference.getKey().getGenerationNumber());
+		}
+	}
+	
+	/**
+	 * Graphics context which, while capturing, records the image drawn and
+	 * the transformation it is drawn with. More than one image drawn
+	 * discards the capture.
+	 */
+	private static class CapturingGraphicsContext extends CwtAwtGraphicsContext {
+		private boolean _capturing = false;
+		private int _drawn;
+		private BufferedImage _capturedImage;
+		private AffineTransform _capturedTransform;
+		
+		public CapturingGraphicsContext(Graphics2D graphics) {
+			super(graphics);
+		}
+		
+		public void startCapture() {
+			_capturing = true;
+			_drawn = 0;
+			_capturedImage = null;
+			_capturedTransform = null;
+		}
+		
+		public void stopCapture() {
+			_capturing = false;
+		}
+		
+		/**
+		 * @return The image drawn while capturing or null
+		 */
+		public BufferedImage getCapturedImage() {
+			return (_drawn == 1) ? _capturedImage : null;
+		}
+		
+		public AffineTransform getCapturedTransform() {
+			return _capturedTransform;
+		}
+		
+		@Override
+		public void drawImage(IImage image, float x, float y) {
+			if (_capturing) {
+				_drawn++;
+				if (image instanceof IAwtImage) {
+					_capturedImage = ((IAwtImage) image).getBufferedImage();
+					_capturedTransform = getTransform();
+					_capturedTransform.translate(x, y);
+				}
+			}
+			super.drawImage(image, x, y);
+		}
 	}
 	
 	public static boolean isAcceptedFileName(String fileName) {
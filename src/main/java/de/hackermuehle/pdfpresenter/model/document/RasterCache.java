@@ -0,0 +1,218 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The process-wide budget for page rasters of all open documents.
+ *
+ * Before a document renders a new raster, it asks this cache for room. If the
+ * budget would be exceeded, rasters of all documents are evicted in this
+ * order:
+ *  -rasters no longer referenced by any cache entry, lowest priority first
+ *  -rasters only referenced by precache entries (entries without observer)
+ * Within the same priority, the least recently painted raster goes first.
+ * Rasters referenced by a displaying cache entry are never evicted. Rasters
+ * waiting to be written to the {@link DiskRasterCache} count towards the
+ * budget, even if also cached, as they may outlive their cache entry. Evicted
+ * pages are kept in the {@link CompressedRasterCache}, they are compressed
+ * after the lock of this cache is released.
+ */
+public class RasterCache {
+	private static final RasterCache _instance = new RasterCache();
+
+	private final Set<Document> _documents = Collections.newSetFromMap(new WeakHashMap<Document, Boolean>());
+	private volatile long _budget;
+	private volatile boolean _offHeap;
+
+	private RasterCache() {
+		_budget = Runtime.getRuntime().maxMemory() / 2;
+	}
+
+	public static RasterCache getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * @return The maximum number of bytes of all cached rasters
+	 */
+	public long getBudget() {
+		return _budget;
+	}
+
+	/**
+	 * Sets the maximum number of bytes of all cached rasters. Evicts rasters
+	 * immediately if the cache exceeds the new budget.
+	 *
+	 * @param budget Budget in bytes
+	 */
+	public void setBudget(long budget) {
+		if (budget <= 0) throw new IllegalArgumentException("budget <= 0");
+		_budget = budget;
+		ensureCapacity(0);
+	}
+
+	/**
+	 * @return true if rasters are cached outside of the Java heap
+	 */
+	public boolean isOffHeap() {
+		return _offHeap;
+	}
+
+	/**
+	 * Keeps the pixels of rasters cached from now on in the
+	 * {@link OffHeapArena}, or on the heap. Off-heap rasters don't prolong
+	 * garbage collection pauses, but have to be copied to be painted. The
+	 * direct memory of the JVM (-XX:MaxDirectMemorySize) must cover the
+	 * budget.
+	 *
+	 * @param offHeap
+	 */
+	public void setOffHeap(boolean offHeap) {
+		_offHeap = offHeap;
+	}
+
+	/**
+	 * @return The number of bytes of all cached rasters
+	 */
+	public long getSize() {
+		long size = 0;
+		for (Document document : getDocuments()) {
+			size += document.estimateCacheSize();
+		}
+		return size;
+	}
+
+	synchronized void register(Document document) {
+		_documents.add(document);
+	}
+
+	synchronized void unregister(Document document) {
+		_documents.remove(document);
+	}
+
+	/**
+	 * Evicts rasters until the given number of bytes fits into the budget,
+	 * or until only displayed rasters are left.
+	 *
+	 * @param bytes Size of a raster about to be added
+	 */
+	void ensureCapacity(long bytes) {
+		shrink(_budget - bytes);
+	}
+
+	/**
+	 * Evicts rasters until the cache is no larger than the given size, or
+	 * until only displayed rasters are left.
+	 *
+	 * @param size Size in bytes
+	 * @return The number of bytes freed
+	 */
+	long shrink(long size) {
+		
+		// Out of memory if everything has to go, don't compress then:
+		boolean compress = size > 0;
+
+		Map<Document, List<CachedRaster>> evicted = new HashMap<Document, List<CachedRaster>>();
+		long freed = evict(size, evicted);
+		for (Map.Entry<Document, List<CachedRaster>> entry : evicted.entrySet()) {
+			entry.getKey().release(entry.getValue(), compress);
+		}
+		return freed;
+	}
+
+	/**
+	 * Removes the rasters to be evicted from their documents.
+	 *
+	 * @param size Size in bytes
+	 * @param evicted Receives the removed rasters of each document
+	 * @return The number of bytes removed
+	 */
+	private synchronized long evict(long size, Map<Document, List<CachedRaster>> evicted) {
+		List<Document> documents = getDocuments();
+		long cacheSize = DiskRasterCache.getInstance().getPendingBytes();
+		for (Document document : documents) {
+			cacheSize += document.estimateCacheSize();
+		}
+		if (cacheSize <= size) return 0;
+
+		// Collect evictable rasters:
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (Document document : documents) {
+			Set<CachedRaster> displayed = new HashSet<CachedRaster>();
+			Map<CachedRaster, Integer> referenced = new HashMap<CachedRaster, Integer>();
+			document.collectReferencedRasters(displayed, referenced);
+
+			for (CachedRaster raster : document.getCachedRasters()) {
+				if (displayed.contains(raster)) continue;
+
+				Integer priority = referenced.get(raster);
+				if (priority != null) {
+					candidates.add(new Candidate(document, raster, true, priority));
+				} else {
+					candidates.add(new Candidate(document, raster, false, raster.getPriority()));
+				}
+			}
+		}
+		Collections.sort(candidates, new CandidateComparator());
+
+		long freed = 0;
+		for (Candidate candidate : candidates) {
+			if (cacheSize - freed <= size) break;
+			List<CachedRaster> removed = candidate._document.detach(candidate._raster);
+			if (removed.isEmpty()) continue;
+
+			List<CachedRaster> rasters = evicted.get(candidate._document);
+			if (rasters == null) {
+				rasters = new ArrayList<CachedRaster>();
+				evicted.put(candidate._document, rasters);
+			}
+			for (CachedRaster raster : removed) {
+				rasters.add(raster);
+				freed += raster.getBytes();
+			}
+		}
+		return freed;
+	}
+
+	synchronized List<Document> getDocuments() {
+		return new ArrayList<Document>(_documents);
+	}
+
+	private static class Candidate {
+		private final Document _document;
+		private final CachedRaster _raster;
+		private final boolean _referenced;
+		private final int _priority;
+		private final long _lastAccess;
+
+		public Candidate(Document document, CachedRaster raster, boolean referenced, int priority) {
+			_document = document;
+			_raster = raster;
+			_referenced = referenced;
+			_priority = priority;
+			_lastAccess = raster.getLastAccess();
+		}
+	}
+
+	/**
+	 * Unreferenced before referenced, low before high priority, least
+	 * recently used first.
+	 */
+	private static class CandidateComparator implements Comparator<Candidate> {
+		@Override
+		public int compare(Candidate a, Candidate b) {
+			if (a._referenced != b._referenced) return a._referenced ? 1 : -1;
+			if (a._priority != b._priority) return (a._priority < b._priority) ? -1 : 1;
+			if (a._lastAccess != b._lastAccess) return (a._lastAccess - b._lastAccess < 0) ? -1 : 1;
+			return 0;
+		}
+	}
+}
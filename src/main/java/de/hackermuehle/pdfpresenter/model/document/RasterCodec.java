@@ -0,0 +1,131 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Lossless compression of opaque page rasters.
+ *
+ * Format: a header of magic, version, width and height (big endian ints),
+ * followed by the deflated rows of the image. Each row holds red, green and
+ * blue of each pixel as the difference to the pixel on the left, which
+ * compresses the large uniform areas of slides very well.
+ */
+class RasterCodec {
+	private static final int MAGIC = 0x50505243; // "PPRC"
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private RasterCodec() {
+	}
+
+	/**
+	 * Writes the image. Alpha is discarded.
+	 *
+	 * @param image
+	 * @param output Not closed
+	 * @throws IOException
+	 */
+	public static void encode(BufferedImage image, OutputStream output) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		DataOutputStream header = new DataOutputStream(output);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeInt(width);
+		header.writeInt(height);
+		header.flush();
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			DeflaterOutputStream deflated = new DeflaterOutputStream(output, deflater, BUFFER_SIZE);
+			int[] pixels = new int[width];
+			byte[] row = new byte[3 * width];
+			for (int y = 0; y < height; y++) {
+				image.getRGB(0, y, width, 1, pixels, 0, width);
+				int previous = 0;
+				for (int x = 0, i = 0; x < width; x++) {
+					int pixel = pixels[x];
+					row[i++] = (byte) ((pixel >> 16) - (previous >> 16));
+					row[i++] = (byte) ((pixel >> 8) - (previous >> 8));
+					row[i++] = (byte) (pixel - previous);
+					previous = pixel;
+				}
+				deflated.write(row);
+			}
+			deflated.finish();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Reads an image written by {@link #encode(BufferedImage, OutputStream)}.
+	 *
+	 * @param buffer Encoded image, from the current position on
+	 * @param width Expected width
+	 * @param height Expected height
+	 * @return The image or null, if the buffer holds an image of another
+	 *         format version or size
+	 * @throws IOException if the data is corrupt
+	 */
+	public static BufferedImage decode(ByteBuffer buffer, int width, int height) throws IOException {
+		try {
+			if (buffer.getInt() != MAGIC) throw new IOException("Not a raster");
+			if (buffer.getInt() != VERSION) return null;
+			if (buffer.getInt() != width || buffer.getInt() != height) return null;
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Inflater inflater = new Inflater();
+		try {
+			byte[] input = new byte[BUFFER_SIZE];
+			byte[] row = new byte[3 * width];
+			int[] pixels = new int[width];
+			for (int y = 0; y < height; y++) {
+				int filled = 0;
+				while (filled < row.length) {
+					if (inflater.needsInput()) {
+						int length = Math.min(input.length, buffer.remaining());
+						if (length == 0) throw new EOFException();
+						buffer.get(input, 0, length);
+						inflater.setInput(input, 0, length);
+					}
+					int inflated = inflater.inflate(row, filled, row.length - filled);
+					if (inflated == 0 && (inflater.finished() || inflater.needsDictionary())) {
+						throw new EOFException();
+					}
+					filled += inflated;
+				}
+
+				int r = 0, g = 0, b = 0;
+				for (int x = 0, i = 0; x < width; x++) {
+					r = (r + row[i++]) & 0xff;
+					g = (g + row[i++]) & 0xff;
+					b = (b + row[i++]) & 0xff;
+					pixels[x] = (r << 16) | (g << 8) | b;
+				}
+
+				// Keeps the image managed (unlike writing to its data array):
+				image.getRaster().setDataElements(0, y, width, 1, pixels);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt raster", e);
+		} finally {
+			inflater.end();
+		}
+		return image;
+	}
+}
@@ -0,0 +1,171 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rasters cached for a document, indexed by page number.
+ *
+ * For each page, the rasters are kept in an array sorted by size (see
+ * {@link CachedRaster#compareSize(int, int)}). Exact lookups and "smallest
+ * raster at least this large" lookups are binary searches in this array and
+ * don't allocate.
+ *
+ * Readers never block: writers replace the array of a page and the array of
+ * all pages (copy on write), which is cheap since a page is cached in a
+ * handful of sizes only and rasters are added far less often than looked up.
+ */
+class RasterIndex {
+	private static final CachedRaster[] EMPTY = new CachedRaster[0];
+
+	private volatile CachedRaster[][] _pages = new CachedRaster[0][];
+	private volatile int _size = 0;
+
+	/**
+	 * @param pageNr
+	 * @param width
+	 * @param height
+	 * @return The raster of the given page with exactly the given dimensions
+	 *         or null, if not cached
+	 */
+	public CachedRaster get(int pageNr, int width, int height) {
+		CachedRaster[] rasters = getRasters(pageNr);
+		int index = search(rasters, width, height);
+		return (index >= 0) ? rasters[index] : null;
+	}
+
+	/**
+	 * @param pageNr
+	 * @param width
+	 * @param height
+	 * @return The smallest raster of the given page that is at least as wide
+	 *         and as high as requested or null, if none is cached
+	 */
+	public CachedRaster getLarger(int pageNr, int width, int height) {
+		CachedRaster[] rasters = getRasters(pageNr);
+		int index = search(rasters, width, height);
+		if (index < 0) index = -(index + 1);
+
+		// Rasters are ordered by width first, a wider one may still be too flat:
+		for (; index < rasters.length; index++) {
+			if (rasters[index].getHeight() >= height) return rasters[index];
+		}
+		return null;
+	}
+
+	/**
+	 * @param pageNr
+	 * @return All rasters of the given page, smallest first
+	 */
+	public List<CachedRaster> getPage(int pageNr) {
+		return Collections.unmodifiableList(Arrays.asList(getRasters(pageNr)));
+	}
+
+	/**
+	 * @return A snapshot of all cached rasters
+	 */
+	public List<CachedRaster> getAll() {
+		CachedRaster[][] pages = _pages;
+		List<CachedRaster> result = new ArrayList<CachedRaster>(_size);
+		for (CachedRaster[] rasters : pages) {
+			if (rasters != null) result.addAll(Arrays.asList(rasters));
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of cached rasters
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Adds a raster. A raster of the same page and dimensions is replaced.
+	 *
+	 * @param raster
+	 * @return The replaced raster or null
+	 */
+	public synchronized CachedRaster put(CachedRaster raster) {
+		int pageNr = raster.getPageNr();
+		CachedRaster[] rasters = getRasters(pageNr);
+		int index = search(rasters, raster.getWidth(), raster.getHeight());
+		CachedRaster[] result;
+		CachedRaster replaced = null;
+		if (index >= 0) {
+			replaced = rasters[index];
+			result = rasters.clone();
+			result[index] = raster;
+		} else {
+			index = -(index + 1);
+			result = new CachedRaster[rasters.length + 1];
+			System.arraycopy(rasters, 0, result, 0, index);
+			result[index] = raster;
+			System.arraycopy(rasters, index, result, index + 1, rasters.length - index);
+			_size++;
+		}
+		setRasters(pageNr, result);
+		return replaced;
+	}
+
+	/**
+	 * Removes the given raster, if contained.
+	 *
+	 * @param raster
+	 * @return true if the raster was removed
+	 */
+	public synchronized boolean remove(CachedRaster raster) {
+		CachedRaster[] rasters = getRasters(raster.getPageNr());
+		int index = search(rasters, raster.getWidth(), raster.getHeight());
+		if (index < 0 || rasters[index] != raster) return false;
+
+		CachedRaster[] result = EMPTY;
+		if (rasters.length > 1) {
+			result = new CachedRaster[rasters.length - 1];
+			System.arraycopy(rasters, 0, result, 0, index);
+			System.arraycopy(rasters, index + 1, result, index, rasters.length - index - 1);
+		}
+		setRasters(raster.getPageNr(), result);
+		_size--;
+		return true;
+	}
+
+	public synchronized void clear() {
+		_pages = new CachedRaster[0][];
+		_size = 0;
+	}
+
+	/**
+	 * Publishes a copy of the array of all pages, so readers never see it
+	 * modified.
+	 */
+	private void setRasters(int pageNr, CachedRaster[] rasters) {
+		CachedRaster[][] pages = Arrays.copyOf(_pages, Math.max(pageNr + 1, _pages.length));
+		pages[pageNr] = rasters;
+		_pages = pages;
+	}
+
+	private CachedRaster[] getRasters(int pageNr) {
+		CachedRaster[][] pages = _pages;
+		if (pageNr < 0 || pageNr >= pages.length || pages[pageNr] == null) return EMPTY;
+		return pages[pageNr];
+	}
+
+	/**
+	 * Binary search, see {@link Arrays#binarySearch(Object[], Object)}.
+	 */
+	private static int search(CachedRaster[] rasters, int width, int height) {
+		int low = 0;
+		int high = rasters.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = rasters[middle].compareSize(width, height);
+			if (comparison < 0) low = middle + 1;
+			else if (comparison > 0) high = middle - 1;
+			else return middle;
+		}
+		return -(low + 1);
+	}
+}
@@ -0,0 +1,563 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Graphics which record what is drawn into a {@link DisplayList} instead
+ * of rasterizing it.
+ *
+ * The graphics state is kept by the graphics of a 1x1 image, which also
+ * answers queries such as font metrics. Shapes are copied, since callers
+ * may reuse them.
+ */
+class RecordingGraphics2D extends Graphics2D {
+	private static final int STATE_BYTES = 200;
+	private static final int COMMAND_BYTES = 32;
+	private static final int GLYPH_BYTES = 48;
+
+	private final Recording _recording;
+	private final Graphics2D _state;
+	private Color _xorColor = null;
+	private Map<RenderingHints.Key, Object> _hints; // set while recording
+	private DisplayList.GraphicsState _snapshot = null; // null if changed
+
+	/**
+	 * @param g2d Graphics to take the initial paint, stroke, font and
+	 *        composite from
+	 */
+	public RecordingGraphics2D(Graphics2D g2d) {
+		_recording = new Recording();
+		_state = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+		_state.setPaint(g2d.getPaint());
+		_state.setStroke(g2d.getStroke());
+		_state.setFont(g2d.getFont());
+		_state.setComposite(g2d.getComposite());
+		_state.setBackground(g2d.getBackground());
+		_hints = new HashMap<RenderingHints.Key, Object>();
+	}
+
+	private RecordingGraphics2D(RecordingGraphics2D parent) {
+		_recording = parent._recording;
+		_state = (Graphics2D) parent._state.create();
+		_xorColor = parent._xorColor;
+		_hints = new HashMap<RenderingHints.Key, Object>(parent._hints);
+	}
+
+	/**
+	 * @return The primitives recorded so far
+	 */
+	public DisplayList getDisplayList() {
+		synchronized (_recording) {
+			return new DisplayList(_recording._commands, _recording._bytes);
+		}
+	}
+
+	private DisplayList.GraphicsState snapshot() {
+		if (_snapshot == null) {
+			Shape clip = _state.getClip();
+			_snapshot = new DisplayList.GraphicsState(_state.getTransform(), (clip != null) ? copy(clip) : null,
+					_state.getPaint(), _state.getStroke(), _state.getComposite(), _xorColor, _state.getFont(),
+					_state.getBackground(), new HashMap<RenderingHints.Key, Object>(_hints));
+			_recording.add(null, STATE_BYTES + _hints.size() * COMMAND_BYTES);
+		}
+		return _snapshot;
+	}
+
+	private void changed() {
+		_snapshot = null;
+	}
+
+	/**
+	 * Copies the shape into a path and counts its bytes.
+	 */
+	private Shape copy(Shape shape) {
+		Path2D.Float path = new Path2D.Float(shape);
+		_recording.add(null, countBytes(path));
+		return path;
+	}
+
+	private static long countBytes(Shape path) {
+		long bytes = COMMAND_BYTES;
+		float[] coords = new float[6];
+		for (PathIterator iterator = path.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+			switch (iterator.currentSegment(coords)) {
+			case PathIterator.SEG_CUBICTO:
+				bytes += 1 + 6 * 4;
+				break;
+			case PathIterator.SEG_QUADTO:
+				bytes += 1 + 4 * 4;
+				break;
+			case PathIterator.SEG_CLOSE:
+				bytes += 1;
+				break;
+			default:
+				bytes += 1 + 2 * 4;
+			}
+		}
+		return bytes;
+	}
+
+	private void record(DisplayList.Command command, long bytes) {
+		_recording.add(command, COMMAND_BYTES + bytes);
+	}
+
+	/**
+	 * The commands shared by the graphics created from each other.
+	 */
+	private static class Recording {
+		private final List<DisplayList.Command> _commands = new ArrayList<DisplayList.Command>();
+		private long _bytes;
+
+		synchronized void add(DisplayList.Command command, long bytes) {
+			if (command != null) _commands.add(command);
+			_bytes += bytes;
+		}
+	}
+
+	// Primitives:
+
+	@Override
+	public void draw(Shape s) {
+		DisplayList.GraphicsState state = snapshot();
+		record(new DisplayList.Draw(state, copy(s)), 0);
+	}
+
+	@Override
+	public void fill(Shape s) {
+		DisplayList.GraphicsState state = snapshot();
+		record(new DisplayList.Fill(state, copy(s)), 0);
+	}
+
+	@Override
+	public void drawGlyphVector(GlyphVector g, float x, float y) {
+		record(new DisplayList.Glyphs(snapshot(), g, x, y), (long) g.getNumGlyphs() * GLYPH_BYTES);
+	}
+
+	@Override
+	public void drawString(String str, int x, int y) {
+		drawString(str, (float) x, (float) y);
+	}
+
+	@Override
+	public void drawString(String str, float x, float y) {
+		drawGlyphVector(_state.getFont().createGlyphVector(_state.getFontRenderContext(), str), x, y);
+	}
+
+	@Override
+	public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+		drawString(iterator, (float) x, (float) y);
+	}
+
+	@Override
+	public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+		TextLayout layout = new TextLayout(iterator, _state.getFontRenderContext());
+		fill(layout.getOutline(AffineTransform.getTranslateInstance(x, y)));
+	}
+
+	@Override
+	public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+		AffineTransform transform = (xform != null) ? new AffineTransform(xform) : new AffineTransform();
+		record(new DisplayList.DrawImage(snapshot(), img, transform), DisplayList.bytes(img));
+		return true;
+	}
+
+	@Override
+	public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+		BufferedImage filtered = (op != null) ? op.filter(img, null) : img;
+		drawImage(filtered, AffineTransform.getTranslateInstance(x, y), null);
+	}
+
+	@Override
+	public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+		long bytes = 4L * img.getWidth() * img.getHeight();
+		record(new DisplayList.DrawRenderedImage(snapshot(), img, new AffineTransform(xform)), bytes);
+	}
+
+	@Override
+	public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+		record(new DisplayList.DrawRenderableImage(snapshot(), img, new AffineTransform(xform)), 0);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+		return drawImage(img, AffineTransform.getTranslateInstance(x, y), observer);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+		int width = img.getWidth(null);
+		int height = img.getHeight(null);
+		if (width < 0 || height < 0) return false;
+		return drawImage(img, x, y, x + width, y + height, 0, 0, width, height, bgcolor, observer);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+		return drawImage(img, x, y, width, height, null, observer);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+		int imageWidth = img.getWidth(null);
+		int imageHeight = img.getHeight(null);
+		if (imageWidth < 0 || imageHeight < 0) return false;
+		return drawImage(img, x, y, x + width, y + height, 0, 0, imageWidth, imageHeight, bgcolor, observer);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+			ImageObserver observer) {
+		return drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null, observer);
+	}
+
+	@Override
+	public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+			Color bgcolor, ImageObserver observer) {
+		record(new DisplayList.DrawImageRect(snapshot(), img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor),
+				DisplayList.bytes(img));
+		return true;
+	}
+
+	@Override
+	public void clearRect(int x, int y, int width, int height) {
+		record(new DisplayList.ClearRect(snapshot(), x, y, width, height), 0);
+	}
+
+	@Override
+	public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+		// Nothing rasterized to copy
+	}
+
+	@Override
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		draw(new Line2D.Float(x1, y1, x2, y2));
+	}
+
+	@Override
+	public void fillRect(int x, int y, int width, int height) {
+		fill(new Rectangle(x, y, width, height));
+	}
+
+	@Override
+	public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+		draw(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+	}
+
+	@Override
+	public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+		fill(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+	}
+
+	@Override
+	public void drawOval(int x, int y, int width, int height) {
+		draw(new Ellipse2D.Float(x, y, width, height));
+	}
+
+	@Override
+	public void fillOval(int x, int y, int width, int height) {
+		fill(new Ellipse2D.Float(x, y, width, height));
+	}
+
+	@Override
+	public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+		draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+	}
+
+	@Override
+	public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+		fill(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+	}
+
+	@Override
+	public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+		if (nPoints <= 0) return;
+		Path2D.Float path = new Path2D.Float();
+		path.moveTo(xPoints[0], yPoints[0]);
+		for (int i = 1; i < nPoints; i++) {
+			path.lineTo(xPoints[i], yPoints[i]);
+		}
+		draw(path);
+	}
+
+	@Override
+	public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+		draw(new Polygon(xPoints, yPoints, nPoints));
+	}
+
+	@Override
+	public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+		fill(new Polygon(xPoints, yPoints, nPoints));
+	}
+
+	// Graphics state:
+
+	@Override
+	public Graphics create() {
+		return new RecordingGraphics2D(this);
+	}
+
+	@Override
+	public void dispose() {
+		_state.dispose();
+	}
+
+	@Override
+	public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+		return _state.hit(rect, s, onStroke);
+	}
+
+	@Override
+	public GraphicsConfiguration getDeviceConfiguration() {
+		return _state.getDeviceConfiguration();
+	}
+
+	@Override
+	public FontRenderContext getFontRenderContext() {
+		return _state.getFontRenderContext();
+	}
+
+	@Override
+	public FontMetrics getFontMetrics(Font f) {
+		return _state.getFontMetrics(f);
+	}
+
+	@Override
+	public void setComposite(Composite comp) {
+		_state.setComposite(comp);
+		changed();
+	}
+
+	@Override
+	public Composite getComposite() {
+		return _state.getComposite();
+	}
+
+	@Override
+	public void setPaint(Paint paint) {
+		_state.setPaint(paint);
+		changed();
+	}
+
+	@Override
+	public Paint getPaint() {
+		return _state.getPaint();
+	}
+
+	@Override
+	public void setColor(Color c) {
+		_state.setColor(c);
+		changed();
+	}
+
+	@Override
+	public Color getColor() {
+		return _state.getColor();
+	}
+
+	@Override
+	public void setPaintMode() {
+		_state.setPaintMode();
+		_xorColor = null;
+		changed();
+	}
+
+	@Override
+	public void setXORMode(Color c1) {
+		_state.setXORMode(c1);
+		_xorColor = c1;
+		changed();
+	}
+
+	@Override
+	public void setStroke(Stroke s) {
+		_state.setStroke(s);
+		changed();
+	}
+
+	@Override
+	public Stroke getStroke() {
+		return _state.getStroke();
+	}
+
+	@Override
+	public void setFont(Font font) {
+		_state.setFont(font);
+		changed();
+	}
+
+	@Override
+	public Font getFont() {
+		return _state.getFont();
+	}
+
+	@Override
+	public void setBackground(Color color) {
+		_state.setBackground(color);
+		changed();
+	}
+
+	@Override
+	public Color getBackground() {
+		return _state.getBackground();
+	}
+
+	@Override
+	public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+		_state.setRenderingHint(hintKey, hintValue);
+		_hints.put(hintKey, hintValue);
+		changed();
+	}
+
+	@Override
+	public Object getRenderingHint(RenderingHints.Key hintKey) {
+		return _state.getRenderingHint(hintKey);
+	}
+
+	@Override
+	public void setRenderingHints(Map<?, ?> hints) {
+		_state.setRenderingHints(hints);
+		_hints.clear();
+		addHints(hints);
+		changed();
+	}
+
+	@Override
+	public void addRenderingHints(Map<?, ?> hints) {
+		_state.addRenderingHints(hints);
+		addHints(hints);
+		changed();
+	}
+
+	private void addHints(Map<?, ?> hints) {
+		for (Map.Entry<?, ?> hint : hints.entrySet()) {
+			if (hint.getKey() instanceof RenderingHints.Key) {
+				_hints.put((RenderingHints.Key) hint.getKey(), hint.getValue());
+			}
+		}
+	}
+
+	@Override
+	public RenderingHints getRenderingHints() {
+		return _state.getRenderingHints();
+	}
+
+	@Override
+	public void translate(int x, int y) {
+		_state.translate(x, y);
+		changed();
+	}
+
+	@Override
+	public void translate(double tx, double ty) {
+		_state.translate(tx, ty);
+		changed();
+	}
+
+	@Override
+	public void rotate(double theta) {
+		_state.rotate(theta);
+		changed();
+	}
+
+	@Override
+	public void rotate(double theta, double x, double y) {
+		_state.rotate(theta, x, y);
+		changed();
+	}
+
+	@Override
+	public void scale(double sx, double sy) {
+		_state.scale(sx, sy);
+		changed();
+	}
+
+	@Override
+	public void shear(double shx, double shy) {
+		_state.shear(shx, shy);
+		changed();
+	}
+
+	@Override
+	public void transform(AffineTransform Tx) {
+		_state.transform(Tx);
+		changed();
+	}
+
+	@Override
+	public void setTransform(AffineTransform Tx) {
+		_state.setTransform(Tx);
+		changed();
+	}
+
+	@Override
+	public AffineTransform getTransform() {
+		return _state.getTransform();
+	}
+
+	@Override
+	public void clip(Shape s) {
+		_state.clip(s);
+		changed();
+	}
+
+	@Override
+	public Shape getClip() {
+		return _state.getClip();
+	}
+
+	@Override
+	public Rectangle getClipBounds() {
+		return _state.getClipBounds();
+	}
+
+	@Override
+	public void clipRect(int x, int y, int width, int height) {
+		_state.clipRect(x, y, width, height);
+		changed();
+	}
+
+	@Override
+	public void setClip(int x, int y, int width, int height) {
+		_state.setClip(x, y, width, height);
+		changed();
+	}
+
+	@Override
+	public void setClip(Shape clip) {
+		_state.setClip(clip);
+		changed();
+	}
+}
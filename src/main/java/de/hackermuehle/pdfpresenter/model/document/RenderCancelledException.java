@@ -0,0 +1,13 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+/**
+ * Aborts the rendering of a page whose render job has been cancelled, see
+ * {@link Document#checkCancelled()}.
+ */
+public class RenderCancelledException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public RenderCancelledException() {
+		super("Rendering cancelled");
+	}
+}
@@ -0,0 +1,42 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+/**
+ * A page of a document waiting to be rendered into the cache by the
+ * {@link RenderScheduler}.
+ *
+ * Jobs of higher priority (see {@link Document#PRIO_MAIN} etc.) are rendered
+ * first, bigger images before smaller ones within the same priority.
+ */
+abstract class RenderJob {
+
+	// Bookkeeping of the RenderQueue:
+	int _queueIndex = -1;
+	int _queuedPriority;
+	long _queuedPixelCount;
+	long _sequence;
+
+	/**
+	 * @return The document to render the page of
+	 */
+	public abstract Document getDocument();
+
+	public abstract int getPriority();
+
+	/**
+	 * @return The number of pixels of the rendered image
+	 */
+	public abstract long getPixelCount();
+
+	/**
+	 * Renders the page. Called by a worker thread of the scheduler.
+	 */
+	public abstract void render();
+
+	/**
+	 * @return true if the page being rendered is no longer needed and the
+	 *         rendering should be aborted
+	 */
+	public boolean isCancelled() {
+		return false;
+	}
+}
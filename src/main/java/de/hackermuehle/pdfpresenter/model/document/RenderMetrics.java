@@ -0,0 +1,547 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Cache and render counters of a document, or of all documents (see
+ * {@link #getGlobal()}). Registered as MBean while the document is in use.
+ *
+ * Counters are lock free and recording doesn't allocate, so the metrics
+ * are always on. Render latencies are counted in buckets of powers of two
+ * milliseconds.
+ */
+public class RenderMetrics implements RenderMetricsMBean {
+	private static final String DOMAIN = "de.hackermuehle.pdfpresenter";
+	private static final int BUCKETS = 16; // < 1 ms, < 2 ms, < 4 ms, ..., >= 16 s
+	private static final long FRAME_BUDGET_NANOS = 16000000; // 60 frames per second
+	private static final RenderMetrics _global = new RenderMetrics(null);
+
+	static {
+		_global.register("global");
+	}
+
+	private final Document _document;
+	private final AtomicLong _exactHits = new AtomicLong();
+	private final AtomicLong _largerHits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _renders = new AtomicLong();
+	private final AtomicLong _renderNanos = new AtomicLong();
+	private final AtomicLong _cancelledRenders = new AtomicLong();
+	private final AtomicLong _sharedRenders = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+	private final AtomicLong _outOfMemoryFallbacks = new AtomicLong();
+	private final AtomicLongArray _histogram = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _edtPaints = new AtomicLong();
+	private final AtomicLong _edtPaintNanos = new AtomicLong();
+	private final AtomicLong _maxEdtPaintNanos = new AtomicLong();
+	private final AtomicLong _edtPaintsOverBudget = new AtomicLong();
+	private final AtomicLongArray _edtPaintHistogram = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _placeholders = new AtomicLong();
+	private final AtomicLong _firstPaintNanos = new AtomicLong(-1);
+	private final AtomicLong _parses = new AtomicLong();
+	private final AtomicLong _parseNanos = new AtomicLong();
+	private final AtomicLong _parsedHits = new AtomicLong();
+	private final AtomicLong _imageDecodes = new AtomicLong();
+	private final AtomicLong _imageDecodeNanos = new AtomicLong();
+	private final AtomicLong _decodedImageHits = new AtomicLong();
+	private final AtomicLong _savedDecodeNanos = new AtomicLong();
+	private final AtomicLong _displayListReplays = new AtomicLong();
+	private final AtomicLong _deduplicatedRenders = new AtomicLong();
+	private final AtomicLong _deltaRenders = new AtomicLong();
+	private volatile AtomicLongArray _pageHistograms; // BUCKETS per page, allocated on first render
+	private ObjectName _name;
+
+	/**
+	 * @param document The document to count for, null for the global metrics
+	 */
+	RenderMetrics(Document document) {
+		_document = document;
+	}
+
+	/**
+	 * @return The metrics of all documents
+	 */
+	public static RenderMetrics getGlobal() {
+		return _global;
+	}
+
+	void recordExactHit() {
+		_exactHits.incrementAndGet();
+		if (this != _global) _global.recordExactHit();
+	}
+
+	void recordLargerHit() {
+		_largerHits.incrementAndGet();
+		if (this != _global) _global.recordLargerHit();
+	}
+
+	void recordMiss() {
+		_misses.incrementAndGet();
+		if (this != _global) _global.recordMiss();
+	}
+
+	/**
+	 * @param pageNr
+	 * @param nanos Duration of the rendering
+	 */
+	void recordRender(int pageNr, long nanos) {
+		_renders.incrementAndGet();
+		_renderNanos.addAndGet(nanos);
+		int bucket = bucket(nanos);
+		_histogram.incrementAndGet(bucket);
+
+		if (_document != null) {
+			AtomicLongArray pageHistograms = getPageHistograms();
+			if (pageNr >= 0 && (pageNr + 1) * BUCKETS <= pageHistograms.length()) {
+				pageHistograms.incrementAndGet(pageNr * BUCKETS + bucket);
+			}
+		}
+		if (this != _global) _global.recordRender(pageNr, nanos);
+	}
+
+	/**
+	 * @param nanos Time spent painting a page on the event dispatch thread
+	 */
+	void recordEdtPaint(long nanos) {
+		_edtPaints.incrementAndGet();
+		_edtPaintNanos.addAndGet(nanos);
+		_edtPaintHistogram.incrementAndGet(bucket(nanos));
+		if (nanos > FRAME_BUDGET_NANOS) _edtPaintsOverBudget.incrementAndGet();
+		long max;
+		do {
+			max = _maxEdtPaintNanos.get();
+		} while (nanos > max && !_maxEdtPaintNanos.compareAndSet(max, nanos));
+		if (this != _global) _global.recordEdtPaint(nanos);
+	}
+
+	/**
+	 * Records the time from opening the document to the first page painted
+	 * on the event dispatch thread, not counting placeholders. Later calls are ignored, except by the
+	 * global metrics which keep the time of the document opened last.
+	 *
+	 * @param nanos
+	 */
+	void recordFirstPaint(long nanos) {
+		if (this == _global) {
+			_firstPaintNanos.set(nanos);
+		} else if (_firstPaintNanos.get() < 0 && _firstPaintNanos.compareAndSet(-1, nanos)) {
+			_global.recordFirstPaint(nanos);
+		}
+	}
+
+	/**
+	 * @param nanos Time spent parsing the content of a page for rendering
+	 */
+	void recordParse(long nanos) {
+		_parses.incrementAndGet();
+		_parseNanos.addAndGet(nanos);
+		if (this != _global) _global.recordParse(nanos);
+	}
+
+	/**
+	 * Counts a rendering that reused the parsed content of a page.
+	 */
+	void recordParsedHit() {
+		_parsedHits.incrementAndGet();
+		if (this != _global) _global.recordParsedHit();
+	}
+
+	/**
+	 * @param nanos Time spent decoding and drawing an image XObject
+	 */
+	void recordImageDecode(long nanos) {
+		_imageDecodes.incrementAndGet();
+		_imageDecodeNanos.addAndGet(nanos);
+		if (this != _global) _global.recordImageDecode(nanos);
+	}
+
+	/**
+	 * Counts an image XObject drawn from the {@link DecodedImageCache}.
+	 *
+	 * @param savedNanos Decode time minus the time it took to draw the
+	 * cached image
+	 */
+	void recordDecodedImageHit(long savedNanos) {
+		_decodedImageHits.incrementAndGet();
+		_savedDecodeNanos.addAndGet(savedNanos);
+		if (this != _global) _global.recordDecodedImageHit(savedNanos);
+	}
+
+	/**
+	 * Counts a rendering that replayed the display list of a page.
+	 */
+	void recordDisplayListReplay() {
+		_displayListReplays.incrementAndGet();
+		if (this != _global) _global.recordDisplayListReplay();
+	}
+
+	/**
+	 * Counts a page whose raster was rendered for an identical page.
+	 */
+	void recordDeduplicatedRender() {
+		_deduplicatedRenders.incrementAndGet();
+		if (this != _global) _global.recordDeduplicatedRender();
+	}
+
+	/**
+	 * Counts a page rendered on top of a neighbour's raster.
+	 */
+	void recordDeltaRender() {
+		_deltaRenders.incrementAndGet();
+		if (this != _global) _global.recordDeltaRender();
+	}
+
+	void recordPlaceholder() {
+		_placeholders.incrementAndGet();
+		if (this != _global) _global.recordPlaceholder();
+	}
+
+	void recordCancelledRender() {
+		_cancelledRenders.incrementAndGet();
+		if (this != _global) _global.recordCancelledRender();
+	}
+
+	/**
+	 * Counts a render that was saved, since an identical render was in
+	 * progress.
+	 */
+	void recordSharedRender() {
+		_sharedRenders.incrementAndGet();
+		if (this != _global) _global.recordSharedRender();
+	}
+
+	void recordEviction() {
+		_evictions.incrementAndGet();
+		if (this != _global) _global.recordEviction();
+	}
+
+	void recordOutOfMemoryFallback() {
+		_outOfMemoryFallbacks.incrementAndGet();
+		if (this != _global) _global.recordOutOfMemoryFallback();
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server. Does nothing
+	 * if already registered.
+	 *
+	 * @param name Distinguishes the metrics of several documents
+	 */
+	synchronized void register(String name) {
+		if (_name != null) return;
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=RenderMetrics,name=" + ObjectName.quote(name));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) return;
+			server.registerMBean(this, objectName);
+			_name = objectName;
+		} catch (JMException e) {
+			System.err.println("RenderMetrics.java: Could not register metrics " + name + ": " + e.getMessage());
+		}
+	}
+
+	synchronized void unregister() {
+		if (_name == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(_name);
+		} catch (JMException e) {
+			// Already unregistered
+		}
+		_name = null;
+	}
+
+	@Override
+	public long getExactHits() {
+		return _exactHits.get();
+	}
+
+	@Override
+	public long getLargerHits() {
+		return _largerHits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return _misses.get();
+	}
+
+	@Override
+	public long getRenders() {
+		return _renders.get();
+	}
+
+	@Override
+	public long getCancelledRenders() {
+		return _cancelledRenders.get();
+	}
+
+	@Override
+	public long getSharedRenders() {
+		return _sharedRenders.get();
+	}
+
+	@Override
+	public long getEvictions() {
+		return _evictions.get();
+	}
+
+	@Override
+	public long getOutOfMemoryFallbacks() {
+		return _outOfMemoryFallbacks.get();
+	}
+
+	@Override
+	public long getCachedBytes() {
+		return (_document != null) ? _document.estimateCacheSize() : RasterCache.getInstance().getSize();
+	}
+
+	@Override
+	public double getMeanRenderMillis() {
+		long renders = _renders.get();
+		return (renders > 0) ? _renderNanos.get() / 1e6 / renders : 0;
+	}
+
+	@Override
+	public String[] getHistogramBuckets() {
+		String[] buckets = new String[BUCKETS];
+		for (int i = 0; i < BUCKETS - 1; i++) {
+			buckets[i] = "< " + (1 << i) + " ms";
+		}
+		buckets[BUCKETS - 1] = ">= " + (1 << (BUCKETS - 2)) + " ms";
+		return buckets;
+	}
+
+	@Override
+	public long[] getRenderLatencyHistogram() {
+		return toArray(_histogram, 0);
+	}
+
+	@Override
+	public long[] getPageRenderLatencyHistogram(int pageNr) {
+		if (_document == null) return new long[0];
+		AtomicLongArray pageHistograms = getPageHistograms();
+		if (pageNr < 0 || (pageNr + 1) * BUCKETS > pageHistograms.length()) {
+			throw new IllegalArgumentException("No page " + pageNr);
+		}
+		return toArray(pageHistograms, pageNr * BUCKETS);
+	}
+
+	@Override
+	public long getEdtPaints() {
+		return _edtPaints.get();
+	}
+
+	@Override
+	public double getMeanEdtPaintMillis() {
+		long paints = _edtPaints.get();
+		return (paints > 0) ? _edtPaintNanos.get() / 1e6 / paints : 0;
+	}
+
+	@Override
+	public double getMaxEdtPaintMillis() {
+		return _maxEdtPaintNanos.get() / 1e6;
+	}
+
+	@Override
+	public long getEdtPaintsOverFrameBudget() {
+		return _edtPaintsOverBudget.get();
+	}
+
+	@Override
+	public long[] getEdtPaintLatencyHistogram() {
+		return toArray(_edtPaintHistogram, 0);
+	}
+
+	@Override
+	public double getOpenToFirstPaintMillis() {
+		long nanos = _firstPaintNanos.get();
+		return (nanos >= 0) ? nanos / 1e6 : -1;
+	}
+
+	@Override
+	public long getParses() {
+		return _parses.get();
+	}
+
+	@Override
+	public double getMeanParseMillis() {
+		long parses = _parses.get();
+		return (parses > 0) ? _parseNanos.get() / 1e6 / parses : 0;
+	}
+
+	@Override
+	public long getParsedHits() {
+		return _parsedHits.get();
+	}
+
+	@Override
+	public long getParsedBytes() {
+		return ParsedPageCache.getSize();
+	}
+
+	@Override
+	public long getImageDecodes() {
+		return _imageDecodes.get();
+	}
+
+	@Override
+	public double getMeanImageDecodeMillis() {
+		long decodes = _imageDecodes.get();
+		return (decodes > 0) ? _imageDecodeNanos.get() / 1e6 / decodes : 0;
+	}
+
+	@Override
+	public long getDecodedImageHits() {
+		return _decodedImageHits.get();
+	}
+
+	@Override
+	public double getImageDecodeMillisSaved() {
+		return _savedDecodeNanos.get() / 1e6;
+	}
+
+	@Override
+	public long getDecodedImageBytes() {
+		return DecodedImageCache.getSize();
+	}
+
+	@Override
+	public long getDisplayListReplays() {
+		return _displayListReplays.get();
+	}
+
+	@Override
+	public long getDisplayListBytes() {
+		return DisplayListCache.getSize();
+	}
+
+	@Override
+	public long getDeduplicatedRenders() {
+		return _deduplicatedRenders.get();
+	}
+
+	@Override
+	public double getDeduplicatedRenderMillisSaved() {
+		return _deduplicatedRenders.get() * getMeanRenderMillis();
+	}
+
+	@Override
+	public long getDeduplicatedBytes() {
+		if (_document != null) return _document.estimateDeduplicatedBytes();
+		long bytes = 0;
+		for (Document document : RasterCache.getInstance().getDocuments()) {
+			bytes += document.estimateDeduplicatedBytes();
+		}
+		return bytes;
+	}
+
+	@Override
+	public long getDeltaRenders() {
+		return _deltaRenders.get();
+	}
+
+	@Override
+	public long getPatchedBytes() {
+		if (_document != null) return _document.estimatePatchedBytes();
+		long bytes = 0;
+		for (Document document : RasterCache.getInstance().getDocuments()) {
+			bytes += document.estimatePatchedBytes();
+		}
+		return bytes;
+	}
+
+	@Override
+	public long getPlaceholders() {
+		return _placeholders.get();
+	}
+
+	@Override
+	public int getQueuedReRenders() {
+		return RenderScheduler.getInstance().getQueueDepths(_document)[0];
+	}
+
+	@Override
+	public int getQueuedThumbnails() {
+		return RenderScheduler.getInstance().getQueueDepths(_document)[1];
+	}
+
+	@Override
+	public int getQueuedPrecache() {
+		return RenderScheduler.getInstance().getQueueDepths(_document)[2];
+	}
+
+	@Override
+	public int getQueuedDisplayed() {
+		return RenderScheduler.getInstance().getQueueDepths(_document)[3];
+	}
+
+	@Override
+	public void reset() {
+		_exactHits.set(0);
+		_largerHits.set(0);
+		_misses.set(0);
+		_renders.set(0);
+		_renderNanos.set(0);
+		_cancelledRenders.set(0);
+		_sharedRenders.set(0);
+		_evictions.set(0);
+		_outOfMemoryFallbacks.set(0);
+		for (int i = 0; i < BUCKETS; i++) _histogram.set(i, 0);
+		_edtPaints.set(0);
+		_edtPaintNanos.set(0);
+		_maxEdtPaintNanos.set(0);
+		_edtPaintsOverBudget.set(0);
+		for (int i = 0; i < BUCKETS; i++) _edtPaintHistogram.set(i, 0);
+		_placeholders.set(0);
+		_parses.set(0);
+		_parseNanos.set(0);
+		_parsedHits.set(0);
+		_imageDecodes.set(0);
+		_imageDecodeNanos.set(0);
+		_decodedImageHits.set(0);
+		_savedDecodeNanos.set(0);
+		_displayListReplays.set(0);
+		_deduplicatedRenders.set(0);
+		_deltaRenders.set(0);
+		AtomicLongArray pageHistograms = _pageHistograms;
+		if (pageHistograms != null) {
+			for (int i = 0; i < pageHistograms.length(); i++) pageHistograms.set(i, 0);
+		}
+	}
+
+	private AtomicLongArray getPageHistograms() {
+		AtomicLongArray pageHistograms = _pageHistograms;
+		if (pageHistograms == null) {
+			synchronized (this) {
+				pageHistograms = _pageHistograms;
+				if (pageHistograms == null) {
+					pageHistograms = new AtomicLongArray(_document.getNumberOfPages() * BUCKETS);
+					_pageHistograms = pageHistograms;
+				}
+			}
+		}
+		return pageHistograms;
+	}
+
+	/**
+	 * @return The bucket of the duration: 0 for less than 1 ms, i for less
+	 *         than 2^i ms
+	 */
+	static int bucket(long nanos) {
+		long millis = nanos / 1000000;
+		return Math.min(64 - Long.numberOfLeadingZeros(millis), BUCKETS - 1);
+	}
+
+	private static long[] toArray(AtomicLongArray array, int offset) {
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			result[i] = array.get(offset + i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,191 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+/**
+ * Management interface of {@link RenderMetrics}, e.g. for jconsole.
+ */
+public interface RenderMetricsMBean {
+
+	/**
+	 * @return The number of pages painted from a raster of exactly the
+	 *         painted size
+	 */
+	public long getExactHits();
+
+	/**
+	 * @return The number of pages painted scaled down from a larger raster
+	 */
+	public long getLargerHits();
+
+	/**
+	 * @return The number of pages painted from a smaller raster or rendered
+	 *         while painting
+	 */
+	public long getMisses();
+
+	public long getRenders();
+
+	public long getCancelledRenders();
+
+	/**
+	 * @return The number of renders saved, since views requested a page in
+	 *         the same size while it was being rendered
+	 */
+	public long getSharedRenders();
+
+	public long getEvictions();
+
+	/**
+	 * @return The number of times the cache was emptied because the heap
+	 *         ran out
+	 */
+	public long getOutOfMemoryFallbacks();
+
+	public long getCachedBytes();
+
+	public double getMeanRenderMillis();
+
+	/**
+	 * @return Upper bounds of the histogram buckets, see
+	 *         {@link #getRenderLatencyHistogram()}
+	 */
+	public String[] getHistogramBuckets();
+
+	/**
+	 * @return The number of renders per latency bucket
+	 */
+	public long[] getRenderLatencyHistogram();
+
+	/**
+	 * @param pageNr
+	 * @return The number of renders of the page per latency bucket, empty
+	 *         for the global metrics
+	 */
+	public long[] getPageRenderLatencyHistogram(int pageNr);
+
+	/**
+	 * @return The number of pages painted on the event dispatch thread
+	 */
+	public long getEdtPaints();
+
+	public double getMeanEdtPaintMillis();
+
+	public double getMaxEdtPaintMillis();
+
+	/**
+	 * @return The number of pages whose painting on the event dispatch
+	 *         thread took longer than a frame (16 ms)
+	 */
+	public long getEdtPaintsOverFrameBudget();
+
+	/**
+	 * @return The number of paints on the event dispatch thread per latency
+	 *         bucket
+	 */
+	public long[] getEdtPaintLatencyHistogram();
+
+	/**
+	 * @return Milliseconds from opening the document until its first page
+	 *         was painted, -1 if not painted yet. For the global metrics,
+	 *         of the document opened last.
+	 */
+	public double getOpenToFirstPaintMillis();
+
+	/**
+	 * @return The number of times the content of a page was parsed for
+	 *         rendering
+	 */
+	public long getParses();
+
+	public double getMeanParseMillis();
+
+	/**
+	 * @return The number of renderings that reused parsed content
+	 */
+	public long getParsedHits();
+
+	/**
+	 * @return The estimated size of the parsed content of all documents
+	 */
+	public long getParsedBytes();
+
+	/**
+	 * @return The number of times an image XObject was decoded for
+	 *         rendering
+	 */
+	public long getImageDecodes();
+
+	public double getMeanImageDecodeMillis();
+
+	/**
+	 * @return The number of image XObjects drawn from already decoded
+	 *         images
+	 */
+	public long getDecodedImageHits();
+
+	/**
+	 * @return Decode time saved by drawing already decoded images
+	 */
+	public double getImageDecodeMillisSaved();
+
+	/**
+	 * @return The size of the decoded images of all documents
+	 */
+	public long getDecodedImageBytes();
+
+	/**
+	 * @return The number of renderings that replayed a display list instead
+	 *         of interpreting the page content
+	 */
+	public long getDisplayListReplays();
+
+	/**
+	 * @return The estimated size of the display lists of all documents
+	 */
+	public long getDisplayListBytes();
+
+	/**
+	 * @return The number of pages whose rasters were rendered for identical
+	 *         pages, instead of rendering them again
+	 */
+	public long getDeduplicatedRenders();
+
+	/**
+	 * @return Render time saved by identical pages, estimated by the mean
+	 *         render time
+	 */
+	public double getDeduplicatedRenderMillisSaved();
+
+	/**
+	 * @return The size identical pages would occupy in addition if cached
+	 *         separately
+	 */
+	public long getDeduplicatedBytes();
+
+	/**
+	 * @return The number of pages rendered as the changes to a neighbour,
+	 *         see {@link Document#setDeltaRendering(boolean)}
+	 */
+	public long getDeltaRenders();
+
+	/**
+	 * @return The size pages cached as patches of their neighbours would
+	 *         occupy in addition if cached in full
+	 */
+	public long getPatchedBytes();
+
+	/**
+	 * @return The number of pages painted as placeholder in strict painting
+	 *         mode, since nothing was cached
+	 */
+	public long getPlaceholders();
+
+	public int getQueuedReRenders();
+
+	public int getQueuedThumbnails();
+
+	public int getQueuedPrecache();
+
+	public int getQueuedDisplayed();
+
+	public void reset();
+}
@@ -0,0 +1,211 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary heap of render jobs, highest priority first.
+ *
+ * Each job knows its position in the heap, so removing a job and changing
+ * the priority of a queued job take O(log n) instead of a linear search.
+ * The sort key of a job is copied when it is offered; the job may change
+ * its priority while queued and has to be offered again to be re-sorted.
+ *
+ * Not thread-safe, see {@link RenderScheduler}.
+ */
+class RenderQueue {
+	private RenderJob[] _heap = new RenderJob[64];
+	private int _size = 0;
+	private long _sequence = 0;
+
+	/**
+	 * Adds a job or, if already queued, re-sorts it according to its
+	 * current priority and size.
+	 *
+	 * @param job
+	 * @return true if the job was added, false if it was re-sorted
+	 */
+	public boolean offer(RenderJob job) {
+		int priority = job.getPriority();
+		long pixelCount = job.getPixelCount();
+
+		if (contains(job)) {
+			int comparison = compare(priority, pixelCount, job._sequence, job);
+			job._queuedPriority = priority;
+			job._queuedPixelCount = pixelCount;
+			if (comparison < 0) siftUp(job._queueIndex);
+			else if (comparison > 0) siftDown(job._queueIndex);
+			return false;
+		}
+
+		add(job, priority, pixelCount, _sequence++);
+		return true;
+	}
+
+	/**
+	 * Adds a job polled from another queue. Unlike {@link #offer(RenderJob)},
+	 * the job keeps its arrival, so it is not overtaken by jobs that arrived
+	 * later.
+	 *
+	 * @param job A job not queued
+	 */
+	public void restore(RenderJob job) {
+		if (contains(job)) throw new IllegalArgumentException("Already queued: " + job);
+		add(job, job.getPriority(), job.getPixelCount(), job._sequence);
+	}
+
+	private void add(RenderJob job, int priority, long pixelCount, long sequence) {
+		if (_size == _heap.length) {
+			_heap = Arrays.copyOf(_heap, _size * 2);
+		}
+		job._queuedPriority = priority;
+		job._queuedPixelCount = pixelCount;
+		job._sequence = sequence;
+		job._queueIndex = _size;
+		_heap[_size++] = job;
+		siftUp(job._queueIndex);
+	}
+
+	/**
+	 * @return The job of highest priority or null, if empty
+	 */
+	public RenderJob peek() {
+		return (_size > 0) ? _heap[0] : null;
+	}
+
+	/**
+	 * Removes and returns the job of highest priority.
+	 *
+	 * @return The job or null, if empty
+	 */
+	public RenderJob poll() {
+		if (_size == 0) return null;
+		RenderJob job = _heap[0];
+		removeAt(0);
+		return job;
+	}
+
+	/**
+	 * @param job
+	 * @return true if the job was queued
+	 */
+	public boolean remove(RenderJob job) {
+		if (!contains(job)) return false;
+		removeAt(job._queueIndex);
+		return true;
+	}
+
+	/**
+	 * Removes all jobs of the given document.
+	 *
+	 * @param document
+	 * @return The removed jobs
+	 */
+	public List<RenderJob> removeAll(Document document) {
+		List<RenderJob> removed = new ArrayList<RenderJob>();
+		for (int i = 0; i < _size; i++) {
+			if (_heap[i].getDocument() == document) removed.add(_heap[i]);
+		}
+		for (RenderJob job : removed) {
+			remove(job);
+		}
+		return removed;
+	}
+
+	/**
+	 * Counts the queued jobs per priority class: re-renderings (priority
+	 * below 0), thumbnails, precaching and displayed pages.
+	 *
+	 * @param document Only count jobs of this document, null for all jobs
+	 * @param depths Filled with the four counts in this order
+	 */
+	public void countByPriority(Document document, int[] depths) {
+		for (int i = 0; i < 4; i++) depths[i] = 0;
+		for (int i = 0; i < _size; i++) {
+			RenderJob job = _heap[i];
+			if (document != null && job.getDocument() != document) continue;
+
+			int priority = job._queuedPriority;
+			if (priority < 0) depths[0]++;
+			else if (priority < Document.PRIO_PRECACHE) depths[1]++;
+			else if (priority < Document.PRIO_MAIN) depths[2]++;
+			else depths[3]++;
+		}
+	}
+
+	public boolean contains(RenderJob job) {
+		int index = job._queueIndex;
+		return index >= 0 && index < _size && _heap[index] == job;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	private void removeAt(int index) {
+		RenderJob removed = _heap[index];
+		removed._queueIndex = -1;
+		_size--;
+		if (index == _size) {
+			_heap[_size] = null;
+			return;
+		}
+
+		RenderJob last = _heap[_size];
+		_heap[_size] = null;
+		_heap[index] = last;
+		last._queueIndex = index;
+		siftDown(index);
+		if (_heap[index] == last) siftUp(index);
+	}
+
+	private void siftUp(int index) {
+		RenderJob job = _heap[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (compare(job, _heap[parent]) >= 0) break;
+			place(_heap[parent], index);
+			index = parent;
+		}
+		place(job, index);
+	}
+
+	private void siftDown(int index) {
+		RenderJob job = _heap[index];
+		int half = _size >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			int right = child + 1;
+			if (right < _size && compare(_heap[right], _heap[child]) < 0) child = right;
+			if (compare(job, _heap[child]) <= 0) break;
+			place(_heap[child], index);
+			index = child;
+		}
+		place(job, index);
+	}
+
+	private void place(RenderJob job, int index) {
+		_heap[index] = job;
+		job._queueIndex = index;
+	}
+
+	private static int compare(RenderJob a, RenderJob b) {
+		return compare(a._queuedPriority, a._queuedPixelCount, a._sequence, b);
+	}
+
+	/**
+	 * Higher priority first, bigger images first within the same priority,
+	 * then first come, first served.
+	 */
+	private static int compare(int priority, long pixelCount, long sequence, RenderJob b) {
+		if (priority != b._queuedPriority) return (priority > b._queuedPriority) ? -1 : 1;
+		if (pixelCount != b._queuedPixelCount) return (pixelCount > b._queuedPixelCount) ? -1 : 1;
+		if (sequence != b._sequence) return (sequence < b._sequence) ? -1 : 1;
+		return 0;
+	}
+}
@@ -0,0 +1,267 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Renders the pages of all open documents into their caches.
+ *
+ * A process-wide pool of worker threads drains one queue of render jobs,
+ * highest priority first. Workers are started on demand and are not bound
+ * to a document; they idle while the queue is empty.
+ *
+ * Documents that can't render concurrently (see
+ * {@link Document#isConcurrentRenderingSupported()}) are rendered by at most
+ * one worker at a time; the other workers continue with other documents.
+ * Jobs of such a document met while it is busy are parked in a queue of the
+ * document and return to the main queue, in their original order, when it
+ * is done.
+ *
+ * A job is rendered by one worker at a time. A job submitted while it is
+ * being rendered is queued once the rendering ends.
+ */
+public class RenderScheduler {
+	private static final RenderScheduler _instance = new RenderScheduler();
+
+	private final RenderQueue _queue = new RenderQueue();
+
+	// Busy documents and their parked jobs:
+	private final Map<Document, RenderQueue> _busyDocuments = new HashMap<Document, RenderQueue>();
+	private final Set<RenderJob> _runningJobs = new HashSet<RenderJob>();
+	private final Set<RenderJob> _resubmittedJobs = new HashSet<RenderJob>(); // submitted while running
+	private int _workerCount;
+	private int _workers = 0;
+	private int _workerId = 0;
+
+	private RenderScheduler() {
+		_workerCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	}
+
+	public static RenderScheduler getInstance() {
+		return _instance;
+	}
+
+	/**
+	 * @return The maximum number of worker threads
+	 */
+	public synchronized int getWorkerCount() {
+		return _workerCount;
+	}
+
+	/**
+	 * Sets the maximum number of worker threads. Surplus workers terminate
+	 * after finishing their current job.
+	 *
+	 * @param workerCount Number of workers, at least 1
+	 */
+	public synchronized void setWorkerCount(int workerCount) {
+		if (workerCount < 1) throw new IllegalArgumentException("workerCount < 1");
+		_workerCount = workerCount;
+		if (!_queue.isEmpty()) startWorkers();
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of jobs waiting to be rendered
+	 */
+	public synchronized int getQueueSize() {
+		int size = _queue.size() + _resubmittedJobs.size();
+		for (RenderQueue parked : _busyDocuments.values()) {
+			size += parked.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @param document Only count jobs of this document, null for all jobs
+	 * @return The number of waiting re-renderings, thumbnails, precached and
+	 *         displayed pages, see {@link RenderQueue#countByPriority(Document, int[])}
+	 */
+	public synchronized int[] getQueueDepths(Document document) {
+		int[] depths = new int[4];
+		int[] parkedDepths = new int[4];
+		_queue.countByPriority(document, depths);
+		for (RenderQueue parked : _busyDocuments.values()) {
+			parked.countByPriority(document, parkedDepths);
+			for (int i = 0; i < depths.length; i++) depths[i] += parkedDepths[i];
+		}
+		return depths;
+	}
+
+	/**
+	 * Queues a job or, if already queued, re-sorts it according to its
+	 * current priority.
+	 *
+	 * @param job
+	 */
+	synchronized void submit(RenderJob job) {
+		if (_runningJobs.contains(job)) {
+			_resubmittedJobs.add(job);
+			return;
+		}
+		RenderQueue parked = _busyDocuments.get(job.getDocument());
+		if (parked != null && parked.contains(job)) {
+			parked.offer(job);
+			return;
+		}
+		if (_queue.offer(job)) {
+			startWorkers();
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Removes a job from the queue. A job that is being rendered is not
+	 * affected.
+	 *
+	 * @param job
+	 * @return true if the job was queued
+	 */
+	synchronized boolean cancel(RenderJob job) {
+		if (_resubmittedJobs.remove(job)) return true;
+		RenderQueue parked = _busyDocuments.get(job.getDocument());
+		if (parked != null && parked.remove(job)) return true;
+		return _queue.remove(job);
+	}
+
+	/**
+	 * Removes all queued jobs of the given document.
+	 *
+	 * @param document
+	 */
+	synchronized void cancelAll(Document document) {
+		for (Iterator<RenderJob> i = _resubmittedJobs.iterator(); i.hasNext();) {
+			if (i.next().getDocument() == document) i.remove();
+		}
+		RenderQueue parked = _busyDocuments.get(document);
+		if (parked != null) parked.removeAll(document);
+		_queue.removeAll(document);
+	}
+
+	private void startWorkers() {
+		while (_workers < _workerCount) {
+			Worker worker = new Worker(_workerId++);
+			_workers++;
+			worker.start();
+		}
+	}
+
+	/**
+	 * @return The job the calling worker is rendering or null, if not called
+	 *         by a worker
+	 */
+	static RenderJob getCurrentJob() {
+		Thread thread = Thread.currentThread();
+		return (thread instanceof Worker) ? ((Worker) thread)._job : null;
+	}
+
+	/**
+	 * Waits for the next job a worker may render.
+	 *
+	 * @return The job or null, if the calling worker is surplus and has to
+	 *         terminate
+	 */
+	private synchronized RenderJob take() throws InterruptedException {
+		while (true) {
+			if (_workers > _workerCount) {
+				_workers--;
+				return null;
+			}
+
+			RenderJob job = poll();
+			if (job != null) {
+				Document document = job.getDocument();
+				if (!document.isConcurrentRenderingSupported()) {
+					_busyDocuments.put(document, new RenderQueue());
+				}
+				_runningJobs.add(job);
+				return job;
+			}
+			wait();
+		}
+	}
+
+	/**
+	 * Parks the jobs of busy documents it comes across.
+	 *
+	 * @return The job of highest priority whose document is not busy or null
+	 */
+	private RenderJob poll() {
+		RenderJob job;
+		while ((job = _queue.poll()) != null) {
+			RenderQueue parked = _busyDocuments.get(job.getDocument());
+			if (parked == null) return job;
+			parked.restore(job);
+		}
+		return null;
+	}
+
+	private synchronized void finished(RenderJob job) {
+		_runningJobs.remove(job);
+		RenderQueue parked = _busyDocuments.remove(job.getDocument());
+		if (parked != null) {
+			RenderJob parkedJob;
+			while ((parkedJob = parked.poll()) != null) {
+				_queue.restore(parkedJob);
+			}
+			notifyAll();
+		}
+		if (_resubmittedJobs.remove(job)) {
+			submit(job);
+		}
+	}
+
+	/**
+	 * @param failed true if the worker died of an error, it is replaced then
+	 */
+	private synchronized void terminated(boolean failed) {
+		_workers--;
+		if (failed && !_queue.isEmpty()) startWorkers();
+	}
+
+	private class Worker extends Thread {
+		private volatile RenderJob _job;
+
+		public Worker(int id) {
+			super("RenderWorker-" + id);
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+		}
+
+		@Override
+		public void run() {
+			boolean retired = false;
+			boolean failed = true;
+			try {
+				RenderJob job;
+				while ((job = take()) != null) {
+					_job = job;
+					try {
+						job.render();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					} catch (Error e) {
+						// E.g. a mapped document file changed, the worker
+						// goes on with other pages:
+						e.printStackTrace();
+					} finally {
+						_job = null;
+						finished(job);
+					}
+				}
+
+				// take() already removed this worker from the count:
+				retired = true;
+				failed = false;
+			} catch (InterruptedException e) {
+				// Terminate
+				failed = false;
+			} finally {
+				if (!retired) terminated(failed);
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The tiles cached for a document, indexed by page, zoomed page size and
+ * tile position.
+ */
+class TileIndex {
+	private final ConcurrentHashMap<Key, CachedTile> _tiles = new ConcurrentHashMap<Key, CachedTile>();
+
+	/**
+	 * @return The tile or null, if not cached
+	 */
+	public CachedTile get(int pageNr, int zoomWidth, int zoomHeight, int tileX, int tileY) {
+		return _tiles.get(new Key(pageNr, zoomWidth, zoomHeight, tileX, tileY));
+	}
+
+	/**
+	 * Adds a tile. A tile at the same position is replaced.
+	 *
+	 * @param tile
+	 * @return The replaced tile or null
+	 */
+	public CachedTile put(CachedTile tile) {
+		return _tiles.put(new Key(tile), tile);
+	}
+
+	/**
+	 * Removes the given tile, if contained.
+	 *
+	 * @param tile
+	 * @return true if the tile was removed
+	 */
+	public boolean remove(CachedTile tile) {
+		return _tiles.remove(new Key(tile), tile);
+	}
+
+	/**
+	 * @return A snapshot of all cached tiles
+	 */
+	public List<CachedTile> getAll() {
+		return new ArrayList<CachedTile>(_tiles.values());
+	}
+
+	public int size() {
+		return _tiles.size();
+	}
+
+	public void clear() {
+		_tiles.clear();
+	}
+
+	private static class Key {
+		private final int _pageNr;
+		private final int _zoomWidth;
+		private final int _zoomHeight;
+		private final int _tileX;
+		private final int _tileY;
+
+		public Key(int pageNr, int zoomWidth, int zoomHeight, int tileX, int tileY) {
+			_pageNr = pageNr;
+			_zoomWidth = zoomWidth;
+			_zoomHeight = zoomHeight;
+			_tileX = tileX;
+			_tileY = tileY;
+		}
+
+		public Key(CachedTile tile) {
+			this(tile.getPageNr(), tile.getZoomWidth(), tile.getZoomHeight(), tile.getTileX(), tile.getTileY());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key key = (Key) obj;
+			return _pageNr == key._pageNr && _zoomWidth == key._zoomWidth && _zoomHeight == key._zoomHeight
+					&& _tileX == key._tileX && _tileY == key._tileY;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = _pageNr;
+			result = 31 * result + _zoomWidth;
+			result = 31 * result + _zoomHeight;
+			result = 31 * result + _tileX;
+			result = 31 * result + _tileY;
+			return result;
+		}
+	}
+}
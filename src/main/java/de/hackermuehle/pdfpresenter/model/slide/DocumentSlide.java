@@ -16,9 +16,12 @@ import de.hackermuehle.pdfpresenter.model.document.DocumentCacheEntry;
 public class DocumentSlide extends Slide {
 	private Document _document;
 	private int _pageNr;
+	private boolean _sized = false; // page size read from the document
 	
 	/**
-	 * Constructs and initializes a DocumentSlide.
+	 * Constructs and initializes a DocumentSlide. The size of the page is
+	 * read from the document on first use, so opening a large document
+	 * doesn't parse all pages.
 	 * 
 	 * @param document	Document that contains the page used as the background
 	 * @param pageNr	Page number of the document that identifies the page
@@ -26,7 +29,47 @@ public class DocumentSlide extends Slide {
 	public DocumentSlide(Document document, int pageNr) {
 		_document = document;
 		_pageNr = pageNr;
-		setSize(_document.getBounds(pageNr));
+	}
+	
+	public Document getDocument() {
+		return _document;
+	}
+	
+	public int getPageNr() {
+		return _pageNr;
+	}
+	
+	/**
+	 * Shows another page of the document as background, e.g. after the
+	 * document was reloaded. The annotations are kept.
+	 * 
+	 * @param pageNr
+	 */
+	public void setPageNr(int pageNr) {
+		_pageNr = pageNr;
+		_sized = false;
+	}
+	
+	@Override
+	public Rectangle2D getSize() {
+		if (!_sized) setSize(_document.getBounds(_pageNr));
+		return super.getSize();
+	}
+	
+	@Override
+	public void setSize(Rectangle2D size) {
+		_sized = true;
+		super.setSize(size);
+	}
+	
+	/**
+	 * @return The size of the slide or, until it is read, the size of the
+	 * first page
+	 */
+	@Override
+	public Rectangle2D getEstimatedSize() {
+		if (_sized || _pageNr == 0) return getSize();
+		return _document.getBounds(0);
 	}
 	
 	/**
@@ -63,6 +106,11 @@ public class DocumentSlide extends Slide {
 					return _entry.isCached();
 				}
 				
+				@Override
+				public boolean isPreviewAvailable() {
+					return _entry.isPreviewAvailable();
+				}
+				
 				@Override
 				public ImmutableClipping getClipping() {
 					return _entry.getClipping();
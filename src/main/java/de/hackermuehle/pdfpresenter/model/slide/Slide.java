@@ -176,6 +176,14 @@ public class Slide {
 		return _actions.getAnnotations();
 	}
 	
+	/**
+	 * @return The size of the slide or, if it is not determined yet and
+	 * determining it is expensive, an estimate
+	 */
+	public Rectangle2D getEstimatedSize() {
+		return getSize();
+	}
+	
 	/**
 	 * Creates a {@link SlideCacheEntry} if caching abilities are available.
 	 * 
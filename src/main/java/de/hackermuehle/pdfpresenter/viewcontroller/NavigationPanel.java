@@ -5,7 +5,6 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
-import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.Point;
 import java.awt.Rectangle;
@@ -20,10 +19,14 @@ import java.awt.event.FocusListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.geom.Rectangle2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -33,6 +36,9 @@ import javax.swing.JButton;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.JToolBar;
+import javax.swing.border.Border;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import de.hackermuehle.pdfpresenter.PdfPresenter;
 import de.hackermuehle.pdfpresenter.model.Presentation;
@@ -47,7 +53,10 @@ import de.hackermuehle.pdfpresenter.viewcontroller.viewpanel.SlideViewPanel;
  * The navigation panel displays slides of a presentation as thumbnails.
  * The active slide is highlighted.
  * 
- * Slides are displayed through SlideViewPanels.
+ * Slides are displayed through SlideViewPanels. Only thumbnails within the
+ * visible part of the strip (plus a margin) exist as components and cache
+ * entries; the positions of all thumbnails are computed from the slide
+ * sizes alone.
  */
 public class NavigationPanel extends JPanel {
 	private static final long serialVersionUID = 1L;
@@ -55,11 +64,17 @@ public class NavigationPanel extends JPanel {
 	private static final Color COLOR_SELECTED = Color.YELLOW; /*new Color(120, 187, 241)*/
 	private static final int SHAKE_THRESHOLD = 30;
 	private static final int GAP_HEIGHT = 15;
+	private static final int MARGIN = 1; // Live thumbnails above and below the viewport, in viewport heights
 	
 	private JPanel _innerPanel;
 	private VerticalInertialScrollPane _scrollPane;
+	private Grid _grid;
 	
-	private LinkedList<SlideViewPanel> _thumbnails = new LinkedList<SlideViewPanel>();
+	// Placeholder model, bounds of the thumbnail of each slide:
+	private List<Slide> _slides = new ArrayList<Slide>();
+	private List<Rectangle> _bounds = new ArrayList<Rectangle>();
+	
+	private Map<Slide, SlideViewPanel> _thumbnails = new HashMap<Slide, SlideViewPanel>();
 	
 	private Presentation _presentation;
 	private PropertyChangeListener _presentationPropertyChangeListener;
@@ -141,23 +156,14 @@ public class NavigationPanel extends JPanel {
 		_tabButtons.add(_buttonAdd);
 		_tabButtons.add(_buttonDelete);
 		
-		// Inner panel holding thumbnails:
-		_innerPanel = new JPanel();
-		_innerPanel.setLayout(new FlowLayout(FlowLayout.CENTER, 0, GAP_HEIGHT));
+		// Inner panel holding thumbnails, positioned by layoutThumbnails():
+		_innerPanel = new JPanel(null);
 		_innerPanel.setBackground(BACKGROUND_COLOR);
+		_grid = new Grid(Grid.Type.NONE, 0, state.getPreferences());
 		
 		_thumbnailMouseListener = new ThumbnailMouseListener();
 		_thumbnailMouseMotionListener = new ThumbnailMouseMotionListener();
 		
-		// Create a thumbnail for each existing slide (usually one):
-		for (Slide slide : _presentation.getSlides()) {
-			SlideViewPanel thumbnail = new SlideViewPanel(slide, slide.getSize(), new Grid(Grid.Type.NONE, 0, state.getPreferences()), Document.PRIO_THUMBNAIL);
-			thumbnail.setBorder(BorderFactory.createMatteBorder(0, 0, 2, 2, Color.LIGHT_GRAY));
-			thumbnail.addMouseListener(_thumbnailMouseListener);
-			thumbnail.addMouseMotionListener(_thumbnailMouseMotionListener);
-			_thumbnails.add(thumbnail);
-		}
-		
 		setFocusable(false);
 		setLayout(new BorderLayout());
 		addComponentListener(new NavigationPanelResizedListener());
@@ -165,20 +171,17 @@ public class NavigationPanel extends JPanel {
 		// Add ScrollPanels to innerPanel:
 		_scrollPane = new VerticalInertialScrollPane(_innerPanel, state);
 		_scrollPane.setBorder(BorderFactory.createLineBorder(Color.LIGHT_GRAY));
+		_scrollPane.getViewport().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				updateThumbnails();
+			}
+		});
 		
 		add(_scrollPane, BorderLayout.CENTER);
 		
 		// Buttons for Adding + Removing Slides from NavigationPanel
 		add(_tabButtons, BorderLayout.SOUTH);
-		
-		// Highlight active slide:
-		if (_presentation.getActiveSlide() != null) {
-			SlideViewPanel thumbnail = getThumbnailPanel(_presentation.getActiveSlide()); 
-			if (thumbnail != null) {
-				thumbnail.setBorder(BorderFactory.createLineBorder(COLOR_SELECTED, 4));
-				return;
-			}
-		}
 	}
 	
 	@Override
@@ -328,64 +331,9 @@ public class NavigationPanel extends JPanel {
 		@Override
 		public void propertyChange(PropertyChangeEvent e) {
 			
-			// Slide removed, remove thumbnail
+			// Slides added or removed, thumbnails move:
 			if (e.getPropertyName().equals("slides")) {	
-				
-				// Delete thumbnail for each removed slide:
-				ListIterator<SlideViewPanel> it = _thumbnails.listIterator();
-				while (it.hasNext()) { 
-					SlideViewPanel thumbnail = it.next();
-					
-					if (!_presentation.getSlides().contains(thumbnail.getSlide())) {
-						_innerPanel.remove(thumbnail);
-						it.remove();
-					}
-				}
-				
-				// Add thumbnail for each new slide
-				if (_presentation.getActiveSlide() != null) {
-					
-					ListIterator<SlideViewPanel> it2 = _thumbnails.listIterator();
-					for (Slide slide : _presentation.getSlides()) {
-
-						if (getThumbnailPanel(slide) == null){
-							SlideViewPanel thumbnail = new SlideViewPanel(_presentation.getActiveSlide(), _presentation.getActiveSlide().getSize(), new Grid(Grid.Type.NONE, 0), Document.PRIO_THUMBNAIL);
-							thumbnail.addMouseListener(_thumbnailMouseListener);
-							thumbnail.addMouseMotionListener(_thumbnailMouseMotionListener);
-							it2.add(thumbnail);
-						}
-						
-						if (it2.hasNext()){
-							it2.next();
-						}
-					}
-										
-					for (JPanel thumbnail : _thumbnails) 
-						_innerPanel.remove(thumbnail);
-					
-					
-					int innerPanelWidth = _innerPanel.getWidth() - _scrollPane.getVerticalScrollBar().getWidth() - 2;;
-					double innerPanelHeight = _thumbnails.size()*GAP_HEIGHT;
-					int size = _innerPanel.getWidth();
-					for (SlideViewPanel thumbnail : _thumbnails) {
-						_innerPanel.add(thumbnail);
-						//thumbnail.setPreferredSize(new Dimension(size, size));
-						
-						double height = size * thumbnail.getSlide().getSize().getHeight()/thumbnail.getSlide().getSize().getWidth();
-						//if (height / size > 1) height = size;
-						int width = (int)(height * thumbnail.getSlide().getSize().getWidth()/thumbnail.getSlide().getSize().getHeight());
-						innerPanelHeight += height;
-						
-						thumbnail.setPreferredSize(new Dimension(width, (int)height));
-						thumbnail.setMinimumSize(new Dimension(0, 0));
-					}
-					_innerPanel.setPreferredSize(new Dimension(innerPanelWidth, (int)innerPanelHeight));
-
-					
-					repaint();
-				}
-				
-				_innerPanel.validate();
+				layoutThumbnails();
 				repaint();
 			}
 			else if (e.getPropertyName().equals("activeSlide")) {
@@ -399,32 +347,15 @@ public class NavigationPanel extends JPanel {
 					if (prevActiveSlide != null) {
 						SlideViewPanel thumbnail = getThumbnailPanel(prevActiveSlide); 
 						if (thumbnail != null) {
-							thumbnail.setBorder(BorderFactory.createEmptyBorder());
+							thumbnail.setBorder(createBorder(prevActiveSlide));
 						}
 					}
 					SlideViewPanel thumbnail = getThumbnailPanel(_presentation.getActiveSlide()); 
 					if (thumbnail != null) {
-						thumbnail.setBorder(BorderFactory.createLineBorder(COLOR_SELECTED, 4));
+						thumbnail.setBorder(createBorder(_presentation.getActiveSlide()));
 					}
 					
-					// Scroll into view:
-					SlideViewPanel _thumbnail = getThumbnailPanel(_presentation.getActiveSlide());
-
-					//System.out.println(new Rectangle(0, _thumbnail.getY()-50, 1, _thumbnail.getY() + getHeight()-50).toString());
-					if (_thumbnail != null) {
-						float thumbnailsVisible = getHeight()/(_thumbnail.getHeight()+GAP_HEIGHT);
-						//just display first slide if there a only two slides
-						if(thumbnailsVisible<3) {
-							_innerPanel.scrollRectToVisible(new Rectangle(0, _thumbnail.getY()-7, 1, getHeight()-50));//_thumbnail.getHeight()));
-						}else { //else center focus
-							int offset = ((int)Math.floor(thumbnailsVisible/2)+1) * (thumbnail.getHeight()+GAP_HEIGHT);
-							//int heightHalf = getHeight()/2-_thumbnail.getHeight();
-							_innerPanel.scrollRectToVisible(new Rectangle(0, _thumbnail.getY() - (getHeight()-offset) + GAP_HEIGHT + 15, 1, getHeight()));//_thumbnail.getHeight()));
-						}
-						
-						//_innerPanel.repaint();
-						//_innerPanel.scrollRectToVisible(new Rectangle(0, _thumbnail.getY()-50, 1, _thumbnail.getY() + getHeight()-50));//_thumbnail.getHeight()));
-					}
+					scrollToActiveSlide();
 					
 					if (_presentation.getActiveSlide().getClass().equals(WhiteboardSlide.class))
 						_buttonDelete.setEnabled(true);
@@ -442,46 +373,10 @@ public class NavigationPanel extends JPanel {
 	class NavigationPanelResizedListener implements ComponentListener {
 		@Override
 		public void componentResized(ComponentEvent event) {
-			int size = event.getComponent().getWidth() -  
-				_scrollPane.getVerticalScrollBar().getWidth() - 4;
-			
-			for (JPanel thumbnail : _thumbnails) 
-				_innerPanel.remove(thumbnail);
-			
-			
-			int innerPanelWidth = size;
-			double innerPanelHeight = _thumbnails.size()*GAP_HEIGHT;
-			
-			for (SlideViewPanel thumbnail : _thumbnails) {
-				_innerPanel.add(thumbnail);
-				//thumbnail.setPreferredSize(new Dimension(size, size));
-				
-				double height = size * thumbnail.getSlide().getSize().getHeight()/thumbnail.getSlide().getSize().getWidth();
-				//if (height / size > 1) height = size;
-				int width = (int)(height * thumbnail.getSlide().getSize().getWidth()/thumbnail.getSlide().getSize().getHeight());
-				innerPanelHeight += height;
-				
-				thumbnail.setPreferredSize(new Dimension(width, (int)height));
-				thumbnail.setMinimumSize(new Dimension(0, 0));
-			}
-			_innerPanel.setPreferredSize(new Dimension(innerPanelWidth, (int)innerPanelHeight));
-		
+			layoutThumbnails();
 			repaint();
 			validate();
-			
-			// Scroll into view:
-			SlideViewPanel _thumbnail = getThumbnailPanel(_presentation.getActiveSlide());
-			if (_thumbnail != null) {
-				float thumbnailsVisible = getHeight()/(_thumbnail.getHeight()+GAP_HEIGHT);
-				//just display first slide if there a only two slides
-				if(thumbnailsVisible<3) {
-					_innerPanel.scrollRectToVisible(new Rectangle(0, _thumbnail.getY()-7, 1, getHeight()-50));//_thumbnail.getHeight()));
-				}else { //else center focus
-					int offset = ((int)Math.floor(thumbnailsVisible/2)+1) * (_thumbnail.getHeight()+GAP_HEIGHT);
-					//int heightHalf = getHeight()/2-_thumbnail.getHeight();
-					_innerPanel.scrollRectToVisible(new Rectangle(0, _thumbnail.getY() - (getHeight()-offset) + GAP_HEIGHT + 15, 1, getHeight()));//_thumbnail.getHeight()));
-				}
-			}
+			scrollToActiveSlide();
 		}
 		
 		@Override
@@ -497,17 +392,148 @@ public class NavigationPanel extends JPanel {
 	}
 	
 	public void dispose() {
-		for (SlideViewPanel thumbnail : _thumbnails) {
+		for (SlideViewPanel thumbnail : _thumbnails.values()) {
 			thumbnail.dispose();
 		}
 	}
 	
+	/**
+	 * @return The live thumbnail of the slide or null, if the slide is not
+	 * near the visible part of the strip
+	 */
 	private SlideViewPanel getThumbnailPanel(Slide slide) {
-		for (SlideViewPanel thumbnail : _thumbnails) {
-				if (thumbnail.getSlide().equals(slide)) {
-					return thumbnail;
-				}
+		return _thumbnails.get(slide);
+	}
+	
+	/**
+	 * Computes the bounds of all thumbnails for the current width, one below
+	 * the other, and updates the live thumbnails.
+	 */
+	private void layoutThumbnails() {
+		int size = getWidth() - _scrollPane.getVerticalScrollBar().getWidth() - 4;
+		
+		_slides = new ArrayList<Slide>(_presentation.getSlides());
+		_bounds = new ArrayList<Rectangle>(_slides.size());
+		int y = GAP_HEIGHT;
+		for (Slide slide : _slides) {
+			
+			// Sizes of slides never shown may be estimated, see updateThumbnails():
+			Rectangle2D slideSize = slide.getEstimatedSize();
+			int height = (int) (size * slideSize.getHeight() / slideSize.getWidth());
+			int width = (int) (height * slideSize.getWidth() / slideSize.getHeight());
+			_bounds.add(new Rectangle((size - width) / 2, y, width, height));
+			y += height + GAP_HEIGHT;
+		}
+		_innerPanel.setPreferredSize(new Dimension(size, y));
+		_innerPanel.revalidate();
+		
+		// Move live thumbnails, drop those of removed slides:
+		Iterator<Map.Entry<Slide, SlideViewPanel>> iterator = _thumbnails.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Slide, SlideViewPanel> entry = iterator.next();
+			int index = _slides.indexOf(entry.getKey());
+			if (index >= 0) {
+				entry.getValue().setBounds(_bounds.get(index));
+			} else {
+				_innerPanel.remove(entry.getValue());
+				entry.getValue().dispose();
+				iterator.remove();
+			}
+		}
+		updateThumbnails();
+	}
+	
+	/**
+	 * Creates the thumbnails of the slides within the visible part of the
+	 * strip plus a margin, and disposes the others. Disposed thumbnails are
+	 * not reused for other slides, since a SlideViewPanel keeps showing its
+	 * previous slide until the new one is cached.
+	 */
+	private void updateThumbnails() {
+		Rectangle visible = _scrollPane.getViewport().getViewRect();
+		int top = visible.y - MARGIN * visible.height;
+		int bottom = visible.y + visible.height + MARGIN * visible.height;
+		
+		// First slide reaching into the range (binary search):
+		int low = 0;
+		int high = _bounds.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			Rectangle bounds = _bounds.get(middle);
+			if (bounds.y + bounds.height < top) low = middle + 1;
+			else high = middle;
+		}
+		int first = low;
+		int last = first;
+		while (last < _bounds.size() && _bounds.get(last).y <= bottom) last++;
+		
+		Map<Slide, Integer> live = new HashMap<Slide, Integer>();
+		for (int i = first; i < last; i++) {
+			live.put(_slides.get(i), i);
+		}
+		
+		// Estimated sizes are replaced by the actual sizes of the slides
+		// shown, possibly moving the thumbnails:
+		for (int i = first; i < last; i++) {
+			Slide slide = _slides.get(i);
+			if (!_thumbnails.containsKey(slide) && !slide.getEstimatedSize().equals(slide.getSize())) {
+				layoutThumbnails();
+				return;
+			}
+		}
+		
+		boolean changed = false;
+		Iterator<Map.Entry<Slide, SlideViewPanel>> iterator = _thumbnails.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Slide, SlideViewPanel> entry = iterator.next();
+			if (!live.containsKey(entry.getKey())) {
+				_innerPanel.remove(entry.getValue());
+				entry.getValue().dispose();
+				iterator.remove();
+				changed = true;
+			}
+		}
+		
+		for (int i = first; i < last; i++) {
+			Slide slide = _slides.get(i);
+			if (_thumbnails.containsKey(slide)) continue;
+			
+			SlideViewPanel thumbnail = new SlideViewPanel(slide, slide.getSize(), _grid, Document.PRIO_THUMBNAIL);
+			thumbnail.setBorder(createBorder(slide));
+			thumbnail.addMouseListener(_thumbnailMouseListener);
+			thumbnail.addMouseMotionListener(_thumbnailMouseMotionListener);
+			thumbnail.setBounds(_bounds.get(i));
+			_innerPanel.add(thumbnail);
+			_thumbnails.put(slide, thumbnail);
+			changed = true;
+		}
+		
+		if (changed) _innerPanel.repaint();
+	}
+	
+	private Border createBorder(Slide slide) {
+		if (slide == _presentation.getActiveSlide()) {
+			return BorderFactory.createLineBorder(COLOR_SELECTED, 4);
+		}
+		return BorderFactory.createMatteBorder(0, 0, 2, 2, Color.LIGHT_GRAY);
+	}
+	
+	/**
+	 * Scrolls the thumbnail of the active slide into view, centered if
+	 * there is room for at least three thumbnails.
+	 */
+	private void scrollToActiveSlide() {
+		int index = _slides.indexOf(_presentation.getActiveSlide());
+		if (index < 0) return;
+		
+		Rectangle bounds = _bounds.get(index);
+		float thumbnailsVisible = getHeight()/(bounds.height+GAP_HEIGHT);
+		//just display first slide if there a only two slides
+		if(thumbnailsVisible<3) {
+			_innerPanel.scrollRectToVisible(new Rectangle(0, bounds.y-7, 1, getHeight()-50));
+		}else { //else center focus
+			int offset = ((int)Math.floor(thumbnailsVisible/2)+1) * (bounds.height+GAP_HEIGHT);
+			_innerPanel.scrollRectToVisible(new Rectangle(0, bounds.y - (getHeight()-offset) + GAP_HEIGHT + 15, 1, getHeight()));
 		}
-		return null;
 	}
 }
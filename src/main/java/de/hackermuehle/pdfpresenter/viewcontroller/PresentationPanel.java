@@ -13,6 +13,7 @@ import java.beans.PropertyChangeListener;
 
 import javax.swing.JLayeredPane;
 
+import de.hackermuehle.pdfpresenter.model.PrefetchPolicy;
 import de.hackermuehle.pdfpresenter.model.Presentation;
 import de.hackermuehle.pdfpresenter.model.State;
 import de.hackermuehle.pdfpresenter.model.document.Document;
@@ -34,13 +35,13 @@ import org.apache.log4j.Logger;
  */
 public abstract class PresentationPanel extends JLayeredPane {
 	private static final long serialVersionUID = 1L;
-	private static final int CACHE_PRIORITY_PRECACHE = Document.PRIO_PRECACHE;
 	private static final int CACHE_PRIORITY = Document.PRIO_MAIN; 
 	private State _state;
 	private SlideViewPanel _viewPanel;
 	private InputViewPanel _inputPanel;
 	private ControllerPropertyChangeListener _controllerPropertyChangeListener;
 	private PresentationPropertyChangeListener _presentationPropertyChangeListener;
+	private PrefetchPolicy _prefetchPolicy = new PrefetchPolicy();
 	private Presentation _activePresentation;
 	
 	public PresentationPanel(State controller) {
@@ -62,7 +63,7 @@ public abstract class PresentationPanel extends JLayeredPane {
 			_activePresentation.addPropertyChangeListener(_presentationPropertyChangeListener);
 			
 			if (_state.getActivePresentation().getActiveSlide() != null) {
-				_viewPanel = new SlideViewPanel(_state.getActivePresentation().getActiveSlide(), _state.getActivePresentation().getSource(), _state.getActivePresentation().getGridVisibility() ? _state.getGrid() : null, CACHE_PRIORITY, _state.getActivePresentation().getNextSlide(), CACHE_PRIORITY_PRECACHE);				
+				_viewPanel = new SlideViewPanel(_state.getActivePresentation().getActiveSlide(), _state.getActivePresentation().getSource(), _state.getActivePresentation().getGridVisibility() ? _state.getGrid() : null, CACHE_PRIORITY, _state.getActivePresentation().getSlides(), _prefetchPolicy);				
 				_inputPanel = createInputPanel(_state.getActivePresentation().getActiveSlide(), _state.getActivePresentation().getSource(), _state);
 				add(_viewPanel, JLayeredPane.FRAME_CONTENT_LAYER);
 				_viewPanel.addComponentListener(new PresentationViewPanelComponentListener());
@@ -129,7 +130,7 @@ public abstract class PresentationPanel extends JLayeredPane {
 					
 					if (_activePresentation.getActiveSlide() != null) {
 						if (_viewPanel != null) {
-							_viewPanel.setSlide(_state.getActivePresentation().getActiveSlide(), _state.getActivePresentation().getNextSlide(),_activePresentation.getSource(), CACHE_PRIORITY_PRECACHE);
+							_viewPanel.setSlide(_state.getActivePresentation().getActiveSlide(), _activePresentation.getSlides(), _activePresentation.getSource());
 							//_viewPanel.setSlide(_controller.getActivePresentation().getActiveSlide(),  _controller.getActivePresentation().getSource());
 							_viewPanel.setGrid(_state.getActivePresentation().getGridVisibility() ? _state.getGrid() : null);
 							_inputPanel.setSlide(_activePresentation.getActiveSlide());
@@ -137,7 +138,7 @@ public abstract class PresentationPanel extends JLayeredPane {
 							_inputPanel.setSource(_activePresentation.getSource());
 						}
 						else {
-							_viewPanel = new SlideViewPanel(_activePresentation.getActiveSlide(), _activePresentation.getSource(), _activePresentation.getGridVisibility() ? _state.getGrid() : null, CACHE_PRIORITY, _state.getActivePresentation().getNextSlide(), CACHE_PRIORITY_PRECACHE);
+							_viewPanel = new SlideViewPanel(_activePresentation.getActiveSlide(), _activePresentation.getSource(), _activePresentation.getGridVisibility() ? _state.getGrid() : null, CACHE_PRIORITY, _activePresentation.getSlides(), _prefetchPolicy);
 							_inputPanel = createInputPanel(_activePresentation.getActiveSlide(), _activePresentation.getSource(), _state);
 							add(_viewPanel, JLayeredPane.FRAME_CONTENT_LAYER);
 							_viewPanel.addComponentListener(new PresentationViewPanelComponentListener());
@@ -226,13 +227,13 @@ public abstract class PresentationPanel extends JLayeredPane {
 				if (_state.getActivePresentation() != null &&
 					_state.getActivePresentation().getActiveSlide() != null) {
 					if (_viewPanel != null) {
-						_viewPanel.setSlide(_state.getActivePresentation().getActiveSlide(), _state.getActivePresentation().getNextSlide(),  _state.getActivePresentation().getSource(), CACHE_PRIORITY_PRECACHE);
+						_viewPanel.setSlide(_state.getActivePresentation().getActiveSlide(), _state.getActivePresentation().getSlides(), _state.getActivePresentation().getSource());
 						_inputPanel.setSlide(_state.getActivePresentation().getActiveSlide());
 						_inputPanel.setPresentation(_state.getActivePresentation());
 						_inputPanel.setSource(_state.getActivePresentation().getSource());
 					}
 					else {
-						_viewPanel = new SlideViewPanel(_state.getActivePresentation().getActiveSlide(), _state.getActivePresentation().getSource(), _state.getActivePresentation().getGridVisibility() ? _state.getGrid() : null, CACHE_PRIORITY,_state.getActivePresentation().getNextSlide(), CACHE_PRIORITY_PRECACHE);
+						_viewPanel = new SlideViewPanel(_state.getActivePresentation().getActiveSlide(), _state.getActivePresentation().getSource(), _state.getActivePresentation().getGridVisibility() ? _state.getGrid() : null, CACHE_PRIORITY, _state.getActivePresentation().getSlides(), _prefetchPolicy);
 						_inputPanel = createInputPanel(_state.getActivePresentation().getActiveSlide(), _state.getActivePresentation().getSource(), _state);
 						add(_viewPanel, JLayeredPane.FRAME_CONTENT_LAYER);
 						add(_inputPanel, JLayeredPane.DEFAULT_LAYER);
@@ -0,0 +1,89 @@
+package de.hackermuehle.pdfpresenter.viewcontroller.viewpanel;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.Timer;
+
+import de.hackermuehle.pdfpresenter.model.CacheEvent;
+import de.hackermuehle.pdfpresenter.model.CacheObserver;
+
+/**
+ * Collects cache events raised by the caching threads and delivers them on
+ * the event dispatch thread, at most once per frame: all events an observer
+ * received within a frame are coalesced into a single event covering the
+ * union of their areas. One repaint thus covers all pages or tiles that
+ * became ready in that interval.
+ */
+public abstract class CoalescingCacheObserver implements CacheObserver {
+	private static final int FRAME_MILLIS = 16;
+	
+	// Observers with pending events, shared by all observers:
+	private static final Set<CoalescingCacheObserver> _pendingObservers = new LinkedHashSet<CoalescingCacheObserver>();
+	private static final Timer _timer = new Timer(FRAME_MILLIS, new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			dispatch();
+		}
+	});
+	
+	static {
+		_timer.setRepeats(false);
+		_timer.setCoalesce(true);
+	}
+	
+	private CacheEvent _pending = null; // guarded by _pendingObservers
+	
+	/**
+	 * Queues the event for delivery on the event dispatch thread.
+	 */
+	@Override
+	public final void notify(CacheEvent event) {
+		synchronized (_pendingObservers) {
+			_pending = (_pending != null) ? _pending.coalesce(event) : event;
+			if (_pendingObservers.add(this) && _pendingObservers.size() == 1) {
+				_timer.start();
+			}
+		}
+	}
+	
+	/**
+	 * Drops pending events, e.g. when the observing component is disposed.
+	 */
+	public void cancel() {
+		synchronized (_pendingObservers) {
+			_pending = null;
+			_pendingObservers.remove(this);
+		}
+	}
+	
+	/**
+	 * Called on the event dispatch thread with the events received within
+	 * the last frame.
+	 * 
+	 * @param event The coalesced event
+	 */
+	protected abstract void cacheChanged(CacheEvent event);
+	
+	private static void dispatch() {
+		List<CoalescingCacheObserver> observers;
+		List<CacheEvent> events;
+		synchronized (_pendingObservers) {
+			observers = new ArrayList<CoalescingCacheObserver>(_pendingObservers);
+			events = new ArrayList<CacheEvent>(observers.size());
+			for (CoalescingCacheObserver observer : observers) {
+				events.add(observer._pending);
+				observer._pending = null;
+			}
+			_pendingObservers.clear();
+		}
+		
+		for (int i = 0; i < observers.size(); i++) {
+			observers.get(i).cacheChanged(events.get(i));
+		}
+	}
+}
@@ -23,7 +23,7 @@ import de.hackermuehle.pdfpresenter.model.tools.Tool;
 
 public class MagnifierMasterInputPanel extends MasterInputPanel {
 	private static final long serialVersionUID = 1L;
-	private static final double MAX_ZOOM = 4;
+	private static final double MAX_ZOOM = 8;
 	private Point2D _point = null;
 	private Rectangle2D _rectangle = null;
 	private Presentation _presentation = null;
@@ -7,11 +7,15 @@ import java.awt.GraphicsEnvironment;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
-import de.hackermuehle.pdfpresenter.model.CacheEntry;
-import de.hackermuehle.pdfpresenter.model.CacheObserver;
+import de.hackermuehle.pdfpresenter.model.CacheEvent;
 import de.hackermuehle.pdfpresenter.model.Clipping;
 import de.hackermuehle.pdfpresenter.model.ImmutableClipping;
+import de.hackermuehle.pdfpresenter.model.PrefetchPolicy;
 import de.hackermuehle.pdfpresenter.model.document.Document;
 import de.hackermuehle.pdfpresenter.model.slide.Grid;
 import de.hackermuehle.pdfpresenter.model.slide.Slide;
@@ -29,38 +33,44 @@ public class SlideViewPanel extends ViewPanel {
 	private boolean _reuseBuffer = false;
 	private Rectangle2D _dirty = null;
 	private int _priority;
-	private int _precachePriority;
 	protected Slide _slide;
-	protected Slide _precacheSlide;
+	private List<Slide> _slides;
+	private PrefetchPolicy _prefetchPolicy;
 	private Grid _grid;
 	private Clipping _clipping;
 	private Rectangle2D _source;
 	private Rectangle2D _bufferSource = null;
 	private BufferedImage _buffer = null;
 	private SlideCacheEntry _slideCacheEntry = null;
-	private SlideCacheEntry _precacheCacheEntry = null;
+	private Clipping _failedClipping = null; // caching failed at this clipping
+	private Map<Slide, SlideCacheEntry> _prefetchEntries = new HashMap<Slide, SlideCacheEntry>();
 	private ViewPanelGraphicsListener _graphicsListener = new ViewPanelGraphicsListener();
 	private SlideCacheObserver _slideCacheObserver = new SlideCacheObserver();
 	
 	public SlideViewPanel(Slide slide, Rectangle2D source, Grid grid) {
-		initialize(slide, source, grid, 0, null, 0);
+		initialize(slide, source, grid, 0, null, null);
 	}
 	
 	public SlideViewPanel(Slide slide, Rectangle2D source, Grid grid, int priority) {
-		initialize(slide, source, grid, priority, null, 0);
+		initialize(slide, source, grid, priority, null, null);
 	}
 	
-	public SlideViewPanel(Slide slide, Rectangle2D source, Grid grid, int priority, Slide precacheSlide, int precachePriority) {
-		initialize(slide, source, grid, priority, precacheSlide, precachePriority);
+	/**
+	 * @param slides Slides around the given slide are kept cached as decided
+	 * by the prefetch policy
+	 * @param prefetchPolicy
+	 */
+	public SlideViewPanel(Slide slide, Rectangle2D source, Grid grid, int priority, List<Slide> slides, PrefetchPolicy prefetchPolicy) {
+		initialize(slide, source, grid, priority, slides, prefetchPolicy);
 	}
 	
-	private void initialize(Slide slide, Rectangle2D source, Grid grid, int priority, Slide precacheSlide, int precachePriority) {
+	private void initialize(Slide slide, Rectangle2D source, Grid grid, int priority, List<Slide> slides, PrefetchPolicy prefetchPolicy) {
 		_source = (Rectangle2D) source.clone();
 		
 		_grid = grid;
 		_priority = priority;
-		_precacheSlide = precacheSlide;
-		_precachePriority = precachePriority;
+		_slides = slides;
+		_prefetchPolicy = prefetchPolicy;
 		
 		// Listen to slide changes immediately:
 		_slide = slide;
@@ -76,12 +86,24 @@ public class SlideViewPanel extends ViewPanel {
 		super.finalize();
 	}
 	
-	class SlideCacheObserver implements CacheObserver {
+	/**
+	 * Redraws the area that became ready, at most once per frame. If caching
+	 * failed, the slide is drawn without waiting for the cache, until the
+	 * clipping changes.
+	 */
+	class SlideCacheObserver extends CoalescingCacheObserver {
 		@Override
-		public void notify(CacheEntry cacheEntry, String msg) {
+		protected void cacheChanged(CacheEvent event) {
+			if (_clipping == null) return;
 			
-			makeDirty(_slide.getSize(), true);
-			repaint();
+			Rectangle2D area = event.getArea();
+			if (event.getKind() == CacheEvent.Kind.ERROR) {
+				_failedClipping = _clipping;
+				makeDirty(area, false);
+			} else {
+				makeDirty(area, true);
+			}
+			repaint(_clipping.getTransform().createTransformedShape(area).getBounds());
 		}
 	}
 	
@@ -125,7 +147,7 @@ public class SlideViewPanel extends ViewPanel {
 				_buffer = null;
 				_clipping = null;
 				if (_slideCacheEntry != null) _slideCacheEntry.dispose();
-				if (_precacheCacheEntry != null) _precacheCacheEntry.dispose();
+				disposePrefetch();
 				return;
 			}
 			
@@ -139,12 +161,7 @@ public class SlideViewPanel extends ViewPanel {
 				} else {
 					_slideCacheEntry = _slide.cache(_clipping, _priority, _slideCacheObserver);
 				}
-					
-				if (_precacheCacheEntry != null) {
-					_precacheCacheEntry.update(_clipping, _priority, null);
-				} else if (_precacheSlide != null) {
-					_precacheCacheEntry = _precacheSlide.cache(_clipping, _precachePriority, null);
-				}
+				updatePrefetch();
 			}
 			
 			makeDirty(_slide.getSize(), false);
@@ -166,17 +183,17 @@ public class SlideViewPanel extends ViewPanel {
 		return _slide;
 	}
 	
-	public void setSlide(Slide slide, Slide precacheSlide, Rectangle2D source, int precachePriority) {
+	/**
+	 * Displays the given slide and prefetches slides around it.
+	 * 
+	 * @param slide
+	 * @param slides The slides of the presentation
+	 * @param source
+	 */
+	public void setSlide(Slide slide, List<Slide> slides, Rectangle2D source) {
+		_slides = slides;
 		setSlide(slide, source);
-		
-		if (precacheSlide != _precacheSlide) {
-			if (_precacheCacheEntry != null) _precacheCacheEntry.dispose();
-			if (precacheSlide != null) _precacheCacheEntry = precacheSlide.cache(_clipping, precachePriority, null);
-		} else if (_precacheCacheEntry != null) {
-			_precacheCacheEntry.update(_clipping, precachePriority, null);
-		}
-		_precacheSlide = precacheSlide;
-		_precachePriority = precachePriority;
+		updatePrefetch();
 	}
 	
 	public void setSlide(Slide slide, Rectangle2D source) {
@@ -191,7 +208,7 @@ public class SlideViewPanel extends ViewPanel {
 			_buffer = null;
 			_clipping = null;
 			if (_slideCacheEntry != null) _slideCacheEntry.dispose();
-			if (_precacheCacheEntry != null) _precacheCacheEntry.dispose();
+			disposePrefetch();
 			return;
 		}
 		
@@ -232,7 +249,7 @@ public class SlideViewPanel extends ViewPanel {
 			_buffer = null;
 			_clipping = null;
 			if (_slideCacheEntry != null) _slideCacheEntry.dispose();
-			if (_precacheCacheEntry != null) _precacheCacheEntry.dispose();
+			disposePrefetch();
 			return;
 		}
 		
@@ -240,18 +257,13 @@ public class SlideViewPanel extends ViewPanel {
 		if (!clipping.equals(_clipping)) {
 			_clipping = clipping;
 			
-			// Clipping changed, cache entries have to be updated:
+			// Clipping changed, cache entries have to be updated. Prefetched
+			// slides are shown in full size, whatever the zoom:
 			if (_slideCacheEntry != null) {
 				_slideCacheEntry.update(_clipping, _priority, _slideCacheObserver);
 			} else {
 				_slideCacheEntry = _slide.cache(_clipping, _priority, _slideCacheObserver);
 			}
-				
-			if (_precacheCacheEntry != null) {
-				_precacheCacheEntry.update(_clipping, _priority, null);
-			} else if (_precacheSlide != null) {
-				_precacheCacheEntry = _precacheSlide.cache(_clipping, _precachePriority, null);
-			}
 			
 			// Repaint immediately if there is no caching:
 			if (_slideCacheEntry == null) {
@@ -281,9 +293,8 @@ public class SlideViewPanel extends ViewPanel {
 			_slideCacheEntry.dispose();
 		}
 
-		if (_precacheCacheEntry != null) {
-			_precacheCacheEntry.dispose();
-		}
+		disposePrefetch();
+		_slideCacheObserver.cancel();
 		
 		// The slide might remain in usage, this graphicsListener not:
 		_slide.removeListener(_graphicsListener);
@@ -342,8 +353,10 @@ public class SlideViewPanel extends ViewPanel {
 			if (_dirty != null) {
 
 				
-				// Caching is not available or finished, draw immediately:
-				if (_slideCacheEntry == null || _slideCacheEntry.isCached() && _slideCacheEntry.getClipping().equals(_clipping)) {
+				// Caching is not available or finished, draw immediately. A
+				// preview is drawn as well, but the buffer stays dirty:
+				boolean cached = _slideCacheEntry == null || _failedClipping == _clipping || _slideCacheEntry.isCached() && _slideCacheEntry.getClipping().equals(_clipping);
+				if (cached || _slideCacheEntry.isPreviewAvailable() && _slideCacheEntry.getClipping().equals(_clipping)) {
 					Graphics2D g2dbuffer = (Graphics2D) _buffer.createGraphics();
 					
 					//if (!_reuseBuffer) {
@@ -413,7 +426,7 @@ public class SlideViewPanel extends ViewPanel {
 					}*/
 					g2dbuffer.dispose();
 					
-					_dirty = null;
+					if (cached) _dirty = null;
 				}
 			}
 			
@@ -424,7 +437,10 @@ public class SlideViewPanel extends ViewPanel {
 		else {
 			// Don't use a buffer to save memory:
 			// Caching is not available or finished, draw immediately:
-			if (_slideCacheEntry == null || _slideCacheEntry.isCached() && _slideCacheEntry.getClipping().equals(_clipping)) {
+			if (_slideCacheEntry == null || _failedClipping == _clipping || _slideCacheEntry.isCached() && _slideCacheEntry.getClipping().equals(_clipping)) {
+				_slide.paint((Graphics2D) g, _clipping, _grid, 0);
+			}
+			else if (_slideCacheEntry.isPreviewAvailable() && _slideCacheEntry.getClipping().equals(_clipping)) {
 				_slide.paint((Graphics2D) g, _clipping, _grid, 0);
 			}
 			else paintPreviewSlide((Graphics2D) g);
@@ -436,6 +452,55 @@ public class SlideViewPanel extends ViewPanel {
 		//g2d.fill(g.getClip().getBounds());
 	}
 	
+	/**
+	 * Caches the slides chosen by the prefetch policy in full size at the
+	 * size of this panel, and releases the slides no longer chosen.
+	 */
+	private void updatePrefetch() {
+		if (_prefetchPolicy == null || _slides == null || _clipping == null) return;
+		
+		Clipping clipping;
+		try {
+			clipping = createClipping(_slide.getSize());
+		} catch (NoninvertibleTransformException e) {
+			disposePrefetch();
+			return;
+		}
+		long pageBytes = 4L * (long) clipping.getDestination().getWidth() * (long) clipping.getDestination().getHeight();
+		Map<Slide, Integer> window = _prefetchPolicy.getWindow(_slides, _slide, pageBytes);
+		
+		Iterator<Map.Entry<Slide, SlideCacheEntry>> iterator = _prefetchEntries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Slide, SlideCacheEntry> entry = iterator.next();
+			if (!window.containsKey(entry.getKey())) {
+				entry.getValue().dispose();
+				iterator.remove();
+			}
+		}
+		
+		for (Map.Entry<Slide, Integer> slide : window.entrySet()) {
+			try {
+				clipping = createClipping(slide.getKey().getSize());
+			} catch (NoninvertibleTransformException e) {
+				continue;
+			}
+			SlideCacheEntry entry = _prefetchEntries.get(slide.getKey());
+			if (entry != null) {
+				entry.update(clipping, slide.getValue(), null);
+			} else {
+				entry = slide.getKey().cache(clipping, slide.getValue(), null);
+				if (entry != null) _prefetchEntries.put(slide.getKey(), entry);
+			}
+		}
+	}
+	
+	private void disposePrefetch() {
+		for (SlideCacheEntry entry : _prefetchEntries.values()) {
+			entry.dispose();
+		}
+		_prefetchEntries.clear();
+	}
+	
 	private void makeDirty(Rectangle2D dirt, boolean reuse) {
 		if (reuse && _dirty == null) {
 			_reuseBuffer = true;
@@ -0,0 +1,54 @@
+package de.hackermuehle.pdfpresenter.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.geom.Rectangle2D;
+
+import org.junit.Test;
+
+public class CacheEventTest {
+	private static class Entry implements CacheEntry {
+		@Override
+		public void dispose() {
+		}
+
+		@Override
+		public boolean isCached() {
+			return true;
+		}
+
+		@Override
+		public boolean isPreviewAvailable() {
+			return true;
+		}
+
+		@Override
+		public ImmutableClipping getClipping() {
+			return null;
+		}
+	}
+
+	@Test
+	public void coalesce() {
+		Entry entry = new Entry();
+		CacheEvent preview = new CacheEvent(entry, CacheEvent.Kind.PREVIEW, new Rectangle2D.Double(0, 0, 10, 10));
+		CacheEvent ready = new CacheEvent(entry, CacheEvent.Kind.READY, new Rectangle2D.Double(20, 5, 10, 10));
+
+		CacheEvent event = preview.coalesce(ready);
+		assertSame(entry, event.getEntry());
+		assertEquals(CacheEvent.Kind.READY, event.getKind());
+		assertEquals(new Rectangle2D.Double(0, 0, 30, 15), event.getArea());
+		assertEquals(new Rectangle2D.Double(0, 0, 10, 10), preview.getArea());
+	}
+
+	@Test
+	public void coalesceKeepsError() {
+		Entry entry = new Entry();
+		CacheEvent error = new CacheEvent(entry, CacheEvent.Kind.ERROR, new Rectangle2D.Double(0, 0, 10, 10));
+		CacheEvent ready = new CacheEvent(entry, CacheEvent.Kind.READY, new Rectangle2D.Double(20, 5, 10, 10));
+
+		assertEquals(CacheEvent.Kind.ERROR, error.coalesce(ready).getKind());
+		assertEquals(CacheEvent.Kind.ERROR, ready.coalesce(error).getKind());
+	}
+}
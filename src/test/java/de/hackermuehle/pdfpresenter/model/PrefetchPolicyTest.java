@@ -0,0 +1,75 @@
+package de.hackermuehle.pdfpresenter.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import de.hackermuehle.pdfpresenter.model.document.Document;
+import de.hackermuehle.pdfpresenter.model.slide.Slide;
+
+public class PrefetchPolicyTest {
+	private static final long PAGE = 1024 * 768 * 4;
+	private static final long BUDGET = 256L * 1024 * 1024;
+
+	private static List<Slide> slides(int count) {
+		List<Slide> slides = new ArrayList<Slide>();
+		for (int i = 0; i < count; i++) slides.add(new Slide());
+		return slides;
+	}
+
+	@Test
+	public void previousAndNextFirst() {
+		List<Slide> slides = slides(20);
+		PrefetchPolicy policy = new PrefetchPolicy();
+		Map<Slide, Integer> window = policy.getWindow(slides, slides.get(10), PAGE, BUDGET, 0);
+
+		assertEquals(2, window.size());
+		Iterator<Map.Entry<Slide, Integer>> iterator = window.entrySet().iterator();
+		Map.Entry<Slide, Integer> first = iterator.next();
+		assertEquals(slides.get(11), first.getKey());
+		assertEquals(Document.PRIO_PRECACHE, (int) first.getValue());
+		assertEquals(slides.get(9), iterator.next().getKey());
+	}
+
+	@Test
+	public void growsWithRenderCostAndLeansForward() {
+		List<Slide> slides = slides(20);
+		PrefetchPolicy policy = new PrefetchPolicy();
+		for (int i = 5; i <= 10; i++) {
+			policy.getWindow(slides, slides.get(i), PAGE, BUDGET, 400);
+		}
+		Map<Slide, Integer> window = policy.getWindow(slides, slides.get(10), PAGE, BUDGET, 400);
+
+		assertEquals(6, window.size());
+		assertTrue(window.containsKey(slides.get(9)));
+		assertTrue(window.containsKey(slides.get(15)));
+		assertTrue(window.get(slides.get(12)) > window.get(slides.get(9)));
+	}
+
+	@Test
+	public void turnsAround() {
+		List<Slide> slides = slides(20);
+		PrefetchPolicy policy = new PrefetchPolicy();
+		for (int i = 15; i >= 10; i--) {
+			policy.getWindow(slides, slides.get(i), PAGE, BUDGET, 400);
+		}
+		assertTrue(policy.getDirection() < 0);
+		Map<Slide, Integer> window = policy.getWindow(slides, slides.get(10), PAGE, BUDGET, 400);
+		assertTrue(window.containsKey(slides.get(5)));
+		assertTrue(window.containsKey(slides.get(11)));
+	}
+
+	@Test
+	public void limitedByBudget() {
+		List<Slide> slides = slides(20);
+		PrefetchPolicy policy = new PrefetchPolicy();
+		Map<Slide, Integer> window = policy.getWindow(slides, slides.get(10), PAGE, 12 * PAGE, 1000);
+		assertEquals(3, window.size());
+	}
+}
@@ -0,0 +1,74 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressedRasterCacheTest {
+	private CompressedRasterCache _cache = CompressedRasterCache.getInstance();
+	private long _budget;
+
+	@Before
+	public void setUp() {
+		_budget = _cache.getBudget();
+		_cache.removeAll(null);
+	}
+
+	@After
+	public void tearDown() {
+		_cache.removeAll(null);
+		_cache.setBudget(_budget);
+	}
+
+	private static CachedRaster page(int pageNr, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, width, height);
+		g2d.setColor(Color.RED);
+		g2d.drawString("Page " + pageNr, 10, 20);
+		g2d.dispose();
+		return new CachedRaster(pageNr, image, Document.PRIO_MAIN);
+	}
+
+	@Test
+	public void promote() {
+		CachedRaster raster = page(1, 400, 300);
+		_cache.put(null, raster);
+		assertTrue(_cache.getSize() < raster.getBytes() / 10);
+		assertEquals(raster.getBytes(), _cache.getRawSize());
+
+		BufferedImage image = _cache.get(null, 1, 400, 300);
+		assertNotNull(image);
+		for (int y = 0; y < 300; y++) {
+			for (int x = 0; x < 400; x++) {
+				assertEquals(raster.getImage().getRGB(x, y), image.getRGB(x, y));
+			}
+		}
+		assertNull(_cache.get(null, 1, 400, 301));
+		assertNull(_cache.get(null, 2, 400, 300));
+	}
+
+	@Test
+	public void leastRecentlyUsedFirst() {
+		_cache.put(null, page(1, 400, 300));
+		long size = _cache.getSize();
+		_cache.setBudget(2 * size + size / 2);
+		_cache.put(null, page(2, 400, 300));
+		_cache.get(null, 1, 400, 300);
+		_cache.put(null, page(3, 400, 300));
+
+		assertNotNull(_cache.get(null, 1, 400, 300));
+		assertNull(_cache.get(null, 2, 400, 300));
+		assertNotNull(_cache.get(null, 3, 400, 300));
+	}
+}
@@ -0,0 +1,64 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DecodedImageCacheTest {
+	private DecodedImageCache _cache = new DecodedImageCache();
+	private long _budget;
+
+	@Before
+	public void setUp() {
+		_budget = DecodedImageCache.getBudget();
+	}
+
+	@After
+	public void tearDown() {
+		_cache.clear();
+		DecodedImageCache.setBudget(_budget);
+	}
+
+	private static DecodedImageCache.DecodedImage image(int width, int height) {
+		return new DecodedImageCache.DecodedImage(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB),
+				new AffineTransform(), 1000000);
+	}
+
+	@Test
+	public void bytes() {
+		assertEquals(4 * 100 * 50, image(100, 50).getBytes());
+		assertEquals(100 * 50, new DecodedImageCache.DecodedImage(new BufferedImage(100, 50, BufferedImage.TYPE_BYTE_GRAY),
+				new AffineTransform(), 0).getBytes());
+	}
+
+	@Test
+	public void leastRecentlyUsedFirst() {
+		long size = DecodedImageCache.getSize();
+		DecodedImageCache.setBudget(size + 3 * 40000);
+		_cache.put(DecodedImageCache.key(1, 0), image(100, 100));
+		_cache.put(DecodedImageCache.key(2, 0), image(100, 100));
+		_cache.get(DecodedImageCache.key(1, 0));
+		_cache.put(DecodedImageCache.key(3, 0), image(100, 100));
+		assertEquals(size + 3 * 40000, DecodedImageCache.getSize());
+
+		_cache.put(DecodedImageCache.key(4, 0), image(100, 100));
+		assertNotNull(_cache.get(DecodedImageCache.key(1, 0)));
+		assertNull(_cache.get(DecodedImageCache.key(2, 0)));
+		assertNull(_cache.get(DecodedImageCache.key(1, 1)));
+		assertEquals(size + 3 * 40000, DecodedImageCache.getSize());
+	}
+
+	@Test
+	public void largerThanBudget() {
+		DecodedImageCache.setBudget(DecodedImageCache.getSize() + 1000);
+		_cache.put(DecodedImageCache.key(1, 0), image(100, 100));
+		assertNull(_cache.get(DecodedImageCache.key(1, 0)));
+	}
+}
@@ -0,0 +1,91 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import de.hackermuehle.pdfpresenter.model.CacheEvent;
+import de.hackermuehle.pdfpresenter.model.CacheObserver;
+import de.hackermuehle.pdfpresenter.model.Clipping;
+
+public class DeduplicationTest {
+
+	/**
+	 * Pages 0 and 2 are identical.
+	 */
+	private static class RepeatingDocument extends Document {
+		private final AtomicIntegerArray _paints = new AtomicIntegerArray(3);
+
+		@Override
+		public String getTitle() {
+			return "repeating";
+		}
+
+		@Override
+		public int getNumberOfPages() {
+			return 3;
+		}
+
+		@Override
+		public double getPageRatio(int pageNr) {
+			return 4 / 3.0;
+		}
+
+		@Override
+		public Rectangle2D getBounds(int pageNr) {
+			return new Rectangle2D.Double(0, 0, 400, 300);
+		}
+
+		@Override
+		protected int getCanonicalPage(int pageNr) {
+			return (pageNr == 2) ? 0 : pageNr;
+		}
+
+		@Override
+		protected void paintContent(Graphics2D g2d, int pageNr, Clipping clipping) {
+			_paints.incrementAndGet(pageNr);
+			g2d.fill(getBounds(pageNr));
+		}
+	}
+
+	private static class Observer implements CacheObserver {
+		private final CountDownLatch _ready = new CountDownLatch(1);
+
+		@Override
+		public void notify(CacheEvent event) {
+			if (event.getKind() == CacheEvent.Kind.READY) _ready.countDown();
+		}
+	}
+
+	@Test
+	public void identicalPagesRenderOnce() throws Exception {
+		RepeatingDocument document = new RepeatingDocument();
+		try {
+			Clipping clipping = new Clipping(document.getBounds(0), new Rectangle(0, 0, 800, 600));
+			Observer first = new Observer();
+			DocumentCacheEntry firstEntry = document.cache(0, clipping, Document.PRIO_MAIN, first);
+			assertTrue(first._ready.await(10, TimeUnit.SECONDS));
+
+			Observer repeated = new Observer();
+			DocumentCacheEntry repeatedEntry = document.cache(2, clipping, Document.PRIO_MAIN, repeated);
+			assertTrue(repeated._ready.await(10, TimeUnit.SECONDS));
+			assertTrue(document.isCached(2, clipping));
+			assertEquals(0, document._paints.get(2));
+			assertEquals(1, document.getMetrics().getDeduplicatedRenders());
+			assertEquals(4L * 800 * 600, document.getMetrics().getDeduplicatedBytes());
+
+			firstEntry.dispose();
+			repeatedEntry.dispose();
+		} finally {
+			document.dispose();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.hackermuehle.pdfpresenter.model.CacheEvent;
+import de.hackermuehle.pdfpresenter.model.CacheObserver;
+import de.hackermuehle.pdfpresenter.model.Clipping;
+
+public class DeltaRenderingTest {
+	private static final Rectangle2D BULLET = new Rectangle2D.Double(100, 200, 50, 50);
+
+	/**
+	 * Page 1 adds a bullet to page 0.
+	 */
+	private static class OverlayDocument extends Document {
+		private volatile Rectangle2D _paintedArea;
+
+		@Override
+		public String getTitle() {
+			return "overlay";
+		}
+
+		@Override
+		public int getNumberOfPages() {
+			return 2;
+		}
+
+		@Override
+		public double getPageRatio(int pageNr) {
+			return 4 / 3.0;
+		}
+
+		@Override
+		public Rectangle2D getBounds(int pageNr) {
+			return new Rectangle2D.Double(0, 0, 400, 300);
+		}
+
+		@Override
+		protected Rectangle2D getChangedArea(int pageNr, int basePageNr) {
+			return BULLET;
+		}
+
+		@Override
+		protected void paintContent(Graphics2D g2d, int pageNr, Clipping clipping) {
+			if (pageNr == 1) _paintedArea = g2d.getClipBounds();
+			g2d.setPaint(Color.WHITE);
+			g2d.fill(getBounds(pageNr));
+			g2d.setPaint(Color.BLACK);
+			g2d.fill(new Rectangle2D.Double(0, 0, 400, 50));
+			if (pageNr == 1) {
+				g2d.setPaint(Color.RED);
+				g2d.fill(BULLET);
+			}
+		}
+	}
+
+	private static class Observer implements CacheObserver {
+		private final CountDownLatch _ready = new CountDownLatch(1);
+
+		@Override
+		public void notify(CacheEvent event) {
+			if (event.getKind() == CacheEvent.Kind.READY) _ready.countDown();
+		}
+	}
+
+	@Test
+	public void overlayStepIsPatched() throws Exception {
+		boolean deltaRendering = Document.isDeltaRendering();
+		Document.setDeltaRendering(true);
+		OverlayDocument document = new OverlayDocument();
+		try {
+			Clipping clipping = new Clipping(document.getBounds(0), new Rectangle(0, 0, 800, 600));
+			Observer first = new Observer();
+			DocumentCacheEntry firstEntry = document.cache(0, clipping, Document.PRIO_MAIN, first);
+			assertTrue(first._ready.await(10, TimeUnit.SECONDS));
+
+			Observer next = new Observer();
+			DocumentCacheEntry nextEntry = document.cache(1, clipping, Document.PRIO_MAIN, next);
+			assertTrue(next._ready.await(10, TimeUnit.SECONDS));
+			assertTrue(document._paintedArea.getWidth() < 60);
+			assertTrue(document.getMetrics().getDeltaRenders() > 0);
+
+			PatchedRaster patched = null;
+			for (CachedRaster raster : document.getCachedRasters()) {
+				if (raster.getPageNr() == 1 && raster.getWidth() == 800) patched = (PatchedRaster) raster;
+			}
+			assertNotNull(patched);
+			assertEquals(0, patched.getBase().getPageNr());
+			assertTrue(patched.getBytes() < 4L * 100 * 100 + 4096);
+			assertTrue(document.getMetrics().getPatchedBytes() >= 4L * 800 * 600 - patched.getBytes());
+
+			BufferedImage image = patched.copyImage();
+			assertEquals(Color.BLACK.getRGB(), image.getRGB(10, 10));
+			assertEquals(Color.RED.getRGB(), image.getRGB(250, 450));
+			assertEquals(Color.WHITE.getRGB(), image.getRGB(10, 300));
+
+			// The patch is dropped with its base:
+			assertTrue(document.evict(patched.getBase(), false));
+			for (CachedRaster raster : document.getCachedRasters()) {
+				assertTrue(raster != patched);
+			}
+
+			firstEntry.dispose();
+			nextEntry.dispose();
+		} finally {
+			document.dispose();
+			Document.setDeltaRendering(deltaRendering);
+		}
+	}
+}
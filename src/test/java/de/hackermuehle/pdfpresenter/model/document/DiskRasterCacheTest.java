@@ -0,0 +1,176 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.hackermuehle.pdfpresenter.model.CacheEvent;
+import de.hackermuehle.pdfpresenter.model.CacheObserver;
+import de.hackermuehle.pdfpresenter.model.Clipping;
+
+public class DiskRasterCacheTest {
+
+	/**
+	 * An A4 page, whose pixel size needs rounding on most screens.
+	 */
+	private static class FingerprintedDocument extends Document {
+		private final String _fingerprint;
+
+		public FingerprintedDocument(String fingerprint) {
+			_fingerprint = fingerprint;
+		}
+
+		@Override
+		public String getTitle() {
+			return "fingerprinted";
+		}
+
+		@Override
+		public int getNumberOfPages() {
+			return 1;
+		}
+
+		@Override
+		public double getPageRatio(int pageNr) {
+			return 595 / 842.0;
+		}
+
+		@Override
+		public Rectangle2D getBounds(int pageNr) {
+			return new Rectangle2D.Double(0, 0, 595, 842);
+		}
+
+		@Override
+		protected String getFingerprint() {
+			return _fingerprint;
+		}
+
+		@Override
+		protected void paintContent(Graphics2D g2d, int pageNr, Clipping clipping) {
+			g2d.fill(getBounds(pageNr));
+		}
+	}
+
+	private File _directory;
+
+	@Before
+	public void setUp() throws IOException {
+		_directory = File.createTempFile("fingerprint", "");
+		_directory.delete();
+		_directory.mkdir();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : _directory.listFiles()) {
+			file.delete();
+		}
+		_directory.delete();
+	}
+
+	private File write(String name, byte[] content, long lastModified) throws IOException {
+		File file = new File(_directory, name);
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(content);
+		} finally {
+			output.close();
+		}
+		file.setLastModified(lastModified);
+		return file;
+	}
+
+	private static byte[] pdf(int size, long seed) throws IOException {
+		byte[] content = new byte[size];
+		new Random(seed).nextBytes(content);
+		byte[] trailer = "\ntrailer\n<< >>\nstartxref\n150000\n%%EOF\n".getBytes("ISO-8859-1");
+		System.arraycopy(trailer, 0, content, size - trailer.length, trailer.length);
+		return content;
+	}
+
+	@Test
+	public void copiesShareTheFingerprint() throws IOException {
+		byte[] content = pdf(300 * 1024, 1);
+		File original = write("original.pdf", content, 1000000000000L);
+		File copy = write("copy.pdf", content, 1200000000000L);
+
+		assertEquals(DiskRasterCache.fingerprint(original), DiskRasterCache.fingerprint(copy));
+	}
+
+	@Test
+	public void rewriteOfTheSameSizeAndTimeIsDetected() throws IOException {
+		long lastModified = System.currentTimeMillis() / 1000 * 1000;
+		File file = write("slides.pdf", pdf(300 * 1024, 1), lastModified);
+		String fingerprint = DiskRasterCache.fingerprint(file);
+
+		// Only the cross reference section, far from both ends, changes:
+		byte[] content = pdf(300 * 1024, 1);
+		content[150000] ^= 1;
+		write("slides.pdf", content, lastModified);
+
+		assertFalse(fingerprint.equals(DiskRasterCache.fingerprint(file)));
+	}
+
+	@Test
+	public void warmedPageIsFoundByTheView() throws Exception {
+		String fingerprint = "test-" + System.nanoTime();
+		File stored = new File(DiskRasterCache.getInstance().getDirectory(), fingerprint);
+		Document shown = new FingerprintedDocument(fingerprint);
+		try {
+
+			// Warmed by the batch renderer for a 1024x768 screen:
+			Document warmed = new FingerprintedDocument(fingerprint);
+			Dimension size = warmed.getPixelSize(0, 1024, 768);
+			warmed.renderPage(0, size.width, size.height, true);
+			DiskRasterCache.getInstance().flush();
+			warmed.dispose();
+
+			// Shown on that screen in a later session:
+			final CountDownLatch ready = new CountDownLatch(1);
+			CacheObserver observer = new CacheObserver() {
+				@Override
+				public void notify(CacheEvent event) {
+					if (event.getKind() == CacheEvent.Kind.READY) ready.countDown();
+				}
+			};
+			long hits = CacheStatistics.getInstance().getHits(CacheStatistics.Tier.DISK);
+			Rectangle2D bounds = shown.getBounds(0);
+			Clipping clipping = new Clipping(bounds, Clipping.createDestination(bounds, 1024, 768));
+			DocumentCacheEntry entry = shown.cache(0, clipping, Document.PRIO_MAIN, observer);
+			assertTrue(ready.await(10, TimeUnit.SECONDS));
+			assertEquals(hits + 1, CacheStatistics.getInstance().getHits(CacheStatistics.Tier.DISK));
+			entry.dispose();
+		} finally {
+			shown.dispose();
+			File[] files = stored.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			stored.delete();
+		}
+	}
+
+	@Test
+	public void startXref() throws IOException {
+		assertEquals(1234, DiskRasterCache.findStartXref("xref\nstartxref\r\n1234\r\n%%EOF".getBytes("ISO-8859-1")));
+		assertEquals(56, DiskRasterCache.findStartXref("startxref 12\nstartxref 56\n%%EOF".getBytes("ISO-8859-1")));
+		assertEquals(-1, DiskRasterCache.findStartXref("startxref\n%%EOF".getBytes("ISO-8859-1")));
+		assertEquals(-1, DiskRasterCache.findStartXref("%%EOF".getBytes("ISO-8859-1")));
+	}
+}
@@ -0,0 +1,155 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DisplayListTest {
+	private DisplayListCache _cache = new DisplayListCache();
+	private long _budget = DisplayListCache.getBudget();
+
+	@After
+	public void tearDown() {
+		_cache.clear();
+		DisplayListCache.setBudget(_budget);
+	}
+
+	/**
+	 * Draws like a page renderer: transformations, clips, paints, a reused
+	 * path and an image.
+	 */
+	private static void paint(Graphics2D g2d) {
+		BufferedImage logo = new BufferedImage(8, 4, BufferedImage.TYPE_INT_ARGB);
+		for (int x = 0; x < 8; x++) {
+			logo.setRGB(x, x / 2, 0xff00ff00);
+		}
+
+		g2d.translate(10, 10);
+		g2d.setPaint(new GradientPaint(0, 0, Color.RED, 50, 50, Color.BLUE));
+		g2d.fill(new Rectangle2D.Double(0, 0, 60, 40));
+
+		GeneralPath path = new GeneralPath();
+		path.moveTo(0, 0);
+		path.lineTo(30, 50);
+		path.lineTo(60, 0);
+		g2d.setStroke(new BasicStroke(3));
+		g2d.setColor(Color.BLACK);
+		g2d.draw(path);
+		path.reset();
+		path.moveTo(0, 50);
+		path.lineTo(60, 50);
+		g2d.draw(path);
+
+		g2d.clip(new Ellipse2D.Double(20, 0, 40, 40));
+		g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f));
+		g2d.drawImage(logo, AffineTransform.getScaleInstance(5, 5), null);
+		g2d.dispose();
+	}
+
+	private static BufferedImage image(double scale, DisplayList displayList) {
+		BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, 200, 200);
+		g2d.clipRect(5, 5, 150, 150);
+		g2d.scale(scale, scale);
+		if (displayList != null) {
+			displayList.replay(g2d);
+		} else {
+			paint(g2d);
+		}
+		g2d.dispose();
+		return image;
+	}
+
+	@Test
+	public void replayAtAnyScale() {
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+		RecordingGraphics2D recording = new RecordingGraphics2D(scratch.createGraphics());
+		paint(recording);
+		DisplayList displayList = recording.getDisplayList();
+		assertEquals(4, displayList.size());
+		assertTrue(displayList.getBytes() > 8 * 4 * 4);
+
+		for (double scale : new double[] { 1, 2, 0.5 }) {
+			BufferedImage expected = image(scale, null);
+			BufferedImage replayed = image(scale, displayList);
+			for (int y = 0; y < 200; y++) {
+				for (int x = 0; x < 200; x++) {
+					assertEquals("scale " + scale + " at " + x + "," + y, expected.getRGB(x, y), replayed.getRGB(x, y));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void replayRestoresGraphics() {
+		RecordingGraphics2D recording = new RecordingGraphics2D(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics());
+		paint(recording);
+
+		Graphics2D g2d = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB).createGraphics();
+		g2d.setColor(Color.ORANGE);
+		g2d.scale(2, 2);
+		recording.getDisplayList().replay(g2d);
+		assertEquals(Color.ORANGE, g2d.getColor());
+		assertEquals(AffineTransform.getScaleInstance(2, 2), g2d.getTransform());
+		assertNull(g2d.getClip());
+		assertEquals(AlphaComposite.SrcOver, g2d.getComposite());
+	}
+
+	/**
+	 * Records a slide, with an additional bullet as the next overlay step.
+	 */
+	private static DisplayList overlay(boolean bullet) {
+		RecordingGraphics2D recording = new RecordingGraphics2D(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics());
+		recording.setColor(Color.BLACK);
+		recording.fill(new Rectangle2D.Double(10, 10, 180, 20));
+		if (bullet) {
+			recording.setColor(Color.RED);
+			recording.fill(new Ellipse2D.Double(20, 100, 10, 10));
+		}
+		recording.setColor(Color.BLUE);
+		recording.fill(new Rectangle2D.Double(10, 170, 180, 20));
+		recording.dispose();
+		return recording.getDisplayList();
+	}
+
+	@Test
+	public void changedAreaOfOverlaySteps() {
+		assertEquals(new Rectangle2D.Double(20, 100, 10, 10), DisplayList.getChangedArea(overlay(false), overlay(true)));
+		assertEquals(new Rectangle2D.Double(20, 100, 10, 10), DisplayList.getChangedArea(overlay(true), overlay(false)));
+		assertTrue(DisplayList.getChangedArea(overlay(true), overlay(true)).isEmpty());
+	}
+
+	@Test
+	public void leastRecentlyUsedFirst() {
+		DisplayList displayList = new DisplayList(new ArrayList<DisplayList.Command>(), 1000);
+		long size = DisplayListCache.getSize();
+		DisplayListCache.setBudget(size + 2000);
+		_cache.put(1, displayList, -1);
+		_cache.put(2, displayList, -1);
+		_cache.get(1);
+		_cache.put(3, displayList, -1);
+
+		assertNotNull(_cache.get(1));
+		assertNull(_cache.get(2));
+		assertNotNull(_cache.get(3));
+		assertEquals(size + 2000, DisplayListCache.getSize());
+	}
+}
@@ -0,0 +1,69 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedRandomAccessTest {
+	private File _file;
+	private byte[] _content;
+
+	@Before
+	public void setUp() throws IOException {
+		_content = new byte[1000];
+		for (int i = 0; i < _content.length; i++) _content[i] = (byte) (i * 7);
+		_file = File.createTempFile("mapped", ".bin");
+		FileOutputStream output = new FileOutputStream(_file);
+		try {
+			output.write(_content);
+		} finally {
+			output.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		_file.delete();
+	}
+
+	@Test
+	public void readAcrossSegments() throws IOException {
+		MappedRandomAccess randomAccess = new MappedRandomAccess(_file, 64);
+		assertEquals(1000, randomAccess.getLength());
+
+		randomAccess.seek(60);
+		byte[] buffer = new byte[100];
+		assertEquals(100, randomAccess.read(buffer));
+		assertArrayEquals(Arrays.copyOfRange(_content, 60, 160), buffer);
+		assertEquals(160, randomAccess.getOffset());
+		assertEquals(_content[160] & 0xff, randomAccess.read());
+
+		randomAccess.seek(950);
+		assertEquals(50, randomAccess.read(buffer, 0, 100));
+		assertEquals(-1, randomAccess.read(buffer));
+		assertEquals(-1, randomAccess.read());
+
+		randomAccess.seekBy(-1000);
+		assertEquals(_content[0] & 0xff, randomAccess.read());
+		randomAccess.close();
+	}
+
+	@Test
+	public void markAndReset() throws IOException {
+		MappedRandomAccess randomAccess = new MappedRandomAccess(_file, 64);
+		randomAccess.seek(10);
+		randomAccess.mark();
+		randomAccess.seek(500);
+		randomAccess.reset();
+		assertEquals(10, randomAccess.getOffset());
+		randomAccess.close();
+	}
+}
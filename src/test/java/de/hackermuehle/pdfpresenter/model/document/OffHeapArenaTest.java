@@ -0,0 +1,111 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class OffHeapArenaTest {
+
+	@Test
+	public void reuseFreedBlocks() {
+		OffHeapArena arena = new OffHeapArena(1000);
+		OffHeapArena.Block a = arena.allocate(400);
+		OffHeapArena.Block b = arena.allocate(400);
+		assertEquals(4000, arena.getReserved());
+		assertEquals(3200, arena.getUsed());
+
+		// Adjacent free blocks are merged:
+		arena.free(a);
+		arena.free(b);
+		OffHeapArena.Block c = arena.allocate(1000);
+		assertEquals(4000, arena.getReserved());
+		assertEquals(4000, arena.getUsed());
+		arena.free(c);
+		assertEquals(0, arena.getUsed());
+	}
+
+	@Test
+	public void largeBlocksGetOwnChunk() {
+		OffHeapArena arena = new OffHeapArena(1000);
+		OffHeapArena.Block small = arena.allocate(10);
+		OffHeapArena.Block large = arena.allocate(5000);
+		assertEquals(24000, arena.getReserved());
+
+		arena.free(large);
+		assertEquals(4000, arena.getReserved());
+		arena.free(small);
+		assertEquals(4000, arena.getReserved());
+	}
+
+	@Test
+	public void offHeapRaster() {
+		BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, 64, 48);
+		g2d.setColor(Color.BLUE);
+		g2d.fillOval(8, 8, 32, 24);
+		g2d.dispose();
+
+		CachedRaster raster = new CachedRaster(1, image, Document.PRIO_MAIN, true);
+		assertTrue(raster.isOffHeap());
+		assertEquals(4L * 64 * 48, raster.getBytes());
+		BufferedImage copy = raster.getImage();
+		for (int y = 0; y < 48; y++) {
+			for (int x = 0; x < 64; x++) {
+				assertEquals(image.getRGB(x, y), copy.getRGB(x, y));
+			}
+		}
+
+		raster.release();
+		assertNull(raster.getImage());
+		assertFalse(new CachedRaster(1, image, Document.PRIO_MAIN).isOffHeap());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void freeTwice() {
+		OffHeapArena arena = new OffHeapArena(1000);
+		OffHeapArena.Block block = arena.allocate(10);
+		arena.free(block);
+		arena.free(block);
+	}
+
+	@Test
+	public void drawClippedOffHeapRaster() {
+		BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, 64, 48);
+		g2d.setColor(Color.RED);
+		g2d.fillOval(4, 4, 40, 30);
+		g2d.dispose();
+		CachedRaster raster = new CachedRaster(1, image, Document.PRIO_MAIN, true);
+
+		// Only the clipped area is drawn, exactly as from the whole image:
+		BufferedImage expected = new BufferedImage(32, 24, BufferedImage.TYPE_INT_RGB);
+		BufferedImage actual = new BufferedImage(32, 24, BufferedImage.TYPE_INT_RGB);
+		g2d = expected.createGraphics();
+		g2d.clipRect(5, 3, 10, 12);
+		g2d.drawImage(image, 0, 0, 32, 24, 8, 4, 56, 40, null);
+		g2d.dispose();
+		g2d = actual.createGraphics();
+		g2d.clipRect(5, 3, 10, 12);
+		assertTrue(raster.draw(g2d, 0, 0, 32, 24, 8, 4, 56, 40));
+		g2d.dispose();
+		for (int y = 0; y < 24; y++) {
+			for (int x = 0; x < 32; x++) {
+				assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+
+		raster.release();
+		assertFalse(raster.draw(actual.createGraphics(), 0, 0, 32, 24, 8, 4, 56, 40));
+	}
+}
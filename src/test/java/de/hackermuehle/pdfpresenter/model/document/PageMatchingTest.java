@@ -0,0 +1,47 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+public class PageMatchingTest {
+
+	@Test
+	public void unchangedPagesKeepTheirPosition() {
+		String[] previous = { "a", "b", "c" };
+		assertArrayEquals(new int[] { 0, -1, 2 }, PdfDocument.matchPages(previous, new String[] { "a", "x", "c" }));
+	}
+
+	@Test
+	public void insertedPageMovesTheFollowingPages() {
+		String[] previous = { "a", "b", "c" };
+		assertArrayEquals(new int[] { 0, -1, 1, 2 }, PdfDocument.matchPages(previous, new String[] { "a", "x", "b", "c" }));
+		assertArrayEquals(new int[] { 0, 2 }, PdfDocument.matchPages(previous, new String[] { "a", "c" }));
+	}
+
+	@Test
+	public void identicalPagesAreMatchedOnce() {
+		String[] previous = { "a", "t", "t", "b" };
+		assertArrayEquals(new int[] { -1, 1, 2, 0 }, PdfDocument.matchPages(previous, new String[] { "t", "t", "t", "a" }));
+	}
+
+	@Test
+	public void identicalPagesShareTheFirstPage() {
+		assertArrayEquals(new int[] { 0, 1, 0, 3, 1 }, PdfDocument.canonicalPages(new String[] { "t", "a", "t", "b", "a" }));
+	}
+
+	@Test
+	public void pagesNotFingerprintedShareNothing() {
+		assertArrayEquals(new int[] { 0, 1, 0, 3 }, PdfDocument.canonicalPages(new String[] { "t", null, "t", null }));
+	}
+
+	@Test
+	public void pagesNotFingerprintedMatchNothing() {
+		assertArrayEquals(new int[] { 0, -1, -1 }, PdfDocument.matchPages(new String[] { "a", null, null }, new String[] { "a", "b", "c" }));
+	}
+
+	@Test
+	public void unknownPreviousPagesMatchNothing() {
+		assertArrayEquals(new int[] { -1, -1 }, PdfDocument.matchPages(null, new String[] { "a", "b" }));
+	}
+}
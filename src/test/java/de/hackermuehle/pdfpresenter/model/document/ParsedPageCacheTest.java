@@ -0,0 +1,59 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParsedPageCacheTest {
+	private ParsedPageCache _cache = new ParsedPageCache();
+	private long _budget;
+
+	@Before
+	public void setUp() {
+		_budget = ParsedPageCache.getBudget();
+	}
+
+	@After
+	public void tearDown() {
+		_cache.clear();
+		ParsedPageCache.setBudget(_budget);
+	}
+
+	private static ParsedPageCache.ParsedPage page(long bytes) {
+		return new ParsedPageCache.ParsedPage(null, null, bytes);
+	}
+
+	@Test
+	public void leastRecentlyUsedFirst() {
+		long size = ParsedPageCache.getSize();
+		ParsedPageCache.setBudget(size + 3000);
+		_cache.put(20, page(1000), -1);
+		_cache.put(21, page(1000), -1);
+		_cache.get(20);
+		_cache.put(22, page(1000), -1);
+		assertEquals(size + 3000, ParsedPageCache.getSize());
+
+		_cache.put(23, page(1000), -1);
+		assertNotNull(_cache.get(20));
+		assertNull(_cache.get(21));
+		assertEquals(size + 3000, ParsedPageCache.getSize());
+	}
+
+	@Test
+	public void keepsWindowAroundFocus() {
+		ParsedPageCache.setBudget(0);
+		for (int pageNr = 0; pageNr < 20; pageNr++) {
+			_cache.put(pageNr, page(1000), 10);
+		}
+		assertNull(_cache.get(6));
+		for (int pageNr = 10 - ParsedPageCache.WINDOW; pageNr <= 10 + ParsedPageCache.WINDOW; pageNr++) {
+			assertNotNull(_cache.get(pageNr));
+		}
+		assertNotNull(_cache.get(19));
+		assertNull(_cache.get(18));
+	}
+}
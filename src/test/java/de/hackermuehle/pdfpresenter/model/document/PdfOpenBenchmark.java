@@ -0,0 +1,76 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.hackermuehle.pdfpresenter.model.Clipping;
+import de.hackermuehle.pdfpresenter.model.slide.DocumentSlide;
+import de.hackermuehle.pdfpresenter.model.slide.Slide;
+import de.intarsys.pdf.pd.PDDocument;
+import de.intarsys.tools.locator.FileLocator;
+
+/**
+ * Measures the time from opening a PDF file to the first painted page, as
+ * done when opening a presentation, and compares opening the file through
+ * a {@link FileLocator} with the {@link MappedFileLocator}.
+ *
+ * Run with: java -cp target/classes:target/test-classes:presenter_lib/*
+ * de.hackermuehle.pdfpresenter.model.document.PdfOpenBenchmark file.pdf
+ */
+public class PdfOpenBenchmark {
+	private static final int ROUNDS = 5;
+
+	/**
+	 * @return Milliseconds until the first page is painted
+	 */
+	private static double openToFirstPaint(String fileName) throws Exception {
+		long start = System.nanoTime();
+		PdfDocument document = new PdfDocument(fileName);
+		List<Slide> slides = new ArrayList<Slide>(document.getNumberOfPages());
+		for (int i = 0; i < document.getNumberOfPages(); i++) {
+			slides.add(new DocumentSlide(document, i));
+		}
+
+		Slide slide = slides.get(0);
+		int height = (int) (1024 * slide.getSize().getHeight() / slide.getSize().getWidth());
+		BufferedImage image = new BufferedImage(1024, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = image.createGraphics();
+		Clipping clipping = new Clipping(slide.getSize(), new Rectangle(0, 0, 1024, height));
+		g2d.transform(clipping.getTransform());
+		document.paintContent(g2d, 0, clipping);
+		g2d.dispose();
+		double millis = (System.nanoTime() - start) / 1e6;
+
+		document.dispose();
+		return millis;
+	}
+
+	/**
+	 * @return Milliseconds to open the file and count its pages
+	 */
+	private static double open(String fileName, boolean mapped) throws Exception {
+		long start = System.nanoTime();
+		PDDocument document = PDDocument.createFromLocator(mapped ?
+				new MappedFileLocator(new File(fileName)) : new FileLocator(fileName));
+		document.getPageTree().getCount();
+		double millis = (System.nanoTime() - start) / 1e6;
+		document.close();
+		return millis;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: PdfOpenBenchmark file.pdf");
+			return;
+		}
+		System.out.println(args[0] + ": " + new File(args[0]).length() / 1024 / 1024 + " MB");
+		for (int round = 0; round < ROUNDS; round++) {
+			System.out.println(String.format("round %d: open file locator %8.1f ms, mapped %8.1f ms, open to first paint %8.1f ms",
+					round, open(args[0], false), open(args[0], true), openToFirstPaint(args[0])));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import de.hackermuehle.pdfpresenter.model.CacheEvent;
+import de.hackermuehle.pdfpresenter.model.CacheObserver;
+import de.hackermuehle.pdfpresenter.model.Clipping;
+
+/**
+ * Renders all pages of a PDF file into the cache with an increasing number
+ * of render workers and prints the pages rendered per second, e.g. to
+ * check that rendering a deck scales across cores. Also prints the decode
+ * time saved by reusing decoded images, e.g. logos of a template.
+ *
+ * Run with: java -cp target/classes:target/test-classes:presenter_lib/*
+ * de.hackermuehle.pdfpresenter.model.document.PdfRenderBenchmark file.pdf [maxWorkers] [width]
+ */
+public class PdfRenderBenchmark {
+	private final String _fileName;
+	private final int _width;
+
+	public PdfRenderBenchmark(String fileName, int width) {
+		_fileName = fileName;
+		_width = width;
+	}
+
+	private static class Observer implements CacheObserver {
+		private final CountDownLatch _done;
+		private boolean _counted = false;
+
+		public Observer(CountDownLatch done) {
+			_done = done;
+		}
+
+		@Override
+		public synchronized void notify(CacheEvent event) {
+			if (event.getKind() == CacheEvent.Kind.PREVIEW || _counted) return;
+			_counted = true;
+			_done.countDown();
+		}
+	}
+
+	/**
+	 * @return Pages per second
+	 */
+	private double run(int workers) throws Exception {
+		RenderScheduler.getInstance().setWorkerCount(workers);
+		PdfDocument document = new PdfDocument(_fileName);
+		int pages = document.getNumberOfPages();
+		CountDownLatch done = new CountDownLatch(pages);
+		List<DocumentCacheEntry> entries = new ArrayList<DocumentCacheEntry>(pages);
+
+		long start = System.nanoTime();
+		for (int pageNr = 0; pageNr < pages; pageNr++) {
+			int height = (int) (_width / document.getPageRatio(pageNr));
+			Clipping clipping = new Clipping(document.getBounds(pageNr), new Rectangle(0, 0, _width, height));
+			entries.add(document.cache(pageNr, clipping, Document.PRIO_PRECACHE, new Observer(done)));
+		}
+		done.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		for (DocumentCacheEntry entry : entries) {
+			entry.dispose();
+		}
+		document.dispose();
+		return pages / seconds;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: PdfRenderBenchmark file.pdf [maxWorkers] [width]");
+			return;
+		}
+		int maxWorkers = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int width = (args.length > 2) ? Integer.parseInt(args[2]) : 1024;
+
+		// Measure rendering, not the disk cache:
+		DiskRasterCache.getInstance().setBudget(0);
+		CompressedRasterCache.getInstance().setBudget(0);
+
+		PdfRenderBenchmark benchmark = new PdfRenderBenchmark(args[0], width);
+		benchmark.run(1); // warm up
+		double serial = 0;
+		for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+			double pagesPerSecond = benchmark.run(workers);
+			if (workers == 1) serial = pagesPerSecond;
+			System.out.println(String.format("%2d workers: %8.1f pages/s, speedup %4.2fx",
+					workers, pagesPerSecond, pagesPerSecond / serial));
+		}
+
+		RenderMetrics metrics = RenderMetrics.getGlobal();
+		System.out.println(String.format("images: %d decodes, %.1f ms each, %d reused, %.0f ms decode time saved",
+				metrics.getImageDecodes(), metrics.getMeanImageDecodeMillis(),
+				metrics.getDecodedImageHits(), metrics.getImageDecodeMillisSaved()));
+	}
+}
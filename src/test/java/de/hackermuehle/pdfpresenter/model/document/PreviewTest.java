@@ -0,0 +1,92 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.hackermuehle.pdfpresenter.model.CacheEvent;
+import de.hackermuehle.pdfpresenter.model.CacheObserver;
+import de.hackermuehle.pdfpresenter.model.Clipping;
+
+public class PreviewTest {
+
+	private static class CountingDocument extends Document {
+		private final AtomicInteger _paints = new AtomicInteger();
+
+		@Override
+		public String getTitle() {
+			return "counting";
+		}
+
+		@Override
+		public int getNumberOfPages() {
+			return 1;
+		}
+
+		@Override
+		public double getPageRatio(int pageNr) {
+			return 4 / 3.0;
+		}
+
+		@Override
+		public Rectangle2D getBounds(int pageNr) {
+			return new Rectangle2D.Double(0, 0, 400, 300);
+		}
+
+		@Override
+		protected void paintContent(Graphics2D g2d, int pageNr, Clipping clipping) {
+			_paints.incrementAndGet();
+			g2d.fill(getBounds(pageNr));
+		}
+	}
+
+	private static class Observer implements CacheObserver {
+		private final CountDownLatch _ready = new CountDownLatch(1);
+
+		@Override
+		public void notify(CacheEvent event) {
+			if (event.getKind() == CacheEvent.Kind.READY) _ready.countDown();
+		}
+	}
+
+	@Test
+	public void displayedPageIsPreviewed() throws Exception {
+		CountingDocument document = new CountingDocument();
+		try {
+			Clipping clipping = new Clipping(document.getBounds(0), new Rectangle(0, 0, 800, 600));
+			Observer observer = new Observer();
+			DocumentCacheEntry entry = document.cache(0, clipping, Document.PRIO_MAIN, observer);
+			assertTrue(observer._ready.await(10, TimeUnit.SECONDS));
+			assertEquals(2, document._paints.get());
+			entry.dispose();
+		} finally {
+			document.dispose();
+		}
+	}
+
+	@Test
+	public void precachedPageIsNotPreviewed() throws Exception {
+		CountingDocument document = new CountingDocument();
+		try {
+			Clipping clipping = new Clipping(document.getBounds(0), new Rectangle(0, 0, 800, 600));
+			DocumentCacheEntry entry = document.cache(0, clipping, Document.PRIO_PRECACHE, null);
+			long deadline = System.currentTimeMillis() + 10000;
+			while (!entry.isCached() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(entry.isCached());
+			assertEquals(1, document._paints.get());
+			entry.dispose();
+		} finally {
+			document.dispose();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RasterCodecTest {
+
+	private static BufferedImage slide(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, width, height);
+		g2d.setColor(new Color(20, 60, 200));
+		g2d.fillRect(10, 10, width / 2, 12);
+		g2d.dispose();
+
+		// Some noise, e.g. a photo:
+		Random random = new Random(1);
+		for (int i = 0; i < 500; i++) {
+			image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt());
+		}
+		return image;
+	}
+
+	private static byte[] encode(BufferedImage image) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		RasterCodec.encode(image, output);
+		return output.toByteArray();
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		BufferedImage image = slide(320, 240);
+		byte[] encoded = encode(image);
+		assertTrue(encoded.length < 320 * 240 * 3 / 10);
+
+		BufferedImage decoded = RasterCodec.decode(ByteBuffer.wrap(encoded), 320, 240);
+		for (int y = 0; y < 240; y++) {
+			for (int x = 0; x < 320; x++) {
+				assertEquals(image.getRGB(x, y) | 0xff000000, decoded.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void otherSize() throws IOException {
+		byte[] encoded = encode(slide(64, 48));
+		assertNull(RasterCodec.decode(ByteBuffer.wrap(encoded), 64, 47));
+	}
+
+	@Test(expected = EOFException.class)
+	public void truncated() throws IOException {
+		byte[] encoded = encode(slide(64, 48));
+		RasterCodec.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length / 2)), 64, 48);
+	}
+}
@@ -0,0 +1,94 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import java.awt.Dimension;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Microbenchmark comparing {@link RasterIndex} lookups with the former
+ * string keyed cache map ("p12d1024.0h768.0"), which had to parse every key
+ * of the map on each lookup.
+ *
+ * Run with: java -cp target/classes:target/test-classes
+ * de.hackermuehle.pdfpresenter.model.document.RasterIndexBenchmark [pages]
+ */
+public class RasterIndexBenchmark {
+	private static final int[][] SIZES = {{200, 150}, {1024, 768}, {1280, 960}, {1920, 1440}};
+	private static final int LOOKUPS = 200000;
+	private static final int ROUNDS = 5;
+
+	private final ConcurrentHashMap<String, Dimension> _legacy = new ConcurrentHashMap<String, Dimension>();
+	private final RasterIndex _index = new RasterIndex();
+	private final int _pages;
+
+	public RasterIndexBenchmark(int pages) {
+		_pages = pages;
+		for (int pageNr = 0; pageNr < pages; pageNr++) {
+			for (int[] size : SIZES) {
+				_legacy.put("p" + pageNr + "d" + (double) size[0] + "h" + (double) size[1], new Dimension(size[0], size[1]));
+				_index.put(new CachedRaster(pageNr, size[0], size[1], null, Document.PRIO_MAIN));
+			}
+		}
+	}
+
+	/**
+	 * The former Document.isCachedLarger(...).
+	 */
+	private Dimension legacyLarger(int pageId, int width, int height) {
+		for (String k : _legacy.keySet()) {
+			int i = k.indexOf('d');
+			int iPage = Integer.parseInt((k.substring(1, i)));
+			if (iPage == pageId) {
+				if (width <= _legacy.get(k).getWidth() && height <= _legacy.get(k).getHeight()) {
+					return _legacy.get(k);
+				}
+			}
+		}
+		return null;
+	}
+
+	private long runLegacy(int[] pages, int lookups) {
+		long hits = 0;
+		for (int i = 0; i < lookups; i++) {
+			if (legacyLarger(pages[i], 1000, 750) != null) hits++;
+		}
+		return hits;
+	}
+
+	private long runIndex(int[] pages, int lookups) {
+		long hits = 0;
+		for (int i = 0; i < lookups; i++) {
+			if (_index.getLarger(pages[i], 1000, 750) != null) hits++;
+		}
+		return hits;
+	}
+
+	public void run() {
+		int[] pages = new int[LOOKUPS];
+		Random random = new Random(42);
+		for (int i = 0; i < pages.length; i++) pages[i] = random.nextInt(_pages);
+
+		// The legacy lookup is linear in the number of entries; use fewer
+		// lookups so the benchmark finishes in reasonable time:
+		int legacyLookups = Math.max(1000, LOOKUPS / _pages);
+
+		System.out.println(_index.size() + " cached entries, " + _pages + " pages");
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			long legacyHits = runLegacy(pages, legacyLookups);
+			double legacyNanos = (System.nanoTime() - start) / (double) legacyLookups;
+
+			start = System.nanoTime();
+			long indexHits = runIndex(pages, LOOKUPS);
+			double indexNanos = (System.nanoTime() - start) / (double) LOOKUPS;
+
+			System.out.println(String.format("round %d: string map %10.1f ns/lookup, raster index %6.1f ns/lookup, speedup %6.0fx (hits %d/%d)",
+					round, legacyNanos, indexNanos, legacyNanos / indexNanos, legacyHits, indexHits));
+		}
+	}
+
+	public static void main(String[] args) {
+		int pages = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+		new RasterIndexBenchmark(pages).run();
+	}
+}
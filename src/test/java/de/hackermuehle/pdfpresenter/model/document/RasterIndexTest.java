@@ -0,0 +1,66 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RasterIndexTest {
+
+	private static CachedRaster raster(int pageNr, int width, int height) {
+		return new CachedRaster(pageNr, width, height, null, Document.PRIO_MAIN);
+	}
+
+	@Test
+	public void exactLookup() {
+		RasterIndex index = new RasterIndex();
+		CachedRaster thumbnail = raster(3, 200, 150);
+		CachedRaster main = raster(3, 1024, 768);
+		index.put(main);
+		index.put(thumbnail);
+
+		assertSame(thumbnail, index.get(3, 200, 150));
+		assertSame(main, index.get(3, 1024, 768));
+		assertNull(index.get(3, 1024, 767));
+		assertNull(index.get(4, 200, 150));
+		assertNull(index.get(1000, 200, 150));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void smallestLargerLookup() {
+		RasterIndex index = new RasterIndex();
+		CachedRaster flat = raster(0, 800, 100);
+		CachedRaster main = raster(0, 1024, 768);
+		CachedRaster projector = raster(0, 1920, 1440);
+		index.put(projector);
+		index.put(flat);
+		index.put(main);
+
+		assertSame(main, index.getLarger(0, 1024, 768));
+		assertSame(main, index.getLarger(0, 640, 480));
+		assertSame(flat, index.getLarger(0, 640, 100));
+		assertSame(projector, index.getLarger(0, 1025, 768));
+		assertNull(index.getLarger(0, 1921, 1));
+		assertNull(index.getLarger(1, 1, 1));
+	}
+
+	@Test
+	public void replaceAndRemove() {
+		RasterIndex index = new RasterIndex();
+		CachedRaster first = raster(7, 100, 75);
+		CachedRaster second = raster(7, 100, 75);
+		index.put(first);
+		assertSame(first, index.put(second));
+		assertEquals(1, index.size());
+
+		// Only the indexed instance is removed:
+		assertTrue(!index.remove(first));
+		assertTrue(index.remove(second));
+		assertNull(index.get(7, 100, 75));
+		assertEquals(0, index.size());
+		assertTrue(index.getAll().isEmpty());
+	}
+}
@@ -0,0 +1,57 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RenderMetricsTest {
+
+	@Test
+	public void buckets() {
+		assertEquals(0, RenderMetrics.bucket(999999));
+		assertEquals(1, RenderMetrics.bucket(1000000));
+		assertEquals(2, RenderMetrics.bucket(2000000));
+		assertEquals(2, RenderMetrics.bucket(3999999));
+		assertEquals(11, RenderMetrics.bucket(1500L * 1000000));
+		assertEquals(15, RenderMetrics.bucket(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void countedGlobally() {
+		RenderMetrics global = RenderMetrics.getGlobal();
+		long renders = global.getRenders();
+		long misses = global.getMisses();
+
+		RenderMetrics metrics = new RenderMetrics(null);
+		metrics.recordRender(0, 3000000);
+		metrics.recordRender(1, 5000000);
+		metrics.recordMiss();
+
+		assertEquals(2, metrics.getRenders());
+		assertEquals(4.0, metrics.getMeanRenderMillis(), 1e-9);
+		long[] histogram = new long[16];
+		histogram[2] = 1;
+		histogram[3] = 1;
+		assertArrayEquals(histogram, metrics.getRenderLatencyHistogram());
+		assertEquals(renders + 2, global.getRenders());
+		assertEquals(misses + 1, global.getMisses());
+	}
+
+	@Test
+	public void edtPaints() {
+		RenderMetrics metrics = new RenderMetrics(null);
+		metrics.recordEdtPaint(2000000);
+		metrics.recordEdtPaint(30000000);
+		metrics.recordEdtPaint(1000000);
+
+		assertEquals(3, metrics.getEdtPaints());
+		assertEquals(11.0, metrics.getMeanEdtPaintMillis(), 1e-9);
+		assertEquals(30.0, metrics.getMaxEdtPaintMillis(), 1e-9);
+		assertEquals(1, metrics.getEdtPaintsOverFrameBudget());
+
+		metrics.reset();
+		assertEquals(0, metrics.getEdtPaints());
+		assertEquals(0.0, metrics.getMaxEdtPaintMillis(), 1e-9);
+	}
+}
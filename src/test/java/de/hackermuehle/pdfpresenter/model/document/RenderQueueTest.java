@@ -0,0 +1,139 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RenderQueueTest {
+
+	private static class Job extends RenderJob {
+		private int _priority;
+		private long _pixelCount;
+
+		public Job(int priority, long pixelCount) {
+			_priority = priority;
+			_pixelCount = pixelCount;
+		}
+
+		@Override
+		public Document getDocument() {
+			return null;
+		}
+
+		@Override
+		public int getPriority() {
+			return _priority;
+		}
+
+		@Override
+		public long getPixelCount() {
+			return _pixelCount;
+		}
+
+		@Override
+		public void render() {
+		}
+	}
+
+	@Test
+	public void priorityThenSizeThenArrival() {
+		RenderQueue queue = new RenderQueue();
+		Job thumbnail = new Job(Document.PRIO_THUMBNAIL, 200 * 150);
+		Job first = new Job(Document.PRIO_PRECACHE, 1024 * 768);
+		Job second = new Job(Document.PRIO_PRECACHE, 1024 * 768);
+		Job bigger = new Job(Document.PRIO_PRECACHE, 1920 * 1440);
+		Job main = new Job(Document.PRIO_MAIN, 1024 * 768);
+		queue.offer(thumbnail);
+		queue.offer(first);
+		queue.offer(second);
+		queue.offer(bigger);
+		queue.offer(main);
+
+		assertSame(main, queue.poll());
+		assertSame(bigger, queue.poll());
+		assertSame(first, queue.poll());
+		assertSame(second, queue.poll());
+		assertSame(thumbnail, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void reprioritizeAndRemove() {
+		RenderQueue queue = new RenderQueue();
+		Job a = new Job(Document.PRIO_THUMBNAIL, 100);
+		Job b = new Job(Document.PRIO_THUMBNAIL, 100);
+		Job c = new Job(Document.PRIO_THUMBNAIL, 100);
+		assertTrue(queue.offer(a));
+		assertTrue(queue.offer(b));
+		assertTrue(queue.offer(c));
+
+		c._priority = Document.PRIO_MAIN;
+		assertFalse(queue.offer(c));
+		assertEquals(3, queue.size());
+		assertSame(c, queue.peek());
+
+		c._priority = Document.PRIO_MIN - 1;
+		queue.offer(c);
+		assertSame(a, queue.peek());
+
+		assertTrue(queue.remove(a));
+		assertFalse(queue.remove(a));
+		assertFalse(queue.contains(a));
+		assertSame(b, queue.poll());
+		assertSame(c, queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void restoredJobsKeepTheirArrival() {
+		RenderQueue queue = new RenderQueue();
+		RenderQueue parked = new RenderQueue();
+		Job first = new Job(Document.PRIO_PRECACHE, 100);
+		Job second = new Job(Document.PRIO_PRECACHE, 100);
+		queue.offer(first);
+		queue.offer(second);
+
+		// Parking and restoring doesn't move a job behind later arrivals:
+		parked.restore(queue.poll());
+		queue.restore(parked.poll());
+		assertSame(first, queue.poll());
+		assertSame(second, queue.poll());
+	}
+
+	@Test
+	public void randomOperationsKeepHeapOrder() {
+		RenderQueue queue = new RenderQueue();
+		List<Job> jobs = new ArrayList<Job>();
+		Random random = new Random(7);
+		for (int i = 0; i < 2000; i++) {
+			Job job = new Job(random.nextInt(5) * 100, random.nextInt(4));
+			jobs.add(job);
+			queue.offer(job);
+		}
+		for (int i = 0; i < 1000; i++) {
+			Job job = jobs.get(random.nextInt(jobs.size()));
+			if (random.nextBoolean()) {
+				queue.remove(job);
+			} else {
+				job._priority = random.nextInt(5) * 100;
+				queue.offer(job);
+			}
+		}
+
+		RenderJob previous = queue.poll();
+		RenderJob job;
+		while ((job = queue.poll()) != null) {
+			assertTrue(previous.getPriority() > job.getPriority()
+					|| (previous.getPriority() == job.getPriority() && previous.getPixelCount() >= job.getPixelCount()));
+			previous = job;
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package de.hackermuehle.pdfpresenter.model.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Test;
+
+import de.hackermuehle.pdfpresenter.model.CacheEvent;
+import de.hackermuehle.pdfpresenter.model.CacheObserver;
+import de.hackermuehle.pdfpresenter.model.Clipping;
+
+public class SharedRenderTest {
+
+	/**
+	 * Blocks the first rendering until released.
+	 */
+	private static class BlockingDocument extends Document {
+		private final CountDownLatch _started = new CountDownLatch(1);
+		private final CountDownLatch _release = new CountDownLatch(1);
+		private final AtomicInteger _failures = new AtomicInteger(); // renderings to fail
+		private volatile boolean _broken; // e.g. the file changed while mapped
+		private final Set<Thread> _threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+		@Override
+		public String getTitle() {
+			return "blocking";
+		}
+
+		@Override
+		public int getNumberOfPages() {
+			return 1;
+		}
+
+		@Override
+		public double getPageRatio(int pageNr) {
+			return 4 / 3.0;
+		}
+
+		@Override
+		public Rectangle2D getBounds(int pageNr) {
+			return new Rectangle2D.Double(0, 0, 400, 300);
+		}
+
+		@Override
+		protected boolean isConcurrentRenderingSupported() {
+			return true;
+		}
+
+		@Override
+		protected void paintContent(Graphics2D g2d, int pageNr, Clipping clipping) {
+			_threads.add(Thread.currentThread());
+			_started.countDown();
+			try {
+				_release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (_failures.getAndDecrement() > 0) throw new IllegalStateException("Broken page");
+			if (_broken) {
+				_broken = false;
+				throw new InternalError("Broken file");
+			}
+			g2d.fill(getBounds(pageNr));
+		}
+	}
+
+	private static class Observer implements CacheObserver {
+		private final CountDownLatch _ready = new CountDownLatch(1);
+		private final CountDownLatch _error = new CountDownLatch(1);
+
+		@Override
+		public void notify(CacheEvent event) {
+			if (event.getKind() == CacheEvent.Kind.READY) _ready.countDown();
+			if (event.getKind() == CacheEvent.Kind.ERROR) _error.countDown();
+		}
+	}
+
+	@Test
+	public void identicalRequestsRenderOnce() throws Exception {
+		RenderScheduler scheduler = RenderScheduler.getInstance();
+		int workerCount = scheduler.getWorkerCount();
+		scheduler.setWorkerCount(Math.max(2, workerCount));
+		BlockingDocument document = new BlockingDocument();
+		try {
+			Clipping clipping = new Clipping(document.getBounds(0), new Rectangle(0, 0, 800, 600));
+			Observer first = new Observer();
+			Observer second = new Observer();
+			DocumentCacheEntry firstEntry = document.cache(0, clipping, Document.PRIO_MAIN, first);
+			assertTrue(document._started.await(10, TimeUnit.SECONDS));
+			DocumentCacheEntry secondEntry = document.cache(0, clipping, Document.PRIO_MAIN, second);
+
+			// Wait until the second request joined the first one:
+			long deadline = System.currentTimeMillis() + 10000;
+			while (document.getMetrics().getSharedRenders() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			document._release.countDown();
+
+			assertTrue(first._ready.await(10, TimeUnit.SECONDS));
+			assertTrue(second._ready.await(10, TimeUnit.SECONDS));
+			assertEquals(1, document.getMetrics().getSharedRenders());
+			assertTrue(secondEntry.isCached());
+
+			firstEntry.dispose();
+			secondEntry.dispose();
+		} finally {
+			document._release.countDown();
+			document.dispose();
+			scheduler.setWorkerCount(workerCount);
+		}
+	}
+
+	@Test
+	public void failedRenderingEndsForAllRequests() throws Exception {
+		RenderScheduler scheduler = RenderScheduler.getInstance();
+		int workerCount = scheduler.getWorkerCount();
+		scheduler.setWorkerCount(Math.max(2, workerCount));
+		BlockingDocument document = new BlockingDocument();
+		document._failures.set(1);
+		try {
+			Clipping clipping = new Clipping(document.getBounds(0), new Rectangle(0, 0, 800, 600));
+			Observer first = new Observer();
+			Observer second = new Observer();
+			DocumentCacheEntry firstEntry = document.cache(0, clipping, Document.PRIO_MAIN, first);
+			assertTrue(document._started.await(10, TimeUnit.SECONDS));
+			DocumentCacheEntry secondEntry = document.cache(0, clipping, Document.PRIO_MAIN, second);
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while (document.getMetrics().getSharedRenders() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			document._release.countDown();
+			assertTrue(first._error.await(10, TimeUnit.SECONDS));
+			assertTrue(second._error.await(10, TimeUnit.SECONDS));
+
+			// Requested again, the page is rendered:
+			Observer retry = new Observer();
+			secondEntry.dispose();
+			secondEntry = document.cache(0, clipping, Document.PRIO_MAIN, retry);
+			assertTrue(retry._ready.await(10, TimeUnit.SECONDS));
+			assertTrue(secondEntry.isCached());
+
+			firstEntry.dispose();
+			secondEntry.dispose();
+		} finally {
+			document._release.countDown();
+			document.dispose();
+			scheduler.setWorkerCount(workerCount);
+		}
+	}
+
+	@Test
+	public void workerSurvivesErrors() throws Exception {
+		RenderScheduler scheduler = RenderScheduler.getInstance();
+		int workerCount = scheduler.getWorkerCount();
+		scheduler.setWorkerCount(1);
+		BlockingDocument document = new BlockingDocument();
+		document._broken = true;
+		document._release.countDown();
+		try {
+			Clipping clipping = new Clipping(document.getBounds(0), new Rectangle(0, 0, 800, 600));
+			Observer observer = new Observer();
+			DocumentCacheEntry entry = document.cache(0, clipping, Document.PRIO_MAIN, observer);
+			assertTrue(observer._error.await(10, TimeUnit.SECONDS));
+			entry.dispose();
+
+			// Rendered again by the same worker:
+			Observer retry = new Observer();
+			entry = document.cache(0, clipping, Document.PRIO_MAIN, retry);
+			assertTrue(retry._ready.await(10, TimeUnit.SECONDS));
+			assertEquals(1, document._threads.size());
+			entry.dispose();
+		} finally {
+			document.dispose();
+			scheduler.setWorkerCount(workerCount);
+		}
+	}
+
+	@Test
+	public void retargetedRenderingIsCancelled() throws Exception {
+		RenderScheduler scheduler = RenderScheduler.getInstance();
+		int workerCount = scheduler.getWorkerCount();
+		scheduler.setWorkerCount(Math.max(2, workerCount));
+		BlockingDocument document = new BlockingDocument();
+		try {
+			Clipping small = new Clipping(document.getBounds(0), new Rectangle(0, 0, 400, 300));
+			Clipping large = new Clipping(document.getBounds(0), new Rectangle(0, 0, 800, 600));
+			Observer observer = new Observer();
+			DocumentCacheEntry entry = document.cache(0, small, Document.PRIO_MAIN, observer);
+			assertTrue(document._started.await(10, TimeUnit.SECONDS));
+
+			// Not rendered by a second worker while the first one renders it:
+			entry.update(0, large, Document.PRIO_MAIN, observer);
+			Thread.sleep(100);
+			document._release.countDown();
+
+			assertTrue(observer._ready.await(10, TimeUnit.SECONDS));
+			long deadline = System.currentTimeMillis() + 10000;
+			while (!entry.isCached() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(document.isCached(0, large));
+			assertEquals(1, document.getMetrics().getCancelledRenders());
+			entry.dispose();
+		} finally {
+			document._release.countDown();
+			document.dispose();
+			scheduler.setWorkerCount(workerCount);
+		}
+	}
+
+	@Test
+	public void placeholderIsRenderedInBackground() throws Exception {
+		final BlockingDocument document = new BlockingDocument();
+		final Clipping clipping = new Clipping(document.getBounds(0), new Rectangle(0, 0, 800, 600));
+		final BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+		Runnable paint = new Runnable() {
+			@Override
+			public void run() {
+				Graphics2D g2d = image.createGraphics();
+				g2d.setTransform(clipping.getTransform());
+				document.paint(g2d, 0, clipping);
+				g2d.dispose();
+			}
+		};
+		boolean strictPainting = Document.isStrictPainting();
+		Document.setStrictPainting(true);
+		try {
+			SwingUtilities.invokeAndWait(paint);
+			assertEquals(1, document.getMetrics().getPlaceholders());
+			assertEquals(-1, document.getMetrics().getOpenToFirstPaintMillis(), 0);
+
+			// Rendered without a cache entry requesting it:
+			assertTrue(document._started.await(10, TimeUnit.SECONDS));
+			document._release.countDown();
+			long deadline = System.currentTimeMillis() + 10000;
+			while (!document.isCached(0, clipping) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(document.isCached(0, clipping));
+
+			SwingUtilities.invokeAndWait(paint);
+			assertEquals(1, document.getMetrics().getPlaceholders());
+			assertTrue(document.getMetrics().getOpenToFirstPaintMillis() >= 0);
+		} finally {
+			Document.setStrictPainting(strictPainting);
+			document._release.countDown();
+			document.dispose();
+		}
+	}
+
+	@Test
+	public void placeholdersOfDifferentSizesAreAllRendered() throws Exception {
+		RenderScheduler scheduler = RenderScheduler.getInstance();
+		int workerCount = scheduler.getWorkerCount();
+		scheduler.setWorkerCount(Math.max(2, workerCount));
+		final BlockingDocument document = new BlockingDocument();
+		final Clipping small = new Clipping(document.getBounds(0), new Rectangle(0, 0, 400, 300));
+		final Clipping large = new Clipping(document.getBounds(0), new Rectangle(0, 0, 800, 600));
+		Runnable paint = new Runnable() {
+			@Override
+			public void run() {
+				for (Clipping clipping : new Clipping[] { small, large, small, large }) {
+					Graphics2D g2d = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB).createGraphics();
+					g2d.setTransform(clipping.getTransform());
+					document.paint(g2d, 0, clipping);
+					g2d.dispose();
+				}
+			}
+		};
+		boolean strictPainting = Document.isStrictPainting();
+		Document.setStrictPainting(true);
+		try {
+			
+			// Shown in two views at once, neither rendering aborts the other:
+			SwingUtilities.invokeAndWait(paint);
+			assertTrue(document._started.await(10, TimeUnit.SECONDS));
+			document._release.countDown();
+			long deadline = System.currentTimeMillis() + 10000;
+			while (!(document.isCached(0, small) && document.isCached(0, large)) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(document.isCached(0, small));
+			assertTrue(document.isCached(0, large));
+			assertEquals(0, document.getMetrics().getCancelledRenders());
+		} finally {
+			Document.setStrictPainting(strictPainting);
+			document._release.countDown();
+			document.dispose();
+			scheduler.setWorkerCount(workerCount);
+		}
+	}
+}